@@ -0,0 +1,95 @@
+package it.unical.igpe.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+
+import it.unical.igpe.logic.BulletPool;
+import it.unical.igpe.logic.Enemy;
+import it.unical.igpe.logic.SpatialHash;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Stress scenario for the bullet/enemy broad phase: compares the old
+ * bullets x enemies loop with the SpatialHash on a 64x64 map while the
+ * number of bullets and enemies grows together.
+ */
+public class CollisionBenchmark {
+	private static final int MAP_SIZE = 64 * GameConfig.TILEDIM;
+	private static final int FRAMES = 20;
+
+	public static void main(String[] args) {
+		System.out.println("bullets\tenemies\tnaive ms/frame\thash ms/frame\thits");
+		for (int scale = 1; scale <= 8; scale *= 2) {
+			int bullets = 1000 * scale;
+			int enemies = 100 * scale;
+			run(bullets, enemies);
+		}
+	}
+
+	private static void run(int bulletCount, int enemyCount) {
+		Random random = new Random(42);
+		List<Enemy> enemies = new ArrayList<Enemy>();
+		for (int i = 0; i < enemyCount; i++)
+			enemies.add(new Enemy(new Vector2(random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE))));
+		BulletPool bullets = new BulletPool();
+		int owner = bullets.ownerId("player");
+		for (int i = 0; i < bulletCount; i++)
+			bullets.add(random.nextInt(MAP_SIZE), random.nextInt(MAP_SIZE), random.nextFloat() * 6.28f, owner, 15);
+
+		// Warm up both paths before measuring
+		naive(bullets, enemies);
+		hashed(bullets, enemies, new SpatialHash<Enemy>(GameConfig.TILEDIM * 2), new Array<Enemy>());
+
+		long start = System.nanoTime();
+		int hits = 0;
+		for (int f = 0; f < FRAMES; f++)
+			hits = naive(bullets, enemies);
+		double naiveMs = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+		SpatialHash<Enemy> hash = new SpatialHash<Enemy>(GameConfig.TILEDIM * 2);
+		Array<Enemy> candidates = new Array<Enemy>();
+		start = System.nanoTime();
+		int hashHits = 0;
+		for (int f = 0; f < FRAMES; f++)
+			hashHits = hashed(bullets, enemies, hash, candidates);
+		double hashMs = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+		if (hits != hashHits)
+			System.out.println("Mismatch: naive found " + hits + " hits, hash found " + hashHits);
+		System.out.printf("%d\t%d\t%.3f\t\t%.3f\t\t%d%n", bulletCount, enemyCount, naiveMs, hashMs, hashHits);
+	}
+
+	private static int naive(BulletPool bullets, List<Enemy> enemies) {
+		int hits = 0;
+		for (int b = 0; b < bullets.size; b++)
+			for (Enemy e : enemies)
+				if (bullets.getBoundingBox(b).overlaps(e.getBoundingBox())) {
+					hits++;
+					break;
+				}
+		return hits;
+	}
+
+	private static int hashed(BulletPool bullets, List<Enemy> enemies, SpatialHash<Enemy> hash,
+			Array<Enemy> candidates) {
+		hash.clear();
+		for (Enemy e : enemies)
+			hash.insert(e);
+		int hits = 0;
+		for (int b = 0; b < bullets.size; b++) {
+			Rectangle box = bullets.getBoundingBox(b);
+			hash.query(box, candidates);
+			for (int i = 0; i < candidates.size; i++)
+				if (box.overlaps(candidates.get(i).getBoundingBox())) {
+					hits++;
+					break;
+				}
+		}
+		return hits;
+	}
+}
@@ -0,0 +1,134 @@
+package it.unical.igpe.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import it.unical.igpe.ai.Astar;
+import it.unical.igpe.ai.JumpPointSearch;
+import it.unical.igpe.ai.PathFinder;
+
+/**
+ * Compares Astar with JumpPointSearch on the shipped maps and on random
+ * maps, reporting time and nodes expanded per query. Run from the project
+ * root or pass the assets folder as first argument.
+ */
+public class JumpPointBenchmark {
+	private static final int QUERIES = 200;
+	private static final String[] MAPS = { "arena.map", "Default.map", "Tutorial.map" };
+
+	public static void main(String[] args) throws IOException {
+		String assets = args.length > 0 ? args[0] : "core/assets/";
+		System.out.println("map\t\tpathfinder\tms/query\tnodes/query\tavg length\tinvalid");
+		for (String name : MAPS)
+			run(name, loadWalls(assets + name));
+		for (int size = 32; size <= 256; size *= 2) {
+			run("open " + size, generateOpen(size, 0.2f, new Random(size)));
+			run("maze " + size, PathfindingBenchmark.generateMaze(size, new Random(size)));
+		}
+	}
+
+	private static void run(String name, final boolean[][] walls) {
+		int[] queries = generateQueries(walls, new Random(7));
+		Astar astar = new Astar(walls.length, walls[0].length) {
+			protected boolean isValid(int x, int y) {
+				return !walls[x][y];
+			}
+		};
+		JumpPointSearch jps = new JumpPointSearch(walls.length, walls[0].length) {
+			protected boolean isValid(int x, int y) {
+				return !walls[x][y];
+			}
+		};
+		run(name, "Astar", astar, walls, queries);
+		run(name, "JPS", jps, walls, queries);
+	}
+
+	private static void run(String map, String name, PathFinder finder, boolean[][] walls, int[] queries) {
+		// Warm up
+		for (int i = 0; i < queries.length; i += 4)
+			finder.getPath(queries[i], queries[i + 1], queries[i + 2], queries[i + 3]);
+
+		long nodes = 0, length = 0;
+		int invalid = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < queries.length; i += 4) {
+			IntArray path = finder.getPath(queries[i], queries[i + 1], queries[i + 2], queries[i + 3]);
+			nodes += finder.getExpanded();
+			length += path.size / 2;
+			if (!PathfindingBenchmark.isValid(path, walls, queries[i], queries[i + 1], queries[i + 2],
+					queries[i + 3]))
+				invalid++;
+		}
+		double ms = (System.nanoTime() - start) / 1e6 / QUERIES;
+		System.out.printf("%-12s\t%s\t\t%.4f\t\t%d\t\t%d\t\t%d%n", map, name, ms, nodes / QUERIES, length / QUERIES,
+				invalid);
+	}
+
+	/**
+	 * Read a .map file the way WorldLoader does, keeping only the walls (code 1)
+	 */
+	private static boolean[][] loadWalls(String path) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(path));
+		IntArray cells = new IntArray();
+		int size = 0;
+		String line;
+		while ((line = br.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			String[] tokens = line.split("\\s+");
+			size = tokens.length;
+			for (String token : tokens)
+				cells.add(Integer.parseInt(token));
+		}
+		br.close();
+		boolean[][] walls = new boolean[size][size];
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++)
+				walls[i][j] = cells.get(i * size + j) == 1;
+		return walls;
+	}
+
+	/**
+	 * Walled border with randomly scattered single wall tiles
+	 */
+	private static boolean[][] generateOpen(int size, float density, Random random) {
+		boolean[][] walls = new boolean[size][size];
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				walls[x][y] = x == 0 || y == 0 || x == size - 1 || y == size - 1 || random.nextFloat() < density;
+		return walls;
+	}
+
+	/**
+	 * Random pairs of free tiles that are connected to each other
+	 */
+	private static int[] generateQueries(final boolean[][] walls, Random random) {
+		int size = walls.length;
+		Astar check = new Astar(size, size) {
+			protected boolean isValid(int x, int y) {
+				return !walls[x][y];
+			}
+		};
+		int[] queries = new int[QUERIES * 4];
+		for (int q = 0; q < QUERIES; q++) {
+			int sx, sy, tx, ty;
+			do {
+				sx = random.nextInt(size);
+				sy = random.nextInt(size);
+				tx = random.nextInt(size);
+				ty = random.nextInt(size);
+			} while (walls[sx][sy] || walls[tx][ty] || (sx == tx && sy == ty)
+					|| check.getPath(sx, sy, tx, ty).size == 0);
+			queries[q * 4] = sx;
+			queries[q * 4 + 1] = sy;
+			queries[q * 4 + 2] = tx;
+			queries[q * 4 + 3] = ty;
+		}
+		return queries;
+	}
+}
@@ -0,0 +1,67 @@
+package it.unical.igpe.benchmark;
+
+import java.nio.ByteBuffer;
+
+import it.unical.igpe.net.packet.Packet;
+import it.unical.igpe.net.packet.Packet02Move;
+
+/**
+ * Encodes and decodes move packets with the old comma separated strings and
+ * with the binary codec, reporting time per packet and datagram size.
+ */
+public class PacketBenchmark {
+	private static final int PACKETS = 1000000;
+	private static final String USERNAME = "player_one";
+
+	public static void main(String[] args) {
+		for (int round = 0; round < 3; round++) {
+			runString();
+			runBinary();
+		}
+	}
+
+	private static void runString() {
+		long checksum = 0;
+		int size = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < PACKETS; i++) {
+			byte[] data = ("02" + USERNAME + "," + (i & 2047) + "," + (i & 1023) + "," + (i * 0.5f) + "," + (i & 3)
+					+ "," + (i % 3)).getBytes();
+			size = data.length;
+
+			// Decode as the old Packet02Move(byte[]) constructor did
+			String message = new String(data).trim();
+			String[] dataArray = message.substring(2).split(",");
+			checksum += dataArray[0].length() + Integer.parseInt(dataArray[1]) + Integer.parseInt(dataArray[2])
+					+ (int) Float.parseFloat(dataArray[3]) + Integer.parseInt(dataArray[4])
+					+ Integer.parseInt(dataArray[5]);
+		}
+		print("string", start, size, checksum);
+	}
+
+	private static void runBinary() {
+		ByteBuffer buffer = ByteBuffer.allocate(Packet.MAX_SIZE);
+		Packet02Move packet = new Packet02Move(0, 0, 0, 0, 0, 0, -1);
+		long checksum = 0;
+		int size = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < PACKETS; i++) {
+			buffer.clear();
+			packet.set(7, i & 2047, i & 1023, i * 0.5f, i & 3, i % 3, -1);
+			packet.write(buffer, i);
+			size = buffer.position();
+
+			buffer.flip();
+			Packet.readHeader(buffer);
+			Packet02Move read = new Packet02Move(buffer);
+			checksum += read.getId() + read.getX() + read.getY() + (int) read.getAngle() + read.getState()
+					+ read.getWeapon();
+		}
+		print("binary", start, size, checksum);
+	}
+
+	private static void print(String name, long start, int size, long checksum) {
+		double ns = (System.nanoTime() - start) / (double) PACKETS;
+		System.out.printf("%s\t%.1f ns/packet\t%d bytes\t(checksum %d)%n", name, ns, size, checksum);
+	}
+}
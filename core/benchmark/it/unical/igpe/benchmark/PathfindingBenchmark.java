@@ -0,0 +1,156 @@
+package it.unical.igpe.benchmark;
+
+import java.util.Random;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import it.unical.igpe.ai.Astar;
+import it.unical.igpe.ai.HierarchicalPathfinder;
+import it.unical.igpe.ai.PathFinder;
+
+/**
+ * Compares plain Astar with the HierarchicalPathfinder on generated mazes of
+ * increasing size, using long queries between random free tiles.
+ */
+public class PathfindingBenchmark {
+	private static final int QUERIES = 50;
+	private static final int CLUSTER_SIZE = 16;
+
+	public static void main(String[] args) {
+		System.out.println("size\tpathfinder\tbuild ms\tms/query\tnodes/query\tavg length\tinvalid");
+		for (int size = 64; size <= 512; size *= 2) {
+			final boolean[][] walls = generateMaze(size, new Random(size));
+			int[] queries = generateQueries(walls, new Random(7));
+
+			Astar astar = new Astar(size, size) {
+				protected boolean isValid(int x, int y) {
+					return !walls[x][y];
+				}
+			};
+			HierarchicalPathfinder hpa = new HierarchicalPathfinder(size, size, CLUSTER_SIZE) {
+				protected boolean isValid(int x, int y) {
+					return !walls[x][y];
+				}
+			};
+			long start = System.nanoTime();
+			hpa.build();
+			double buildMs = (System.nanoTime() - start) / 1e6;
+
+			run(size, "Astar", astar, walls, queries, 0);
+			run(size, "HPA*", hpa, walls, queries, buildMs);
+		}
+	}
+
+	private static void run(int size, String name, PathFinder finder, boolean[][] walls, int[] queries,
+			double buildMs) {
+		// Warm up
+		for (int i = 0; i < queries.length; i += 4)
+			finder.getPath(queries[i], queries[i + 1], queries[i + 2], queries[i + 3]);
+
+		long nodes = 0, length = 0;
+		int invalid = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < queries.length; i += 4) {
+			IntArray path = finder.getPath(queries[i], queries[i + 1], queries[i + 2], queries[i + 3]);
+			nodes += finder.getExpanded();
+			length += path.size / 2;
+			if (!isValid(path, walls, queries[i], queries[i + 1], queries[i + 2], queries[i + 3]))
+				invalid++;
+		}
+		double ms = (System.nanoTime() - start) / 1e6 / QUERIES;
+		System.out.printf("%d\t%s\t\t%.2f\t\t%.3f\t\t%d\t\t%d\t\t%d%n", size, name, buildMs, ms, nodes / QUERIES,
+				length / QUERIES, invalid);
+	}
+
+	/**
+	 * Check that a path goes from the target back to a neighbour of the start
+	 * moving one free tile at a time
+	 */
+	static boolean isValid(IntArray path, boolean[][] walls, int startX, int startY, int targetX,
+			int targetY) {
+		if (path.size == 0)
+			return false;
+		if (path.get(0) != targetX || path.get(1) != targetY)
+			return false;
+		int x = startX, y = startY;
+		for (int i = path.size - 2; i >= 0; i -= 2) {
+			int nx = path.get(i), ny = path.get(i + 1);
+			if (Math.abs(nx - x) > 1 || Math.abs(ny - y) > 1 || walls[nx][ny])
+				return false;
+			x = nx;
+			y = ny;
+		}
+		return true;
+	}
+
+	/**
+	 * Recursive backtracker maze with corridors two tiles wide, then a few
+	 * extra walls knocked down so there is more than one route
+	 */
+	static boolean[][] generateMaze(int size, Random random) {
+		boolean[][] walls = new boolean[size][size];
+		for (int x = 0; x < size; x++)
+			for (int y = 0; y < size; y++)
+				walls[x][y] = true;
+
+		int cells = (size - 1) / 3;
+		boolean[][] visited = new boolean[cells][cells];
+		IntArray stack = new IntArray();
+		stack.add(0);
+		visited[0][0] = true;
+		carve(walls, 0, 0);
+		int[] dx = { 1, -1, 0, 0 }, dy = { 0, 0, 1, -1 };
+		while (stack.size > 0) {
+			int cell = stack.peek();
+			int cx = cell % cells, cy = cell / cells;
+			int first = random.nextInt(4);
+			boolean moved = false;
+			for (int k = 0; k < 4 && !moved; k++) {
+				int d = (first + k) % 4;
+				int nx = cx + dx[d], ny = cy + dy[d];
+				if (nx < 0 || ny < 0 || nx >= cells || ny >= cells || visited[nx][ny])
+					continue;
+				visited[nx][ny] = true;
+				carve(walls, nx, ny);
+				// Open the wall between the two cells
+				for (int i = 0; i < 2; i++) {
+					int wx = 1 + Math.min(cx, nx) * 3 + (dx[d] != 0 ? 2 : i);
+					int wy = 1 + Math.min(cy, ny) * 3 + (dy[d] != 0 ? 2 : i);
+					walls[wx][wy] = false;
+				}
+				stack.add(ny * cells + nx);
+				moved = true;
+			}
+			if (!moved)
+				stack.pop();
+		}
+		for (int i = 0; i < size * size / 50; i++)
+			walls[1 + random.nextInt(size - 2)][1 + random.nextInt(size - 2)] = false;
+		return walls;
+	}
+
+	private static void carve(boolean[][] walls, int cx, int cy) {
+		for (int x = 0; x < 2; x++)
+			for (int y = 0; y < 2; y++)
+				walls[1 + cx * 3 + x][1 + cy * 3 + y] = false;
+	}
+
+	private static int[] generateQueries(boolean[][] walls, Random random) {
+		int size = walls.length;
+		int[] queries = new int[QUERIES * 4];
+		for (int q = 0; q < QUERIES; q++) {
+			int sx, sy, tx, ty;
+			do {
+				sx = random.nextInt(size);
+				sy = random.nextInt(size);
+				tx = random.nextInt(size);
+				ty = random.nextInt(size);
+			} while (walls[sx][sy] || walls[tx][ty] || Math.abs(sx - tx) + Math.abs(sy - ty) < size / 2);
+			queries[q * 4] = sx;
+			queries[q * 4 + 1] = sy;
+			queries[q * 4 + 2] = tx;
+			queries[q * 4 + 3] = ty;
+		}
+		return queries;
+	}
+}
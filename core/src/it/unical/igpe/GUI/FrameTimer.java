@@ -0,0 +1,66 @@
+package it.unical.igpe.GUI;
+
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Time spent by a renderer on the CPU each frame, averaged over windows of
+ * GameConfig.FRAME_TIME_WINDOW_MS. With GameConfig.showFrameTime set, every
+ * window is logged with the objects culled, to compare maps and settings.
+ */
+public class FrameTimer {
+	private final String name;
+	private long frameStart, windowStart;
+	private long windowNanos, windowMax;
+	private int frames, tested, culled;
+	private float averageMs, maxMs;
+
+	public FrameTimer(String name) {
+		this.name = name;
+	}
+
+	public void begin() {
+		frameStart = System.nanoTime();
+		if (windowStart == 0)
+			windowStart = frameStart;
+	}
+
+	/**
+	 * @param culling
+	 *            culling of the frame, its counts are added to the window
+	 */
+	public void end(ViewCulling culling) {
+		long now = System.nanoTime();
+		long frame = now - frameStart;
+		windowNanos += frame;
+		windowMax = Math.max(windowMax, frame);
+		frames++;
+		tested += culling.getTested();
+		culled += culling.getCulled();
+		if (now - windowStart < GameConfig.FRAME_TIME_WINDOW_MS * 1000000L)
+			return;
+
+		averageMs = windowNanos / 1e6f / frames;
+		maxMs = windowMax / 1e6f;
+		if (GameConfig.showFrameTime)
+			it.unical.igpe.utils.DebugUtils.showMessage(name + " frame time: " + String.format("%.2f", averageMs)
+					+ " ms average, " + String.format("%.2f", maxMs) + " ms max over " + frames + " frames, "
+					+ culled / frames + " of " + tested / frames + " objects culled per frame");
+		windowStart = now;
+		windowNanos = windowMax = 0;
+		frames = tested = culled = 0;
+	}
+
+	/**
+	 * @return the average time of a frame in the last window, in milliseconds
+	 */
+	public float getAverageMs() {
+		return averageMs;
+	}
+
+	/**
+	 * @return the longest frame of the last window, in milliseconds
+	 */
+	public float getMaxMs() {
+		return maxMs;
+	}
+}
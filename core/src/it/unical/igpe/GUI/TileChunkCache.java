@@ -0,0 +1,173 @@
+package it.unical.igpe.GUI;
+
+import java.util.List;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteCache;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+
+import it.unical.igpe.logic.Tile;
+import it.unical.igpe.utils.GameConfig;
+import it.unical.igpe.utils.TileType;
+
+/**
+ * The static tiles of a map baked once into a SpriteCache, in square chunks
+ * of GameConfig.RENDER_CHUNK_TILES tiles. A frame draws only the chunks that
+ * overlap the camera, so the cost of the map does not grow with its size.
+ * Inside a chunk the ground goes first and the overlays are grouped by
+ * texture, the tiles never overlap so the result is the same as drawing
+ * them one by one. The exit is left out, its texture changes with the keys
+ * collected, the renderer draws it from getDoors().
+ */
+public class TileChunkCache {
+	/** SpriteCache indices are shorts, bigger caches go without them */
+	private static final int MAX_INDEXED_SPRITES = 8191;
+
+	private SpriteCache cache;
+	private List<Tile> tiles;
+	private int chunksX, chunksY, chunkSize;
+	/** Cache id of every chunk, -1 for the chunks without tiles */
+	private int[] ids;
+	private final Array<Tile> doors = new Array<Tile>();
+	private int chunksDrawn;
+
+	/**
+	 * Bake the tiles, nothing is done if they are the list already baked
+	 */
+	public void build(List<Tile> tiles) {
+		if (tiles == this.tiles)
+			return;
+		dispose();
+		this.tiles = tiles;
+		doors.clear();
+		chunkSize = GameConfig.RENDER_CHUNK_TILES * GameConfig.TILEDIM;
+
+		int maxX = 0, maxY = 0, sprites = 0;
+		for (Tile tile : tiles) {
+			maxX = Math.max(maxX, tile.getX());
+			maxY = Math.max(maxY, tile.getY());
+			sprites += getOverlay(tile.getType()) != null ? 2 : 1;
+		}
+		chunksX = maxX / chunkSize + 1;
+		chunksY = maxY / chunkSize + 1;
+		Array<Array<Tile>> chunks = new Array<Array<Tile>>(chunksX * chunksY);
+		for (int i = 0; i < chunksX * chunksY; i++)
+			chunks.add(new Array<Tile>());
+		for (Tile tile : tiles) {
+			chunks.get(tile.getX() / chunkSize * chunksY + tile.getY() / chunkSize).add(tile);
+			if (tile.getType() == TileType.ENDLEVEL)
+				doors.add(tile);
+		}
+
+		cache = new SpriteCache(Math.max(sprites, 1), sprites <= MAX_INDEXED_SPRITES);
+		// Same tint as the sprite batch of the renderers
+		cache.setColor(1, 1, 1, 0.7f);
+		Texture ground = Assets.manager.get(Assets.Ground, Texture.class);
+		Array<Texture> overlays = new Array<Texture>();
+		ids = new int[chunks.size];
+		for (int i = 0; i < chunks.size; i++) {
+			Array<Tile> chunk = chunks.get(i);
+			if (chunk.size == 0) {
+				ids[i] = -1;
+				continue;
+			}
+			cache.beginCache();
+			for (Tile tile : chunk)
+				cache.add(ground, tile.getX(), tile.getY());
+			overlays.clear();
+			for (Tile tile : chunk) {
+				Texture overlay = getOverlay(tile.getType());
+				if (overlay != null && !overlays.contains(overlay, true))
+					overlays.add(overlay);
+			}
+			for (Texture overlay : overlays)
+				for (Tile tile : chunk)
+					if (getOverlay(tile.getType()) == overlay)
+						cache.add(overlay, tile.getX(), tile.getY());
+			ids[i] = cache.endCache();
+		}
+		it.unical.igpe.utils.DebugUtils.showMessage("Baked " + tiles.size() + " tiles in " + chunksX + "x" + chunksY + " chunks");
+	}
+
+	/**
+	 * @return the texture drawn over the ground, null for plain ground and
+	 *         for the exit
+	 */
+	private static Texture getOverlay(TileType type) {
+		switch (type) {
+		case WALL:
+			return Assets.manager.get(Assets.Wall, Texture.class);
+		case BOX:
+			return Assets.manager.get(Assets.Box, Texture.class);
+		case BARREL:
+			return Assets.manager.get(Assets.Barrel, Texture.class);
+		case CACTUS:
+			return Assets.manager.get(Assets.Cactus, Texture.class);
+		case PLANT:
+			return Assets.manager.get(Assets.Plant, Texture.class);
+		case LOGS:
+			return Assets.manager.get(Assets.Logs, Texture.class);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Draw the chunks overlapping the view, outside of any SpriteBatch
+	 *
+	 * @param view
+	 *            visible part of the world, from ViewCulling
+	 * @param projection
+	 *            matrix the sprites of the frame are drawn with
+	 */
+	public void render(Rectangle view, Matrix4 projection) {
+		chunksDrawn = 0;
+		if (cache == null)
+			return;
+		int minX = Math.max(0, (int) Math.floor(view.x / chunkSize));
+		int maxX = Math.min(chunksX - 1, (int) Math.floor((view.x + view.width) / chunkSize));
+		int minY = Math.max(0, (int) Math.floor(view.y / chunkSize));
+		int maxY = Math.min(chunksY - 1, (int) Math.floor((view.y + view.height) / chunkSize));
+		if (minX > maxX || minY > maxY)
+			return;
+
+		Gdx.gl.glEnable(GL20.GL_BLEND);
+		Gdx.gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+		cache.setProjectionMatrix(projection);
+		cache.begin();
+		for (int x = minX; x <= maxX; x++)
+			for (int y = minY; y <= maxY; y++) {
+				int id = ids[x * chunksY + y];
+				if (id >= 0) {
+					cache.draw(id);
+					chunksDrawn++;
+				}
+			}
+		cache.end();
+	}
+
+	/**
+	 * @return the exit tiles, drawn by the renderer over the cached ground
+	 */
+	public Array<Tile> getDoors() {
+		return doors;
+	}
+
+	/**
+	 * @return the chunks drawn by the last render
+	 */
+	public int getChunksDrawn() {
+		return chunksDrawn;
+	}
+
+	public void dispose() {
+		if (cache != null)
+			cache.dispose();
+		cache = null;
+		tiles = null;
+	}
+}
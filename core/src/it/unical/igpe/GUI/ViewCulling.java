@@ -0,0 +1,56 @@
+package it.unical.igpe.GUI;
+
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.math.Rectangle;
+
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * The part of the world seen by the camera, the renderers skip whatever does
+ * not overlap it. Counts the objects tested and skipped since the last
+ * update.
+ */
+public class ViewCulling {
+	private final Rectangle view = new Rectangle();
+	private int tested, culled;
+
+	/**
+	 * The view is widened by a tile: the sprite batch is drawn with the
+	 * projection of the previous camera position
+	 */
+	public void update(OrthographicCamera camera) {
+		float width = camera.viewportWidth * camera.zoom + 2 * GameConfig.TILEDIM;
+		float height = camera.viewportHeight * camera.zoom + 2 * GameConfig.TILEDIM;
+		view.set(camera.position.x - width / 2, camera.position.y - height / 2, width, height);
+		tested = culled = 0;
+	}
+
+	/**
+	 * @return true if the box overlaps the view
+	 */
+	public boolean isVisible(float x, float y, float width, float height) {
+		tested++;
+		if (x < view.x + view.width && x + width > view.x && y < view.y + view.height && y + height > view.y)
+			return true;
+		culled++;
+		return false;
+	}
+
+	public Rectangle getView() {
+		return view;
+	}
+
+	/**
+	 * @return the objects tested since the last update
+	 */
+	public int getTested() {
+		return tested;
+	}
+
+	/**
+	 * @return the objects skipped since the last update
+	 */
+	public int getCulled() {
+		return culled;
+	}
+}
@@ -7,16 +7,19 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.scenes.scene2d.ui.SelectBox;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.scenes.scene2d.ui.TextButton;
 import com.badlogic.gdx.scenes.scene2d.ui.TextField;
 import com.badlogic.gdx.scenes.scene2d.utils.ChangeListener;
+import com.badlogic.gdx.utils.Array;
 
 import it.unical.igpe.game.IGPEGame;
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
 import it.unical.igpe.net.MultiplayerWorld;
 import it.unical.igpe.net.NetworkScanner;
+import it.unical.igpe.net.ServerDiscovery;
 import it.unical.igpe.utils.FilePicker;
 import it.unical.igpe.utils.GameConfig;
 import com.badlogic.gdx.Application;
@@ -55,6 +58,9 @@ public class MultiScreen implements Screen {
 	private TextButton defaultMapButton;
 	private TextButton chooseMapButton;
 	private TextButton scanButton;
+	private SelectBox<ServerDiscovery.Server> serverList;
+	private final Array<ServerDiscovery.Server> foundServers = new Array<ServerDiscovery.Server>();
+	private ServerDiscovery discovery;
 	private String selectedMap = "arena.map"; // Default map
 	private String selectedMapFullPath = "arena.map"; // Full path for custom maps
 	private String selectedMapContent = null; // Map content for custom maps
@@ -153,36 +159,54 @@ public class MultiScreen implements Screen {
 		scanButton.addListener(new ChangeListener() {
 			@Override
 			public void changed(ChangeEvent event, Actor actor) {
+				if (discovery != null && discovery.isAlive())
+					return;
+				int port;
+				try {
+					port = Integer.parseInt(PortClientText.getText());
+				} catch (NumberFormatException e) {
+					scanStatusLabel.setText("Invalid port");
+					return;
+				}
+				foundServers.clear();
+				serverList.setItems(foundServers);
 				scanStatusLabel.setText("Scanning...");
-				// Run scan in a separate thread to avoid blocking UI
-				new Thread(new Runnable() {
+				// Servers are listed as their answers arrive
+				discovery = new ServerDiscovery(port, new ServerDiscovery.Listener() {
 					@Override
-					public void run() {
-						try {
-							int port = Integer.parseInt(PortClientText.getText());
-							java.util.List<String> servers = NetworkScanner.scanForServers(port, 100);
-							Gdx.app.postRunnable(new Runnable() {
-								@Override
-								public void run() {
-									if (servers.isEmpty()) {
-										scanStatusLabel.setText("No servers found");
-									} else {
-										// Use first found server
-										IPClientText.setText(servers.get(0));
-										scanStatusLabel.setText("Found: " + servers.size() + " server(s)");
-									}
-								}
-							});
-						} catch (Exception e) {
-							Gdx.app.postRunnable(new Runnable() {
-								@Override
-								public void run() {
-									scanStatusLabel.setText("Scan failed");
-								}
-							});
-						}
+					public void serverFound(final ServerDiscovery.Server server) {
+						Gdx.app.postRunnable(new Runnable() {
+							@Override
+							public void run() {
+								foundServers.add(server);
+								serverList.setItems(foundServers);
+								if (foundServers.size == 1)
+									useServer(server);
+								scanStatusLabel.setText("Scanning... " + foundServers.size + " found");
+							}
+						});
+					}
+
+					@Override
+					public void discoveryFinished(final int found) {
+						Gdx.app.postRunnable(new Runnable() {
+							@Override
+							public void run() {
+								scanStatusLabel.setText(found == 0 ? "No servers found" : "Found: " + found + " server(s)");
+							}
+						});
 					}
-				}).start();
+				});
+				discovery.start();
+			}
+		});
+
+		serverList = new SelectBox<ServerDiscovery.Server>(IGPEGame.skinsoldier);
+		serverList.addListener(new ChangeListener() {
+			@Override
+			public void changed(ChangeEvent event, Actor actor) {
+				if (serverList.getSelected() != null)
+					useServer(serverList.getSelected());
 			}
 		});
 		
@@ -253,6 +277,7 @@ public class MultiScreen implements Screen {
 					}
 
 					IGPEGame.game.socketServer.MaxKills = maxKills;
+					IGPEGame.game.socketServer.setServerName(usernameText);
 					it.unical.igpe.utils.DebugUtils.showMessage("Starting server thread...");
 					IGPEGame.game.socketServer.start();
 
@@ -491,6 +516,8 @@ public class MultiScreen implements Screen {
 		tableClient.add(scanButton).pad(padSmall).height(buttonHeightSmall);
 		tableClient.add(scanStatusLabel).pad(padSmall);
 		tableClient.row();
+		tableClient.add(serverList).colspan(2).width(textFieldWidthXLarge * 2).height(textFieldHeight).pad(padSmall);
+		tableClient.row();
 		tableClient.add(connectClient).pad(padSmall).height(buttonHeightLarge);
 		tableClient.row();
 		tableClient.add(chosenReturnClientButton).pad(padSmall).height(buttonHeightSmall);
@@ -537,6 +564,14 @@ public class MultiScreen implements Screen {
 		stage.draw();
 	}
 
+	/**
+	 * Fill the address and port fields with a discovered server
+	 */
+	private void useServer(ServerDiscovery.Server server) {
+		IPClientText.setText(server.address.getHostAddress());
+		PortClientText.setText(String.valueOf(server.port));
+	}
+
 	@Override
 	public void resize(int width, int height) {
 		stage.getViewport().update(width, height);
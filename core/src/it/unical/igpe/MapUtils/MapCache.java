@@ -0,0 +1,114 @@
+package it.unical.igpe.MapUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Maps already parsed, keyed by a hash of their file or content, so
+ * restarting a level or joining a server on the same map again skips the
+ * parsing and the precomputation of MapData. The least recently used maps
+ * are dropped once the cache holds more than GameConfig.MAP_CACHE_BYTES,
+ * the map just loaded is always kept. Shared by every thread.
+ */
+public class MapCache {
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/** Iterated from the least recently used */
+	private static final LinkedHashMap<Long, Entry> maps = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+	private static int hits, misses;
+
+	private static class Entry {
+		final int length;
+		final MapData data;
+
+		Entry(int length, MapData data) {
+			this.length = length;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * @return the 64 bit FNV-1a hash of the bytes from the position to the
+	 *         limit of the buffer, the position is not moved
+	 */
+	public static long hash(ByteBuffer data) {
+		long hash = FNV_OFFSET;
+		for (int i = data.position(); i < data.limit(); i++)
+			hash = (hash ^ (data.get(i) & 0xFF)) * FNV_PRIME;
+		return hash;
+	}
+
+	/**
+	 * Same hash as the bytes of the text, a map received as content and the
+	 * same map read from a text file share their entry
+	 */
+	public static long hash(CharSequence content) {
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if (c > 0xFF)
+				hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+			hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * @param length
+	 *            size of the hashed source, checked against the entry
+	 * @return the map with this hash, null if it is not cached
+	 */
+	public static synchronized MapData get(long hash, int length) {
+		Entry entry = maps.get(hash);
+		if (entry == null || entry.length != length) {
+			misses++;
+			return null;
+		}
+		hits++;
+		it.unical.igpe.utils.DebugUtils.showMessage("Map cache hit (" + hits + " hits, " + misses + " misses)");
+		return entry.data;
+	}
+
+	public static synchronized void put(long hash, int length, MapData data) {
+		maps.put(hash, new Entry(length, data));
+		trim();
+	}
+
+	/**
+	 * Drop the least recently used maps over the memory limit. The sizes are
+	 * summed again each time, the tile lists of an entry are built lazily.
+	 */
+	private static void trim() {
+		long total = getBytes();
+		Iterator<Map.Entry<Long, Entry>> entries = maps.entrySet().iterator();
+		while (total > GameConfig.MAP_CACHE_BYTES && maps.size() > 1) {
+			MapData eldest = entries.next().getValue().data;
+			total -= eldest.estimateBytes();
+			entries.remove();
+			it.unical.igpe.utils.DebugUtils.showMessage("Map cache evicted a " + eldest.width + "x" + eldest.height + " map");
+		}
+	}
+
+	/**
+	 * @return the estimated memory held by the cached maps
+	 */
+	public static synchronized long getBytes() {
+		long total = 0;
+		for (Entry entry : maps.values())
+			total += entry.data.estimateBytes();
+		return total;
+	}
+
+	public static synchronized int size() {
+		return maps.size();
+	}
+
+	public static synchronized void clear() {
+		maps.clear();
+	}
+}
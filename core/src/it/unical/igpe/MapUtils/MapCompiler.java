@@ -0,0 +1,33 @@
+package it.unical.igpe.MapUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Converts .map text files to the compiled format read by WorldLoader.
+ * Arguments: input .map, output file, and --rle to store the cells as runs.
+ */
+public class MapCompiler {
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: MapCompiler <input.map> <output> [--rle]");
+			return;
+		}
+		boolean rle = args.length > 2 && args[2].equals("--rle");
+		File input = new File(args[0]);
+		int[][] map = new MapTokenizer().parse(ByteBuffer.wrap(Files.readAllBytes(input.toPath())), null);
+		byte[] compiled = MapFormat.write(map, rle);
+		OutputStream out = new FileOutputStream(args[1]);
+		try {
+			out.write(compiled);
+		} finally {
+			out.close();
+		}
+		System.out.println(input.getName() + ": " + map[0].length + "x" + map.length + ", " + input.length()
+				+ " bytes of text to " + compiled.length + " bytes" + (rle ? " with RLE" : ""));
+	}
+}
@@ -0,0 +1,222 @@
+package it.unical.igpe.MapUtils;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntArray;
+
+import it.unical.igpe.ai.ClusterGraph;
+import it.unical.igpe.logic.Tile;
+import it.unical.igpe.utils.GameConfig;
+import it.unical.igpe.utils.TileType;
+
+/**
+ * Everything derived from a parsed map that does not change while playing
+ * it: the cells, the wall bitmap and walkable regions used by the
+ * pathfinders, and the cells of the objects to place. Shared by every world
+ * built on the same map through MapCache, so none of it may be modified.
+ * Cells are referred to by index x * height + y, like TileGrid.
+ */
+public class MapData {
+	/** Bytes counted for each Tile object of the tile lists */
+	private static final int TILE_BYTES = 96;
+
+	public final int[][] cells;
+	public final int width, height;
+	/** Cells the enemies cannot walk on */
+	public final boolean[][] walls;
+	/**
+	 * Walkable region of every cell, -1 on walls. Two cells are connected
+	 * only if they share a region, diagonal steps included.
+	 */
+	public final int[] regions;
+	/** Cells of the lootables, codes 3 to 9, in scan order */
+	public final IntArray loot = new IntArray();
+	/** Cells of the enemies, in scan order */
+	public final IntArray enemies = new IntArray();
+	/** Cells of the multiplayer spawn points */
+	public final IntArray spawns = new IntArray();
+	/** Cell of the player start, -1 if the map has none */
+	public final int playerCell;
+
+	private LinkedList<Tile> tiles, tilesMP;
+	private TileGrid grid, gridMP;
+	private ClusterGraph clusterGraph;
+
+	/**
+	 * @param cells
+	 *            map[x][y] as read by WorldLoader, kept as it is
+	 */
+	public MapData(int[][] cells) {
+		this.cells = cells;
+		this.width = cells.length;
+		this.height = width == 0 ? 0 : cells[0].length;
+		this.walls = new boolean[width][height];
+		this.regions = new int[width * height];
+
+		int player = -1;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++) {
+				int code = cells[x][y];
+				int cell = x * height + y;
+				walls[x][y] = code == 1;
+				if (code >= 3 && code <= 9)
+					loot.add(cell);
+				else if (code == 10)
+					player = cell;
+				else if (code == 11)
+					enemies.add(cell);
+				else if (code == 17)
+					spawns.add(cell);
+			}
+		playerCell = player;
+		labelRegions();
+	}
+
+	/**
+	 * Flood fill the walkable cells in 8 directions, the way the pathfinders
+	 * move
+	 */
+	private void labelRegions() {
+		Arrays.fill(regions, -1);
+		int[] queue = new int[width * height];
+		int region = 0;
+		for (int start = 0; start < regions.length; start++) {
+			if (regions[start] != -1 || walls[start / height][start % height])
+				continue;
+			int head = 0, tail = 0;
+			queue[tail++] = start;
+			regions[start] = region;
+			while (head < tail) {
+				int cell = queue[head++];
+				int x = cell / height, y = cell % height;
+				for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++)
+					for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+						int next = nx * height + ny;
+						if (regions[next] == -1 && !walls[nx][ny]) {
+							regions[next] = region;
+							queue[tail++] = next;
+						}
+					}
+			}
+			region++;
+		}
+	}
+
+	/**
+	 * @return false if no path joins the two cells, true if one may exist or
+	 *         a cell is outside the map or on a wall
+	 */
+	public boolean isReachable(int fromX, int fromY, int toX, int toY) {
+		if (fromX < 0 || fromY < 0 || fromX >= width || fromY >= height || toX < 0 || toY < 0 || toX >= width
+				|| toY >= height)
+			return true;
+		int from = regions[fromX * height + fromY];
+		int to = regions[toX * height + toY];
+		return from < 0 || to < 0 || from == to;
+	}
+
+	/**
+	 * @return the tiles of the map, the multiplayer world has no exit and no
+	 *         tiles under the single player objects
+	 */
+	public synchronized LinkedList<Tile> getTiles(boolean multiplayer) {
+		if (multiplayer) {
+			if (tilesMP == null)
+				tilesMP = createTiles(true);
+			return tilesMP;
+		}
+		if (tiles == null)
+			tiles = createTiles(false);
+		return tiles;
+	}
+
+	public synchronized TileGrid getGrid(boolean multiplayer) {
+		if (multiplayer) {
+			if (gridMP == null)
+				gridMP = TileGrid.fromTiles(getTiles(true), width, height);
+			return gridMP;
+		}
+		if (grid == null)
+			grid = TileGrid.fromTiles(getTiles(false), width, height);
+		return grid;
+	}
+
+	/**
+	 * @return the abstract graph of the hierarchical pathfinders over the
+	 *         walls, built by the first call
+	 */
+	public synchronized ClusterGraph getClusterGraph(int clusterSize) {
+		if (clusterGraph == null || clusterGraph.getClusterSize() != clusterSize) {
+			clusterGraph = new ClusterGraph(width, height, clusterSize) {
+				protected boolean isValid(int x, int y) {
+					return !walls[x][y];
+				}
+			};
+			clusterGraph.build();
+		}
+		return clusterGraph;
+	}
+
+	private LinkedList<Tile> createTiles(boolean multiplayer) {
+		LinkedList<Tile> list = new LinkedList<Tile>();
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++) {
+				TileType type = tileType(cells[x][y], multiplayer);
+				if (type != null)
+					list.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), type));
+			}
+		return list;
+	}
+
+	/**
+	 * @return the tile of a cell code, null if the code has no tile
+	 */
+	private static TileType tileType(int code, boolean multiplayer) {
+		switch (code) {
+		case 0:
+			return TileType.GROUND;
+		case 1:
+			return TileType.WALL;
+		case 12:
+			return TileType.BOX;
+		case 13:
+			return TileType.BARREL;
+		case 14:
+			return TileType.CACTUS;
+		case 15:
+			return TileType.PLANT;
+		case 16:
+			return TileType.LOGS;
+		case 17:
+			return multiplayer ? TileType.GROUND : null;
+		case 2:
+			return multiplayer ? null : TileType.ENDLEVEL;
+		default:
+			// Lootables, player and enemies stand on ground
+			return !multiplayer && code >= 3 && code <= 11 ? TileType.GROUND : null;
+		}
+	}
+
+	/**
+	 * @return an estimate of the memory held, with the tile lists and graph
+	 *         built so far
+	 */
+	public synchronized long estimateBytes() {
+		long cellsBytes = (long) width * height;
+		long bytes = cellsBytes * 4 + cellsBytes + cellsBytes * 4
+				+ (loot.size + enemies.size + spawns.size) * 4L;
+		if (tiles != null)
+			bytes += tiles.size() * TILE_BYTES;
+		if (tilesMP != null)
+			bytes += tilesMP.size() * TILE_BYTES;
+		if (grid != null)
+			bytes += cellsBytes;
+		if (gridMP != null)
+			bytes += cellsBytes;
+		if (clusterGraph != null)
+			bytes += clusterGraph.estimateBytes();
+		return bytes;
+	}
+}
@@ -0,0 +1,141 @@
+package it.unical.igpe.MapUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compiled map format: a header of magic "IGPM" (4 bytes), version (1
+ * byte), flags (1 byte), width and height (2 bytes each), then the cells
+ * row by row with one byte per cell. With the RLE flag the cells are stored
+ * as pairs of run length (1 to 255) and cell code instead.
+ */
+public class MapFormat {
+	public static final int MAGIC = 0x4947504D;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 10;
+	/** Flag of the cells stored as runs */
+	public static final int RLE = 1;
+
+	/**
+	 * @return true if the bytes from the position of the buffer start with
+	 *         the compiled map header
+	 */
+	public static boolean isCompiled(ByteBuffer data) {
+		return data.remaining() >= HEADER_SIZE && data.getInt(data.position()) == MAGIC;
+	}
+
+	/**
+	 * Decode a compiled map starting at the position of the buffer
+	 *
+	 * @param map
+	 *            grid to decode into when it has the size of the map, may be
+	 *            null
+	 * @return the grid, map[row][column]
+	 */
+	public static int[][] read(ByteBuffer data, int[][] map) throws IOException {
+		if (!isCompiled(data))
+			throw new IOException("Not a compiled map");
+		data.getInt();
+		int version = data.get() & 0xFF;
+		if (version != VERSION)
+			throw new IOException("Compiled map version " + version + " is not supported");
+		int flags = data.get() & 0xFF;
+		int width = data.getShort() & 0xFFFF;
+		int height = data.getShort() & 0xFFFF;
+		if (map == null || map.length != height || (height > 0 && map[0].length != width))
+			map = new int[height][width];
+
+		if ((flags & RLE) == 0) {
+			if (data.remaining() < width * height)
+				throw new IOException("Compiled map is truncated: " + data.remaining() + " of " + width * height + " cells");
+			for (int i = 0; i < height; i++) {
+				int[] row = map[i];
+				for (int j = 0; j < width; j++)
+					row[j] = data.get() & 0xFF;
+			}
+			return map;
+		}
+
+		int i = 0, j = 0;
+		while (i < height) {
+			if (data.remaining() < 2)
+				throw new IOException("Compiled map is truncated at row " + i + ", column " + j);
+			int run = data.get() & 0xFF;
+			int code = data.get() & 0xFF;
+			if (run == 0)
+				throw new IOException("Compiled map has an empty run at row " + i + ", column " + j);
+			for (int n = 0; n < run; n++) {
+				if (i == height)
+					throw new IOException("Compiled map has more cells than " + width + "x" + height);
+				map[i][j] = code;
+				if (++j == width) {
+					j = 0;
+					i++;
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Encode a grid, every code must fit in a byte
+	 *
+	 * @param rle
+	 *            store the cells as runs, smaller for maps with large areas
+	 *            of one tile
+	 */
+	public static byte[] write(int[][] map, boolean rle) throws IOException {
+		int height = map.length;
+		int width = height == 0 ? 0 : map[0].length;
+		if (width > 0xFFFF || height > 0xFFFF)
+			throw new IOException("Map of " + width + "x" + height + " is too large");
+		ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + width * height * (rle ? 2 : 1));
+		out.putInt(MAGIC).put((byte) VERSION).put((byte) (rle ? RLE : 0)).putShort((short) width)
+				.putShort((short) height);
+		int run = 0, code = -1;
+		for (int i = 0; i < height; i++) {
+			if (map[i].length != width)
+				throw new IOException("Map row " + i + " has " + map[i].length + " cells, expected " + width);
+			for (int j = 0; j < width; j++) {
+				int c = map[i][j];
+				if (c < 0 || c > 0xFF)
+					throw new IOException("Map cell at row " + i + ", column " + j + " has code " + c
+							+ ", codes must be 0 to 255");
+				if (!rle)
+					out.put((byte) c);
+				else if (c == code && run < 0xFF)
+					run++;
+				else {
+					if (run > 0)
+						out.put((byte) run).put((byte) code);
+					code = c;
+					run = 1;
+				}
+			}
+		}
+		if (rle && run > 0)
+			out.put((byte) run).put((byte) code);
+		byte[] bytes = new byte[out.position()];
+		out.flip();
+		out.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return the grid in the text format, for the clients that receive
+	 *         custom maps as text
+	 */
+	public static String toText(int[][] map) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < map.length; i++) {
+			if (i > 0)
+				text.append('\n');
+			for (int j = 0; j < map[i].length; j++) {
+				if (j > 0)
+					text.append(' ');
+				text.append(map[i][j]);
+			}
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,116 @@
+package it.unical.igpe.MapUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Reads the text map format in one pass: one row of cell codes per line,
+ * separated by spaces or tabs. The first row sets the size and the map is
+ * as tall as it is wide, the lines after the last row are ignored.
+ * Characters are pushed one at a time, so a file read as bytes and a content
+ * string go through the same code without splitting or copying.
+ */
+public class MapTokenizer {
+	private int[][] map;
+	/** Codes of the first row, before the size is known */
+	private final IntArray firstRow = new IntArray(64);
+	private int size;
+	private int row, column, value;
+	private boolean inToken;
+
+	/**
+	 * @param map
+	 *            grid to fill when it has the size of the map, may be null
+	 * @return the grid, map[row][column]
+	 */
+	public int[][] parse(ByteBuffer data, int[][] map) throws IOException {
+		reset(map);
+		for (int i = data.position(); i < data.limit() && !isDone(); i++)
+			accept((char) (data.get(i) & 0xFF));
+		return finish();
+	}
+
+	/**
+	 * @see #parse(ByteBuffer, int[][])
+	 */
+	public int[][] parse(CharSequence content, int[][] map) throws IOException {
+		reset(map);
+		for (int i = 0; i < content.length() && !isDone(); i++)
+			accept(content.charAt(i));
+		return finish();
+	}
+
+	private void reset(int[][] map) {
+		this.map = map;
+		firstRow.clear();
+		size = -1;
+		row = column = value = 0;
+		inToken = false;
+	}
+
+	private boolean isDone() {
+		return size >= 0 && row == size;
+	}
+
+	private void accept(char c) throws IOException {
+		if (c >= '0' && c <= '9') {
+			value = value * 10 + (c - '0');
+			inToken = true;
+		} else if (c == ' ' || c == '\t' || c == '\r') {
+			endToken();
+		} else if (c == '\n') {
+			endToken();
+			endLine();
+		} else
+			throw new IOException("Map has invalid character '" + c + "' at row " + row + ", column " + column);
+	}
+
+	private void endToken() throws IOException {
+		if (!inToken)
+			return;
+		if (size < 0)
+			firstRow.add(value);
+		else {
+			if (column == size)
+				throw new IOException("Map row " + row + " has more than " + size + " cells");
+			map[row][column] = value;
+		}
+		column++;
+		value = 0;
+		inToken = false;
+	}
+
+	private void endLine() throws IOException {
+		if (column == 0)
+			throw new IOException("Map has an empty line at row " + row);
+		if (size < 0) {
+			// The first row gives the size of the grid
+			size = firstRow.size;
+			if (map == null || map.length != size || map[0].length != size)
+				map = new int[size][size];
+			for (int j = 0; j < size; j++)
+				map[0][j] = firstRow.get(j);
+		} else if (column != size)
+			throw new IOException("Map row " + row + " has " + column + " cells, expected " + size);
+		row++;
+		column = 0;
+	}
+
+	private int[][] finish() throws IOException {
+		// The last row may not end with a newline
+		if (!isDone()) {
+			endToken();
+			if (column > 0)
+				endLine();
+		}
+		if (size < 0)
+			throw new IOException("Map is empty");
+		if (row < size)
+			throw new IOException("Map is incomplete: expected " + size + " lines, got " + row);
+		int[][] result = map;
+		map = null;
+		return result;
+	}
+}
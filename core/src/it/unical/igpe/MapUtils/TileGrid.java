@@ -0,0 +1,97 @@
+package it.unical.igpe.MapUtils;
+
+import java.util.List;
+
+import com.badlogic.gdx.math.Rectangle;
+
+import it.unical.igpe.logic.Tile;
+import it.unical.igpe.utils.GameConfig;
+import it.unical.igpe.utils.TileType;
+
+/**
+ * Dense tile-type grid used to answer collision queries against the map.
+ * Cells are indexed as [x][y] like the loader's map, one byte per cell.
+ */
+public class TileGrid {
+	private static final TileType[] TYPES = TileType.values();
+
+	private final int width, height;
+	private final byte[] cells;
+
+	public TileGrid(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.cells = new byte[width * height];
+	}
+
+	/**
+	 * Builds the grid from the tiles created by the world loader
+	 *
+	 * @param tiles
+	 * @param width
+	 * @param height
+	 * @return the populated grid
+	 */
+	public static TileGrid fromTiles(List<Tile> tiles, int width, int height) {
+		TileGrid grid = new TileGrid(width, height);
+		for (Tile tile : tiles)
+			grid.set(tile.getX() / GameConfig.TILEDIM, tile.getY() / GameConfig.TILEDIM, tile.getType());
+		return grid;
+	}
+
+	public void set(int x, int y, TileType type) {
+		if (x >= 0 && x < width && y >= 0 && y < height)
+			cells[x * height + y] = (byte) type.ordinal();
+	}
+
+	public TileType get(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return TileType.GROUND;
+		return TYPES[cells[x * height + y]];
+	}
+
+	public boolean isSolid(int x, int y) {
+		TileType type = get(x, y);
+		return type != TileType.GROUND && type != TileType.ENDLEVEL;
+	}
+
+	/**
+	 * Returns WALL if the box overlaps a solid tile, ENDLEVEL if it overlaps
+	 * the exit, otherwise GROUND. Only the cells covered by the box are
+	 * visited, in the same order as the tile list.
+	 *
+	 * @param _box
+	 * @return the type of the first blocking tile found
+	 */
+	public TileType getNextTile(Rectangle _box) {
+		int minX = Math.max(0, (int) Math.floor(_box.x / GameConfig.TILEDIM));
+		int minY = Math.max(0, (int) Math.floor(_box.y / GameConfig.TILEDIM));
+		int maxX = Math.min(width - 1, (int) Math.ceil((_box.x + _box.width) / GameConfig.TILEDIM) - 1);
+		int maxY = Math.min(height - 1, (int) Math.ceil((_box.y + _box.height) / GameConfig.TILEDIM) - 1);
+		for (int x = minX; x <= maxX; x++) {
+			for (int y = minY; y <= maxY; y++) {
+				TileType type = TYPES[cells[x * height + y]];
+				if (type == TileType.ENDLEVEL)
+					return TileType.ENDLEVEL;
+				else if (type != TileType.GROUND)
+					return TileType.WALL;
+			}
+		}
+		return TileType.GROUND;
+	}
+
+	/**
+	 * Check if a world position lies inside the map
+	 */
+	public boolean contains(float x, float y) {
+		return x >= 0 && y >= 0 && x < width * GameConfig.TILEDIM && y < height * GameConfig.TILEDIM;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
@@ -4,19 +4,21 @@ import com.badlogic.gdx.math.Rectangle;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.Random;
 
 import com.badlogic.gdx.audio.Sound;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
 
 import it.unical.igpe.GUI.SoundManager;
 import it.unical.igpe.GUI.screens.ScreenManager;
 import it.unical.igpe.ai.EnemyManager;
 import it.unical.igpe.game.IGPEGame;
-import it.unical.igpe.logic.Bullet;
+import it.unical.igpe.logic.BulletPool;
 import it.unical.igpe.logic.Enemy;
 import it.unical.igpe.logic.Lootable;
 import it.unical.igpe.logic.Player;
+import it.unical.igpe.logic.SpatialHash;
 import it.unical.igpe.logic.Tile;
 import it.unical.igpe.utils.GameConfig;
 import it.unical.igpe.utils.LootableType;
@@ -28,20 +30,28 @@ public class World implements Updatable {
 	public static int keyCollected;
 
 	public static Player player;
-	private LinkedList<Bullet> bls;
+	private BulletPool bullets;
+	private int playerBullet, enemyBullet;
 	private static LinkedList<Tile> tiles;
+	private static TileGrid grid;
 	private static LinkedList<Lootable> lootables;
 	public LinkedList<Enemy> ens;
 	public EnemyManager EM;
 	public Vector2 dir;
 	private WorldLoader manager;
+	private long seed;
+	private SpatialHash<Enemy> enemyHash = new SpatialHash<Enemy>(GameConfig.TILEDIM * 2);
+	private Array<Enemy> candidates = new Array<Enemy>();
 
 	public World(String path) {
+		seed = System.nanoTime();
 		player = new Player(new Vector2(), this, null);
 		tiles = new LinkedList<Tile>();
 		lootables = new LinkedList<Lootable>();
 		ens = new LinkedList<Enemy>();
-		bls = new LinkedList<Bullet>();
+		bullets = new BulletPool();
+		playerBullet = bullets.ownerId("player");
+		enemyBullet = bullets.ownerId("enemy");
 		
 		finished = false;
 		keyCollected = 0;
@@ -57,14 +67,27 @@ public class World implements Updatable {
 			it.unical.igpe.utils.DebugUtils.showError("Unexpected error loading map: " + path, e);
 			IGPEGame.game.setScreen(ScreenManager.LCS);
 		}
+		grid = new TileGrid(0, 0);
 	}
 	
 	public World(String path, String mapContent) {
+		this(path, mapContent, System.nanoTime());
+	}
+
+	/**
+	 * @param seed
+	 *            seeds the enemies, worlds built with the same seed and map
+	 *            play out the same way for the same player input
+	 */
+	public World(String path, String mapContent, long seed) {
+		this.seed = seed;
+		Random random = new Random(seed);
 		player = new Player(new Vector2(), this, null);
-		tiles = new LinkedList<Tile>();
 		lootables = new LinkedList<Lootable>();
 		ens = new LinkedList<Enemy>();
-		bls = new LinkedList<Bullet>();
+		bullets = new BulletPool();
+		playerBullet = bullets.ownerId("player");
+		enemyBullet = bullets.ownerId("enemy");
 		
 		finished = false;
 		keyCollected = 0;
@@ -97,77 +120,59 @@ public class World implements Updatable {
 		it.unical.igpe.utils.DebugUtils.showMessage("Map verified, starting tile/enemy population. Map size: " + manager.map.length + "x" + (manager.map.length > 0 ? manager.map[0].length : 0));
 
 		// Map is int[height][width] = int[row][column]
-		// x is row, y is column
+		// x is row, y is column. The tiles and the grid are shared with the
+		// other worlds on this map, the objects are created for this world
+		MapData data = manager.data;
 		try {
-			int tileCount = 0;
-			for (int x = 0; x < manager.map.length; x++) {
-				for (int y = 0; y < (manager.map.length > 0 ? manager.map[0].length : 0); y++) {
-					if (manager.map[x][y] == 0) // Ground
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-				else if (manager.map[x][y] == 1) // Wall
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.WALL));
-				else if (manager.map[x][y] == 2) // EndLevel
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.ENDLEVEL));
-				else if (manager.map[x][y] == 3) { // AmmoPack
-					lootables.add(new Lootable(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM),
-							LootableType.AMMOPACK));
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-				} else if (manager.map[x][y] == 4) { // HealthPack
-					lootables.add(new Lootable(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM),
-							LootableType.HEALTPACK));
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-				} else if (manager.map[x][y] == 5) { // Trap
-					lootables.add(new Lootable(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM),
-							LootableType.TRAP));
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-				} else if (manager.map[x][y] == 6) { // Yellow Key
-					lootables.add(new Lootable(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM),
-							LootableType.KEYY));
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-				} else if (manager.map[x][y] == 7) { // Red Key
-					lootables.add(new Lootable(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM),
-							LootableType.KEYR));
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-				} else if (manager.map[x][y] == 8) { // Blue Key
-					lootables.add(new Lootable(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM),
-							LootableType.KEYB));
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-				} else if (manager.map[x][y] == 9) { // Green Key
-					lootables.add(new Lootable(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM),
-							LootableType.KEYG));
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-				} else if (manager.map[x][y] == 10) { // Player
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-					player.setPos(new Vector2(x, y));
-				} else if (manager.map[x][y] == 11) { // Enemy
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.GROUND));
-					Enemy e = new Enemy(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM));
-					ens.add(e);
-				} else if (manager.map[x][y] == 12) // Box
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.BOX));
-				else if (manager.map[x][y] == 13) { // Barrel
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.BARREL));
-				} else if (manager.map[x][y] == 14) { // Cactus
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.CACTUS));
-				} else if (manager.map[x][y] == 15) { // Plant
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.PLANT));
-				} else if (manager.map[x][y] == 16) { // Logs
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.LOGS));
-				}
-					tileCount++;
-				}
+			tiles = data.getTiles(false);
+			for (int i = 0; i < data.loot.size; i++) {
+				int cell = data.loot.get(i);
+				int x = cell / data.height, y = cell % data.height;
+				lootables.add(new Lootable(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM),
+						lootableType(data.cells[x][y])));
 			}
-			it.unical.igpe.utils.DebugUtils.showMessage("Tile/enemy population completed. Created " + tileCount + " cells, " + tiles.size() + " total tiles, " + ens.size() + " enemies, " + lootables.size() + " lootables");
+			if (data.playerCell >= 0)
+				player.setPos(new Vector2(data.playerCell / data.height, data.playerCell % data.height));
+			for (int i = 0; i < data.enemies.size; i++) {
+				int cell = data.enemies.get(i);
+				Enemy e = new Enemy(new Vector2(cell / data.height * GameConfig.TILEDIM,
+						cell % data.height * GameConfig.TILEDIM), random.nextLong());
+				ens.add(e);
+			}
+			it.unical.igpe.utils.DebugUtils.showMessage("Tile/enemy population completed. " + tiles.size() + " total tiles, " + ens.size() + " enemies, " + lootables.size() + " lootables");
 		} catch (Exception e) {
 			it.unical.igpe.utils.DebugUtils.showError("Error during tile/enemy population", e);
 			e.printStackTrace();
 			throw new RuntimeException("Failed to populate world from map: " + e.getMessage(), e);
 		}
+		grid = data.getGrid(false);
 		dir = new Vector2();
 		EM = new EnemyManager(this);
 		it.unical.igpe.utils.DebugUtils.showMessage("World constructor completed successfully");
 	}
 
+	/**
+	 * @return the lootable of a map cell code from 3 to 9
+	 */
+	private static LootableType lootableType(int code) {
+		switch (code) {
+		case 3:
+			return LootableType.AMMOPACK;
+		case 4:
+			return LootableType.HEALTPACK;
+		case 5:
+			return LootableType.TRAP;
+		case 6:
+			return LootableType.KEYY;
+		case 7:
+			return LootableType.KEYR;
+		case 8:
+			return LootableType.KEYB;
+		default:
+			return LootableType.KEYG;
+		}
+	}
+
 	@SuppressWarnings("static-access")
 	public void update(float delta) {
 		player.state = Player.STATE_IDLE;
@@ -180,35 +185,43 @@ public class World implements Updatable {
 
 		// Enemies
 		EM.update(delta);
-		if (!bls.isEmpty()) {
-			boolean removed = false;
-			ListIterator<Bullet> it = bls.listIterator();
-			while (it.hasNext()) {
-				ListIterator<Enemy> iter = EM.getList().listIterator();
-				Bullet b = it.next();
-				b.update(delta);
-				while (iter.hasNext()) {
-					Enemy e = iter.next();
-					if (b.getBoundingBox().overlaps(e.getBoundingBox()) && e.Alive() && b.getID() == "player") {
-						it.remove();
-						e.hit(b.getHP());
-						removed = true;
-						if (e.getHP() <= 0) {
-							e.setAlive(false);
-							player.kills++;
+		if (!bullets.isEmpty()) {
+			enemyHash.clear();
+			for (Enemy e : EM.getList())
+				if (e.Alive())
+					enemyHash.insert(e);
+
+			// Walk backwards so a swap-removed slot is always already updated
+			for (int i = bullets.size - 1; i >= 0; i--) {
+				bullets.update(i, delta);
+				Rectangle box = bullets.getBoundingBox(i);
+				boolean removed = false;
+				if (bullets.owner[i] == playerBullet) {
+					enemyHash.query(box, candidates);
+					for (int j = 0; j < candidates.size; j++) {
+						Enemy e = candidates.get(j);
+						if (box.overlaps(e.getBoundingBox()) && e.Alive()) {
+							e.hit(bullets.damage[i]);
+							bullets.remove(i);
+							removed = true;
+							if (e.getHP() <= 0) {
+								e.setAlive(false);
+								player.kills++;
+							}
+							break;
 						}
 					}
 				}
 				if (removed)
 					continue;
-				if (b.getBoundingBox().overlaps(player.getBoundingBox()) && b.getID() == "enemy") {
-					it.remove();
-					player.hit(b.getHP());
+				if (bullets.owner[i] == enemyBullet && box.overlaps(player.getBoundingBox())) {
+					player.hit(bullets.damage[i]);
+					bullets.remove(i);
 					continue;
 				}
-				TileType tmp = getNextTile(b.getBoundingBox());
-				if (tmp == TileType.WALL)
-					it.remove();
+				TileType tmp = getNextTile(box);
+				if (tmp == TileType.WALL || !grid.contains(box.x, box.y))
+					bullets.remove(i);
 			}
 		}
 
@@ -243,16 +256,11 @@ public class World implements Updatable {
 	}
 
 	public static TileType getNextTile(Rectangle _box) {
-		for (Tile tile : tiles) {
-			if (Math.sqrt(Math.pow((_box.x - tile.getBoundingBox().x), 2)
-					+ Math.pow(_box.y - tile.getBoundingBox().y, 2)) < 128) {
-				if (tile.getType() != TileType.GROUND && tile.getType() != TileType.ENDLEVEL && _box.overlaps(tile.getBoundingBox()))
-					return TileType.WALL;
-				else if (tile.getType() == TileType.ENDLEVEL && _box.overlaps(tile.getBoundingBox()))
-					return TileType.ENDLEVEL;
-			}
-		}
-		return TileType.GROUND;
+		return grid.getNextTile(_box);
+	}
+
+	public static TileGrid getGrid() {
+		return grid;
 	}
 
 	public static boolean isDoorUnlocked() {
@@ -266,18 +274,29 @@ public class World implements Updatable {
 		return player;
 	}
 
-	public LinkedList<Bullet> getBls() {
-		return bls;
+	public long getSeed() {
+		return seed;
 	}
 
-	public void addBullet(Bullet _bullet) {
-		bls.add(_bullet);
+	public BulletPool getBullets() {
+		return bullets;
+	}
+
+	public void addBullet(float x, float y, float angle, String ID, float dmg) {
+		bullets.add(x, y, angle, bullets.ownerId(ID), dmg);
 	}
 
 	public LinkedList<Tile> getTiles() {
 		return tiles;
 	}
 
+	/**
+	 * @return the cached data of the map, shared with the other worlds on it
+	 */
+	public MapData getMapData() {
+		return manager.data;
+	}
+
 	public LinkedList<Lootable> getLootables() {
 		return lootables;
 	}
@@ -1,14 +1,24 @@
 package it.unical.igpe.MapUtils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
+import com.badlogic.gdx.Application.ApplicationType;
+import com.badlogic.gdx.Files.FileType;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
 
+/**
+ * Loads the tile grid of a map, from the text format or from the compiled
+ * format of MapFormat. A map already in MapCache is not parsed again.
+ */
 public class WorldLoader {
 	public int[][] map;
+	/** The cached data of the loaded map, its cells are map */
+	public MapData data;
+	private final MapTokenizer tokenizer = new MapTokenizer();
 
 	public WorldLoader(int width, int height) {
 		map = new int[height][width];
@@ -20,70 +30,17 @@ public class WorldLoader {
 	public void LoadMapFromContent(String content) throws IOException {
 		try {
 			it.unical.igpe.utils.DebugUtils.showMessage("Loading map from content (length: " + content.length() + ")");
-			BufferedReader br = new BufferedReader(new StringReader(content));
-			
-			// Count total lines first to validate format
-			String[] allLines = content.split("\n");
-			it.unical.igpe.utils.DebugUtils.showMessage("Map has " + allLines.length + " lines");
-			
-			// First, detect the map size by reading the first line
-			String firstLine = allLines.length > 0 ? allLines[0] : null;
-			if (firstLine == null || firstLine.trim().isEmpty()) {
-				br.close();
-				throw new IOException("Map content is empty");
+			long hash = MapCache.hash(content);
+			data = MapCache.get(hash, content.length());
+			if (data == null) {
+				data = new MapData(tokenizer.parse(content, null));
+				MapCache.put(hash, content.length(), data);
 			}
-			
-			String[] firstTokens = firstLine.trim().split("\\s+");
-			int detectedSize = firstTokens.length;
-			
-			it.unical.igpe.utils.DebugUtils.showMessage("First line has " + detectedSize + " tokens: " + firstLine.substring(0, Math.min(50, firstLine.length())));
-			
-			// Validate that we have enough lines
-			if (allLines.length < detectedSize) {
-				br.close();
-				throw new IOException("Map content is incomplete: expected " + detectedSize + " lines, but only found " + allLines.length + " lines");
-			}
-			
-			// Resize the map array if needed
-			if (map == null || map.length != detectedSize || (map.length > 0 && map[0].length != detectedSize)) {
-				map = new int[detectedSize][detectedSize];
-				it.unical.igpe.utils.DebugUtils.showMessage("Detected map size: " + detectedSize + "x" + detectedSize);
-			}
-			
-			// Now read the entire map from the array
-			for (int i = 0; i < detectedSize; i++) {
-				String line = allLines[i].trim();
-				if (line.isEmpty()) {
-					throw new IOException("Map content has empty line at row " + i);
-				}
-				String[] tokens = line.split("\\s+");
-				if (tokens.length != detectedSize) {
-					throw new IOException("Map content row " + i + " has " + tokens.length + " tokens, expected " + detectedSize);
-				}
-				for (int j = 0; j < tokens.length && j < detectedSize; j++) {
-					try {
-						this.map[i][j] = Integer.parseInt(tokens[j]);
-					} catch (NumberFormatException e) {
-						throw new IOException("Map content contains invalid number at row " + i + ", column " + j + ": " + tokens[j], e);
-					}
-				}
-			}
-			br.close();
-			it.unical.igpe.utils.DebugUtils.showMessage("Map loaded successfully from content (size: " + detectedSize + "x" + detectedSize + ", total cells: " + (detectedSize * detectedSize) + ")");
-			// Verify map was populated
-			int nonZeroCount = 0;
-			for (int i = 0; i < detectedSize; i++) {
-				for (int j = 0; j < detectedSize; j++) {
-					if (this.map[i][j] != 0) nonZeroCount++;
-				}
-			}
-			it.unical.igpe.utils.DebugUtils.showMessage("Map verification: " + nonZeroCount + " non-zero cells out of " + (detectedSize * detectedSize) + " total");
-		} catch (NumberFormatException e) {
-			throw new IOException("Map content contains invalid data", e);
+			map = data.cells;
+			it.unical.igpe.utils.DebugUtils.showMessage("Map loaded successfully from content (size: " + map.length + "x" + map.length + ")");
+		} catch (IOException e) {
+			throw new IOException("Map content is invalid: " + e.getMessage(), e);
 		} catch (Exception e) {
-			if (e instanceof IOException) {
-				throw e;
-			}
 			throw new IOException("Error reading map content: " + e.getMessage(), e);
 		}
 	}
@@ -148,49 +105,19 @@ public class WorldLoader {
 				throw new IOException("Map file does not exist: " + path + " (tried local, internal, external, absolute)");
 			}
 			
-			BufferedReader br = new BufferedReader(fileHandle.reader());
-			
-			// First, detect the map size by reading the first line
-			String firstLine = br.readLine();
-			if (firstLine == null) {
-				br.close();
-				throw new IOException("Map file is empty: " + path);
+			ByteBuffer bytes = read(fileHandle);
+			int length = bytes.remaining();
+			long hash = MapCache.hash(bytes);
+			data = MapCache.get(hash, length);
+			if (data == null) {
+				if (MapFormat.isCompiled(bytes))
+					data = new MapData(MapFormat.read(bytes, null));
+				else
+					data = new MapData(tokenizer.parse(bytes, null));
+				MapCache.put(hash, length, data);
 			}
-			
-			String[] firstTokens = firstLine.trim().split("\\s+");
-			int detectedSize = firstTokens.length;
-			
-			// Resize the map array if needed
-			if (map == null || map.length != detectedSize || (map.length > 0 && map[0].length != detectedSize)) {
-				map = new int[detectedSize][detectedSize];
-				it.unical.igpe.utils.DebugUtils.showMessage("Detected map size: " + detectedSize + "x" + detectedSize);
-			}
-			
-			// Reset reader to start from beginning
-			br.close();
-			br = new BufferedReader(fileHandle.reader());
-			
-			// Now read the entire map
-			// Map is stored as int[height][width] = int[row][column]
-			// World.java uses map[x][y] where x is row and y is column
-			// So we need: map[row][column] = map[i][j] where i=row, j=column
-			for (int i = 0; i < detectedSize; i++) {
-				String line = br.readLine();
-				if (line == null) {
-					br.close();
-					throw new IOException("Map file is incomplete or corrupted: " + path + " (expected " + detectedSize + " lines, got " + i + ")");
-				}
-				String[] tokens = line.trim().split("\\s+");
-				// i is row (y coordinate in map file), j is column (x coordinate in map file)
-				// World uses map[x][y] where x=row, y=column, so map[i][j] is correct
-				for (int j = 0; j < tokens.length && j < detectedSize; j++) {
-					this.map[i][j] = Integer.parseInt(tokens[j]);
-				}
-			}
-			br.close();
-			it.unical.igpe.utils.DebugUtils.showMessage("Map loaded successfully: " + path + " (size: " + detectedSize + "x" + detectedSize + ")");
-		} catch (NumberFormatException e) {
-			throw new IOException("Map file contains invalid data: " + path, e);
+			map = data.cells;
+			it.unical.igpe.utils.DebugUtils.showMessage("Map loaded successfully: " + path + " (size: " + map[0].length + "x" + map.length + ")");
 		} catch (Exception e) {
 			if (e instanceof IOException) {
 				throw e;
@@ -198,4 +125,24 @@ public class WorldLoader {
 			throw new IOException("Error reading map file: " + path, e);
 		}
 	}
+
+	/**
+	 * @return the bytes of the file, memory-mapped when it is a file on disk
+	 *         of a desktop application
+	 */
+	private static ByteBuffer read(FileHandle fileHandle) throws IOException {
+		ApplicationType type = Gdx.app == null ? ApplicationType.HeadlessDesktop : Gdx.app.getType();
+		boolean desktop = type == ApplicationType.Desktop || type == ApplicationType.HeadlessDesktop;
+		if (desktop && fileHandle.type() != FileType.Classpath && fileHandle.file().isFile()) {
+			RandomAccessFile file = new RandomAccessFile(fileHandle.file(), "r");
+			try {
+				FileChannel channel = file.getChannel();
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				// The mapping stays valid after the file is closed
+				file.close();
+			}
+		}
+		return ByteBuffer.wrap(fileHandle.readBytes());
+	}
 }
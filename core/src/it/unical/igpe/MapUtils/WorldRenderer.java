@@ -13,15 +13,17 @@ import com.badlogic.gdx.utils.viewport.FitViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
 import it.unical.igpe.GUI.Assets;
+import it.unical.igpe.GUI.FrameTimer;
 import it.unical.igpe.GUI.SoundManager;
-import it.unical.igpe.logic.Bullet;
+import it.unical.igpe.GUI.TileChunkCache;
+import it.unical.igpe.GUI.ViewCulling;
+import it.unical.igpe.logic.BulletPool;
 import it.unical.igpe.logic.Enemy;
 import it.unical.igpe.logic.Lootable;
 import it.unical.igpe.logic.Player;
 import it.unical.igpe.logic.Tile;
 import it.unical.igpe.utils.GameConfig;
 import it.unical.igpe.utils.LootableType;
-import it.unical.igpe.utils.TileType;
 
 public class WorldRenderer {
 	private World world;
@@ -30,6 +32,9 @@ public class WorldRenderer {
 	private SpriteBatch batch;
 	public SpriteBatch getBatch() { return batch; }
 	private ShapeRenderer sr;
+	private TileChunkCache chunks;
+	private final ViewCulling culling = new ViewCulling();
+	private final FrameTimer frameTimer = new FrameTimer("WorldRenderer");
 	private float stateTime;
 
 	public WorldRenderer(World _world) {
@@ -43,9 +48,11 @@ public class WorldRenderer {
 		this.batch.setColor(1, 1, 1, 0.7f);
 		this.sr = new ShapeRenderer();
 		this.sr.setColor(Color.BLACK);
+		this.chunks = new TileChunkCache();
 	}
 
 	public void render(float deltaTime) {
+		frameTimer.begin();
 		stateTime += deltaTime;
 		batch.setProjectionMatrix(camera.combined);
 		sr.setProjectionMatrix(camera.combined);
@@ -53,6 +60,7 @@ public class WorldRenderer {
 		camera.position.x = world.getPlayer().getX();
 		camera.position.y = world.getPlayer().getY();
 		camera.update();
+		culling.update(camera);
 
 		if (world.getPlayer().state == Player.STATE_RUNNING) {
 			world.getPlayer().timeToNextStep -= deltaTime;
@@ -65,6 +73,10 @@ public class WorldRenderer {
 			world.getPlayer().timeToNextStep = 0;
 		}
 
+		// Static tiles, only the chunks on screen
+		chunks.build(world.getTiles());
+		chunks.render(culling.getView(), batch.getProjectionMatrix());
+
 		// Begin batch (LibGDX SpriteBatch handles state internally, but we'll be safe)
 		try {
 			batch.begin();
@@ -78,31 +90,16 @@ public class WorldRenderer {
 			batch.begin();
 		}
 
-		// Drawing Tile
-		for (Tile tile : world.getTiles()) {
-			batch.draw(Assets.manager.get(Assets.Ground, Texture.class), tile.getX(), tile.getY());
-			if (tile.getType() == TileType.WALL)
-				batch.draw(Assets.manager.get(Assets.Wall, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.ENDLEVEL) {
-				if (!World.isDoorUnlocked())
-					batch.draw(Assets.manager.get(Assets.StairClosed, Texture.class), tile.getX(), tile.getY());
-				else
-					batch.draw(Assets.manager.get(Assets.Stair, Texture.class), tile.getX(), tile.getY());
-			}
-			else if (tile.getType() == TileType.BOX)
-				batch.draw(Assets.manager.get(Assets.Box, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.BARREL)
-				batch.draw(Assets.manager.get(Assets.Barrel, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.CACTUS)
-				batch.draw(Assets.manager.get(Assets.Cactus, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.PLANT)
-				batch.draw(Assets.manager.get(Assets.Plant, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.LOGS)
-				batch.draw(Assets.manager.get(Assets.Logs, Texture.class), tile.getX(), tile.getY());
-		}
+		// Drawing the exit, its look depends on the keys collected
+		Texture door = Assets.manager.get(World.isDoorUnlocked() ? Assets.Stair : Assets.StairClosed, Texture.class);
+		for (Tile tile : chunks.getDoors())
+			if (culling.isVisible(tile.getX(), tile.getY(), GameConfig.TILEDIM, GameConfig.TILEDIM))
+				batch.draw(door, tile.getX(), tile.getY());
 
 		// Drawing loot
 		for (Lootable loot : world.getLootables()) {
+			if (!culling.isVisible(loot.getX(), loot.getY(), GameConfig.TILEDIM, GameConfig.TILEDIM))
+				continue;
 			if (loot.getType() == LootableType.HEALTPACK) {
 				batch.draw(Assets.manager.get(Assets.HealthPack, Texture.class), loot.getX(), loot.getY());
 			}
@@ -124,17 +121,31 @@ public class WorldRenderer {
 			}
 		}
 
-		// Draw Enemies
+		// Draw the lights of the enemies first, the blend function changes
+		// (and the batch flushes) once for all of them
 		batch.setColor(1, 1, 1, 1);
+		Texture light = Assets.manager.get(Assets.Light, Texture.class);
+		boolean lit = false;
 		for (Enemy e : world.EM.getList()) {
-			if (e.Alive()) {
+			if (!e.Alive() || !culling.isVisible(e.getX() - 320 + 32, e.getY() - 320 + 32, 640, 640))
+				continue;
+			if (!lit) {
 				batch.setBlendFunction(GL20.GL_DST_COLOR, GL20.GL_SRC_ALPHA);
-				batch.draw(Assets.manager.get(Assets.Light, Texture.class), e.getX() - 320 + 32, e.getY() - 320 + 32,
-						640, 640);
-				batch.setBlendFunction(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+				lit = true;
+			}
+			batch.draw(light, e.getX() - 320 + 32, e.getY() - 320 + 32, 640, 640);
+		}
+		if (lit)
+			batch.setBlendFunction(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+
+		// Draw Enemies, the steps of the ones off screen are still heard
+		for (Enemy e : world.EM.getList()) {
+			boolean visible = culling.isVisible(e.getX(), e.getY(), 64, 64);
+			if (e.Alive()) {
 				if (e.isMoving) {
-					batch.draw(Assets.eRunningPistolAnimation.getKeyFrame(stateTime, true), e.getX(), e.getY(), 32, 32, 64,
-							64, 1f, 1f, e.angle);
+					if (visible)
+						batch.draw(Assets.eRunningPistolAnimation.getKeyFrame(stateTime, true), e.getX(), e.getY(), 32,
+								32, 64, 64, 1f, 1f, e.angle);
 					e.timeToNextStep -= deltaTime;
 					if (e.timeToNextStep < 0) {
 						float boundary = camera.viewportWidth / 2;
@@ -148,12 +159,13 @@ public class WorldRenderer {
 							e.timeToNextStep += 0.35f;
 					}
 				} else {
-					batch.draw(Assets.eIdlePistolAnimation.getKeyFrame(stateTime, true), e.getX(), e.getY(), 32, 32, 64,
-							64, 1f, 1f, e.angle);
+					if (visible)
+						batch.draw(Assets.eIdlePistolAnimation.getKeyFrame(stateTime, true), e.getX(), e.getY(), 32,
+								32, 64, 64, 1f, 1f, e.angle);
 					e.timeToNextStep = 0;
 				}
 
-			} else
+			} else if (visible)
 				batch.draw(Assets.Skull, e.getPos().x, e.getPos().y, 32, 32, 32, 32, 1f, 1f, e.angle);
 		}
 
@@ -206,14 +218,26 @@ public class WorldRenderer {
 
 		// Draw Bullets
 		sr.begin(ShapeType.Filled);
-		for (Bullet bullet : world.getBls()) {
-			sr.circle(bullet.getX(), bullet.getY(), 4);
+		BulletPool bullets = world.getBullets();
+		for (int i = 0; i < bullets.size; i++) {
+			if (culling.isVisible(bullets.x[i] - 4, bullets.y[i] - 4, 8, 8))
+				sr.circle((int) bullets.x[i], (int) bullets.y[i], 4);
 		}
 		sr.end();
+		frameTimer.end(culling);
+
+	}
 
+	/**
+	 * @return the time spent on the CPU by a frame, averaged over the last
+	 *         window
+	 */
+	public FrameTimer getFrameTimer() {
+		return frameTimer;
 	}
 
 	public void dispose() {
 		batch.dispose();
+		chunks.dispose();
 	}
 }
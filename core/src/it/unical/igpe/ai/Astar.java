@@ -4,13 +4,14 @@ import com.badlogic.gdx.utils.BinaryHeap;
 import com.badlogic.gdx.utils.BinaryHeap.Node;
 import com.badlogic.gdx.utils.IntArray;
 
-public class Astar {
+public class Astar implements PathFinder {
 	private final int width, height;
 	private final BinaryHeap<PathNode> open;
 	private final PathNode[] nodes;
 	int runID;
 	private final IntArray path = new IntArray();
 	private int targetX, targetY;
+	private int expanded;
 
 	public Astar(int width, int height) {
 		this.width = width;
@@ -28,6 +29,7 @@ public class Astar {
 	 * @param targetY
 	 * @return
 	 */
+	@Override
 	public IntArray getPath(int startX, int startY, int targetX, int targetY) {
 		this.targetX = targetX;
 		this.targetY = targetY;
@@ -52,8 +54,7 @@ public class Astar {
 		open.add(root, 0);
 
 		int lastColumn = width - 1, lastRow = height - 1;
-		@SuppressWarnings("unused")
-		int i = 0;
+		expanded = 0;
 		while (open.size > 0) {
 			PathNode node = open.pop();
 			if (node.x == targetX && node.y == targetY) {
@@ -85,7 +86,7 @@ public class Astar {
 				addNode(node, x, y + 1, 10);
 			if (y > 0)
 				addNode(node, x, y - 1, 10);
-			i++;
+			expanded++;
 		}
 		return path;
 	}
@@ -134,6 +135,11 @@ public class Astar {
 		return true;
 	}
 
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
 	public int getWidth() {
 		return width;
 	}
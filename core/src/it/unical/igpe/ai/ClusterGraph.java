@@ -0,0 +1,200 @@
+package it.unical.igpe.ai;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntIntMap;
+
+/**
+ * Abstract graph of the HierarchicalPathfinder: the entrances between
+ * neighbouring clusters and the costs between the entrances of each cluster.
+ * Nothing changes after build, so one graph is shared by every pathfinder
+ * on the same walls, on any thread.
+ */
+public class ClusterGraph {
+	/** Entrances longer than this get a transition at both ends */
+	private static final int LONG_ENTRANCE = 6;
+
+	final int width, height, clusterSize;
+	final int clustersX, clustersY;
+	final IntArray nodeX = new IntArray(), nodeY = new IntArray();
+	final Array<IntArray> edgeTo = new Array<IntArray>();
+	final Array<IntArray> edgeCost = new Array<IntArray>();
+	final IntIntMap nodeAt = new IntIntMap();
+	final Array<IntArray> clusterNodes = new Array<IntArray>();
+	private int edges;
+
+	public ClusterGraph(int width, int height, int clusterSize) {
+		this.width = width;
+		this.height = height;
+		this.clusterSize = clusterSize;
+		this.clustersX = (width + clusterSize - 1) / clusterSize;
+		this.clustersY = (height + clusterSize - 1) / clusterSize;
+		for (int i = 0; i < clustersX * clustersY; i++)
+			clusterNodes.add(new IntArray());
+	}
+
+	/**
+	 * Find the entrances between clusters and the costs between the
+	 * entrances of each cluster. Called once, before the graph is shared.
+	 */
+	public void build() {
+		final int[] bounds = new int[4];
+		Astar local = new Astar(width, height) {
+			protected boolean isValid(int x, int y) {
+				return x >= bounds[0] && x <= bounds[2] && y >= bounds[1] && y <= bounds[3]
+						&& ClusterGraph.this.isValid(x, y);
+			}
+		};
+
+		for (int cy = 0; cy < clustersY; cy++)
+			for (int cx = 0; cx < clustersX; cx++) {
+				// Vertical border with the cluster on the right
+				int borderX = (cx + 1) * clusterSize;
+				if (borderX < width)
+					findEntrances(borderX - 1, cy * clusterSize, Math.min(height, (cy + 1) * clusterSize), true);
+				// Horizontal border with the cluster below
+				int borderY = (cy + 1) * clusterSize;
+				if (borderY < height)
+					findEntrances(borderY - 1, cx * clusterSize, Math.min(width, (cx + 1) * clusterSize), false);
+			}
+
+		for (int c = 0; c < clusterNodes.size; c++) {
+			IntArray nodes = clusterNodes.get(c);
+			bounds[0] = (c % clustersX) * clusterSize;
+			bounds[1] = (c / clustersX) * clusterSize;
+			bounds[2] = Math.min(width, bounds[0] + clusterSize) - 1;
+			bounds[3] = Math.min(height, bounds[1] + clusterSize) - 1;
+			for (int i = 0; i < nodes.size; i++)
+				for (int j = i + 1; j < nodes.size; j++) {
+					int a = nodes.get(i), b = nodes.get(j);
+					int cost = pathCost(nodeX.get(a), nodeY.get(a),
+							local.getPath(nodeX.get(a), nodeY.get(a), nodeX.get(b), nodeY.get(b)));
+					if (cost >= 0) {
+						addEdge(a, b, cost);
+						addEdge(b, a, cost);
+					}
+				}
+		}
+	}
+
+	/**
+	 * Scan a border between two clusters for runs of free cell pairs
+	 *
+	 * @param line
+	 *            last column (vertical border) or row (horizontal border) of
+	 *            the first cluster
+	 * @param from
+	 * @param to
+	 * @param vertical
+	 */
+	private void findEntrances(int line, int from, int to, boolean vertical) {
+		int runStart = -1;
+		for (int i = from; i <= to; i++) {
+			boolean free = i < to && (vertical ? isValid(line, i) && isValid(line + 1, i)
+					: isValid(i, line) && isValid(i, line + 1));
+			if (free && runStart == -1)
+				runStart = i;
+			else if (!free && runStart != -1) {
+				int runEnd = i - 1;
+				if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+					addTransition(line, runStart, vertical);
+					addTransition(line, runEnd, vertical);
+				} else
+					addTransition(line, (runStart + runEnd) / 2, vertical);
+				runStart = -1;
+			}
+		}
+	}
+
+	private void addTransition(int line, int i, boolean vertical) {
+		int a, b;
+		if (vertical) {
+			a = getNode(line, i);
+			b = getNode(line + 1, i);
+		} else {
+			a = getNode(i, line);
+			b = getNode(i, line + 1);
+		}
+		addEdge(a, b, 10);
+		addEdge(b, a, 10);
+	}
+
+	private int getNode(int x, int y) {
+		int cell = y * width + x;
+		int node = nodeAt.get(cell, -1);
+		if (node == -1) {
+			node = nodeX.size;
+			nodeX.add(x);
+			nodeY.add(y);
+			edgeTo.add(new IntArray(8));
+			edgeCost.add(new IntArray(8));
+			nodeAt.put(cell, node);
+			clusterNodes.get(clusterOf(x, y)).add(node);
+		}
+		return node;
+	}
+
+	private void addEdge(int from, int to, int cost) {
+		IntArray targets = edgeTo.get(from);
+		if (targets.contains(to))
+			return;
+		targets.add(to);
+		edgeCost.get(from).add(cost);
+		edges++;
+	}
+
+	/**
+	 * @return the 10/14 cost of a path from the start, -1 if it is empty
+	 */
+	static int pathCost(int startX, int startY, IntArray steps) {
+		if (steps.size == 0)
+			return -1;
+		int cost = 0;
+		int x = startX, y = startY;
+		for (int i = steps.size - 2; i >= 0; i -= 2) {
+			int nx = steps.get(i), ny = steps.get(i + 1);
+			cost += (nx != x && ny != y) ? 14 : 10;
+			x = nx;
+			y = ny;
+		}
+		return cost;
+	}
+
+	int clusterOf(int x, int y) {
+		return (y / clusterSize) * clustersX + x / clusterSize;
+	}
+
+	/**
+	 * Check if the selected position is valid
+	 *
+	 * @param x
+	 * @param y
+	 * @return true if valid otherwise false
+	 */
+	protected boolean isValid(int x, int y) {
+		return true;
+	}
+
+	public int getNodes() {
+		return nodeX.size;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getClusterSize() {
+		return clusterSize;
+	}
+
+	/**
+	 * @return an estimate of the memory held by the nodes and edges
+	 */
+	public long estimateBytes() {
+		return nodeX.size * 64L + edges * 8L;
+	}
+}
@@ -1,41 +1,73 @@
 package it.unical.igpe.ai;
 
 import com.badlogic.gdx.math.Rectangle;
-import java.util.Iterator;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Queue;
 import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import it.unical.igpe.MapUtils.MapData;
 import it.unical.igpe.MapUtils.World;
 import it.unical.igpe.logic.AbstractDynamicObject;
-import it.unical.igpe.logic.Bullet;
 import it.unical.igpe.logic.Enemy;
-import it.unical.igpe.logic.Tile;
 import it.unical.igpe.net.MultiplayerWorld;
 import it.unical.igpe.utils.GameConfig;
-import it.unical.igpe.utils.TileType;
 import it.unical.igpe.utils.Updatable;
 
 public class EnemyManager implements Updatable {
 	static LinkedList<Enemy> ens;
-	public LinkedList<Bullet> bls;
 	private World world;
 	private MultiplayerWorld worldMP;
-	private Astar astar;
+	/**
+	 * Maps wider than this use the hierarchical pathfinder, smaller ones Jump
+	 * Point Search or plain Astar depending on GameConfig.useJumpPointSearch
+	 */
+	private static final int HIERARCHICAL_MIN_SIZE = 128;
+	private static final int CLUSTER_SIZE = 16;
+	/** Smallest slice of enemies worth handing to another thread */
+	private static final int ENEMIES_PER_TASK = 32;
+	private static final int NONE = 0, CACHED = 1, SEARCH = 2;
+	private static final int THINK = 0, PATH = 1;
+	/** Slices a job is split into, one runs on the calling thread */
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Worker threads shared by every EnemyManager, created on the first job
+	 * that needs them. A plain executor, Android before API 21 has no
+	 * fork-join pool.
+	 */
+	private static ExecutorService pool;
+
+	/** One pathfinder per worker, path searches of a batch run side by side */
+	private PathFinder[] pathFinders;
+	private FlowField flowField;
+	/** Shared with the other worlds on the map, read only */
 	private boolean[][] map;
+	private MapData mapData;
+	private int width, height;
+	private Queue<Enemy> requests = new Queue<Enemy>();
+	private Array<Enemy> active = new Array<Enemy>();
+	private IntArray plans = new IntArray();
+	private final IntArray noPath = new IntArray(0);
+	private Array<Enemy> batch = new Array<Enemy>();
+	private IntArray[] batchPaths;
+	private Slice[] slices;
+	/** Nodes a search expands, averaged over the last ones */
+	private float averageExpansions = GameConfig.PATH_EXPANSIONS_PER_FRAME;
+	private float playerX, playerY;
+	private float delta;
+	private int expansionBudget = GameConfig.PATH_EXPANSIONS_PER_FRAME;
+	private int searches, nodesExpanded, cacheHits;
 
 	public EnemyManager(World _world) {
 		world = _world;
 		ens = new LinkedList<Enemy>();
 		ens = world.ens;
-		map = new boolean[64][64];
-		for (Tile tile : world.getTiles())
-			if (tile.getType() == TileType.WALL)
-				map[(int) (tile.getPos().x / GameConfig.TILEDIM)][(int) (tile.getPos().y / GameConfig.TILEDIM)] = true;
-
-		astar = new Astar(64, 64) {
-			protected boolean isValid(int x, int y) {
-				return !map[x][y];
-			}
-		};
+		createPathFinders(world.getMapData());
 	}
 
 	public EnemyManager(MultiplayerWorld _world) {
@@ -45,36 +77,310 @@ public class EnemyManager implements Updatable {
 			if (o instanceof Enemy)
 				ens.add((Enemy) o);
 		}
-		map = new boolean[64][64];
-		for (Tile tile : world.getTiles())
-			if (tile.getType() == TileType.WALL)
-				map[(int) (tile.getPos().x / GameConfig.TILEDIM)][(int) (tile.getPos().y / GameConfig.TILEDIM)] = true;
+		createPathFinders(worldMP.getMapData());
+	}
+
+	/**
+	 * Take the wall map and the regions from the cached map data, sized like
+	 * the loaded map
+	 */
+	private void createPathFinders(MapData data) {
+		mapData = data;
+		width = data.width;
+		height = data.height;
+		map = data.walls;
 
-		astar = new Astar(64, 64) {
+		pathFinders = new PathFinder[THREADS];
+		slices = new Slice[THREADS];
+		for (int i = 0; i < pathFinders.length; i++) {
+			pathFinders[i] = createPathFinder();
+			slices[i] = new Slice();
+		}
+		batchPaths = new IntArray[pathFinders.length];
+		flowField = new FlowField(width, height) {
 			protected boolean isValid(int x, int y) {
 				return !map[x][y];
 			}
 		};
 	}
 
+	private PathFinder createPathFinder() {
+		if (width > HIERARCHICAL_MIN_SIZE || height > HIERARCHICAL_MIN_SIZE)
+			return new HierarchicalPathfinder(mapData.getClusterGraph(CLUSTER_SIZE)) {
+				protected boolean isValid(int x, int y) {
+					return !map[x][y];
+				}
+			};
+		else if (GameConfig.useJumpPointSearch)
+			return new JumpPointSearch(width, height) {
+				protected boolean isValid(int x, int y) {
+					return !map[x][y];
+				}
+			};
+		else
+			return new Astar(width, height) {
+				protected boolean isValid(int x, int y) {
+					return !map[x][y];
+				}
+			};
+	}
+
+	/**
+	 * The decisions and path searches run on the worker pool against the
+	 * positions at the start of the frame, then shots and movement are applied
+	 * one enemy at a time in list order, so the outcome does not depend on
+	 * the thread scheduling.
+	 */
 	public void update(float delta) {
-		Iterator<Enemy> iter = ens.iterator();
-		while (iter.hasNext()) {
-			Enemy e = iter.next();
+		searches = 0;
+		nodesExpanded = 0;
+		cacheHits = 0;
+		this.delta = delta;
+		playerX = World.player.getBoundingBox().x;
+		playerY = World.player.getBoundingBox().y;
+
+		active.clear();
+		boolean chasing = false;
+		for (Enemy e : ens) {
 			if (!e.Alive())
 				continue;
-			if ((e.targetx / GameConfig.TILEDIM < GameConfig.TILEDIM && e.targetx / GameConfig.TILEDIM > 0
-					&& e.targety / GameConfig.TILEDIM > 0 && e.targety / GameConfig.TILEDIM < GameConfig.TILEDIM)
-					&& astar.isValid(e.targetx / GameConfig.TILEDIM, e.targety / GameConfig.TILEDIM))
-				e.setPath(astar.getPath(e.startx / GameConfig.TILEDIM, e.starty / GameConfig.TILEDIM,
-						e.targetx / GameConfig.TILEDIM, e.targety / GameConfig.TILEDIM));
+			active.add(e);
+			chasing |= e.chaseObj;
+		}
+		// Enemies chasing the player share one flow field toward the player's tile
+		if (chasing)
+			flowField.update((World.player.getX() + 32) / GameConfig.TILEDIM,
+					(World.player.getY() + 32) / GameConfig.TILEDIM);
+
+		plans.setSize(active.size);
+		run(THINK, active.size, ENEMIES_PER_TASK);
+		for (int i = 0; i < active.size; i++) {
+			Enemy e = active.get(i);
+			if (plans.get(i) == CACHED)
+				cacheHits++;
+			else if (plans.get(i) == SEARCH && !e.pathQueued) {
+				e.pathQueued = true;
+				requests.addLast(e);
+			}
+		}
+		processRequests();
+
+		for (Enemy e : active) {
 			if (e.canShoot) {
-				world.addBullet(e.fire());
+				e.fire(world);
 			}
-			e.update(delta);
+			e.move(delta);
 		}
 	}
 
+	/**
+	 * Steer the enemy with the flow field or check its stored path, then let
+	 * it think. Writes only the enemy itself and its slot in plans.
+	 */
+	private void plan(int index) {
+		Enemy e = active.get(index);
+		int startX = e.startx / GameConfig.TILEDIM, startY = e.starty / GameConfig.TILEDIM;
+		int targetX = e.targetx / GameConfig.TILEDIM, targetY = e.targety / GameConfig.TILEDIM;
+		int plan = NONE;
+		if (e.chaseObj) {
+			if (flowField.hasStep(startX, startY))
+				e.setNextStep(flowField.getNextX(startX, startY), flowField.getNextY(startX, startY));
+			else
+				e.clearPath();
+		} else if (isValidTarget(targetX, targetY)) {
+			if (e.hasPathTo(targetX, targetY) && !isBlocked(e.getPath(), startX, startY))
+				plan = CACHED;
+			else if (!mapData.isReachable(startX, startY, targetX, targetY))
+				// Same outcome as a search that finds nothing, without expanding
+				// the whole region
+				e.setPath(noPath, targetX, targetY);
+			else
+				plan = SEARCH;
+		}
+		plans.set(index, plan);
+		e.think(delta, playerX, playerY);
+	}
+
+	/**
+	 * Run the queued path requests in round-robin order until this frame's
+	 * expansion budget is spent. Each round searches up to one request per
+	 * worker and stores the paths in queue order. A round only takes the
+	 * searches the budget left is expected to pay for, by the average cost of
+	 * the last ones, and at least one search runs per frame.
+	 */
+	private void processRequests() {
+		int budget = expansionBudget;
+		boolean first = true;
+		while (requests.size > 0 && budget > 0) {
+			batch.clear();
+			while (requests.size > 0 && batch.size < pathFinders.length
+					&& (first || (batch.size + 1) * averageExpansions <= budget)) {
+				Enemy e = requests.removeFirst();
+				e.pathQueued = false;
+				if (!e.Alive() || e.chaseObj)
+					continue;
+				int targetX = e.targetx / GameConfig.TILEDIM, targetY = e.targety / GameConfig.TILEDIM;
+				if (!isValidTarget(targetX, targetY))
+					continue;
+				if (!mapData.isReachable(e.startx / GameConfig.TILEDIM, e.starty / GameConfig.TILEDIM, targetX, targetY)) {
+					e.setPath(noPath, targetX, targetY);
+					continue;
+				}
+				batch.add(e);
+				first = false;
+			}
+			if (batch.size == 0)
+				break;
+			run(PATH, batch.size, 1);
+			for (int i = 0; i < batch.size; i++) {
+				Enemy e = batch.get(i);
+				e.setPath(batchPaths[i], e.targetx / GameConfig.TILEDIM, e.targety / GameConfig.TILEDIM);
+				int expanded = pathFinders[i].getExpanded();
+				searches++;
+				nodesExpanded += expanded;
+				budget -= expanded;
+				averageExpansions += (expanded - averageExpansions) / 8;
+			}
+		}
+	}
+
+	private void search(int slot) {
+		Enemy e = batch.get(slot);
+		batchPaths[slot] = pathFinders[slot].getPath(e.startx / GameConfig.TILEDIM, e.starty / GameConfig.TILEDIM,
+				e.targetx / GameConfig.TILEDIM, e.targety / GameConfig.TILEDIM);
+	}
+
+	/**
+	 * Split the job in slices of at least perSlice items, one per thread at
+	 * most, and wait for all of them. Jobs too small to be split run on the
+	 * calling thread, the workers are not worth waking up for them.
+	 */
+	private void run(int job, int count, int perSlice) {
+		int parts = Math.min(THREADS, count / perSlice);
+		if (parts <= 1) {
+			work(job, 0, count);
+			return;
+		}
+		CountDownLatch done = new CountDownLatch(parts - 1);
+		ExecutorService workers = getPool();
+		for (int i = 1; i < parts; i++)
+			workers.execute(slices[i].set(job, count * i / parts, count * (i + 1) / parts, done));
+		try {
+			work(job, 0, count / parts);
+		} finally {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (int i = 1; i < parts; i++)
+			slices[i].rethrow();
+	}
+
+	private void work(int job, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (job == THINK)
+				plan(i);
+			else
+				search(i);
+		}
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null)
+			pool = Executors.newFixedThreadPool(THREADS - 1, new ThreadFactory() {
+				private int count;
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "EnemyManager worker " + count++);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return pool;
+	}
+
+	/**
+	 * Part of a job handed to a worker, reused every frame
+	 */
+	private class Slice implements Runnable {
+		private int job, from, to;
+		private CountDownLatch done;
+		private RuntimeException failure;
+
+		Slice set(int job, int from, int to, CountDownLatch done) {
+			this.job = job;
+			this.from = from;
+			this.to = to;
+			this.done = done;
+			this.failure = null;
+			return this;
+		}
+
+		@Override
+		public void run() {
+			try {
+				work(job, from, to);
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				done.countDown();
+			}
+		}
+
+		/**
+		 * Throw on the calling thread what the slice threw on its worker
+		 */
+		void rethrow() {
+			if (failure != null)
+				throw failure;
+		}
+	}
+
+	private boolean isValidTarget(int x, int y) {
+		return x < width && x > 0 && y > 0 && y < height && !map[x][y];
+	}
+
+	/**
+	 * A stored path is blocked when its next step is no longer next to the
+	 * enemy (it was pushed away) or lies on a wall
+	 */
+	private boolean isBlocked(IntArray path, int x, int y) {
+		int i = path.size;
+		while (i >= 2 && path.get(i - 2) == x && path.get(i - 1) == y)
+			i -= 2;
+		if (i < 2)
+			return false;
+		int stepX = path.get(i - 2), stepY = path.get(i - 1);
+		return Math.abs(stepX - x) > 1 || Math.abs(stepY - y) > 1 || map[stepX][stepY];
+	}
+
+	public void setExpansionBudget(int budget) {
+		expansionBudget = budget;
+	}
+
+	/**
+	 * @return the A* searches run during the last update
+	 */
+	public int getSearches() {
+		return searches;
+	}
+
+	/**
+	 * @return the A* nodes expanded during the last update
+	 */
+	public int getNodesExpanded() {
+		return nodesExpanded;
+	}
+
+	/**
+	 * @return the enemies that reused their stored path during the last update
+	 */
+	public int getCacheHits() {
+		return cacheHits;
+	}
+
 	/**
 	 * Check enemies collisions
 	 * 
@@ -0,0 +1,185 @@
+package it.unical.igpe.ai;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra distance map toward a single target tile. Every tile stores the
+ * neighbour that leads to the target, so any number of enemies chasing the
+ * same target can read their next step in constant time. The field is only
+ * rebuilt when the target tile changes.
+ */
+public class FlowField {
+	private final int width, height;
+	private final int[] distance;
+	private final int[] next;
+	private long[] heap;
+	private int heapSize;
+	private int targetX = -1, targetY = -1;
+	private int builds;
+
+	public FlowField(int width, int height) {
+		this.width = width;
+		this.height = height;
+		distance = new int[width * height];
+		next = new int[width * height];
+		heap = new long[width * height * 2];
+	}
+
+	/**
+	 * Rebuild the field if the target moved to a different tile
+	 *
+	 * @param targetX
+	 * @param targetY
+	 * @return true if the field was rebuilt
+	 */
+	public boolean update(int targetX, int targetY) {
+		if (targetX == this.targetX && targetY == this.targetY)
+			return false;
+		this.targetX = targetX;
+		this.targetY = targetY;
+		build();
+		return true;
+	}
+
+	/**
+	 * Force a rebuild on the next update, e.g. after the walls changed
+	 */
+	public void invalidate() {
+		targetX = -1;
+		targetY = -1;
+	}
+
+	private void build() {
+		builds++;
+		Arrays.fill(distance, Integer.MAX_VALUE);
+		Arrays.fill(next, -1);
+		heapSize = 0;
+		if (targetX < 0 || targetX >= width || targetY < 0 || targetY >= height || !isValid(targetX, targetY))
+			return;
+
+		int root = targetY * width + targetX;
+		distance[root] = 0;
+		push(0, root);
+		int lastColumn = width - 1, lastRow = height - 1;
+		while (heapSize > 0) {
+			long top = pop();
+			int index = (int) top;
+			int dist = (int) (top >>> 32);
+			if (dist > distance[index])
+				continue; // Stale entry
+			int x = index % width;
+			int y = index / width;
+			if (x < lastColumn) {
+				relax(index, dist, x + 1, y, 10);
+				if (y < lastRow)
+					relax(index, dist, x + 1, y + 1, 14);
+				if (y > 0)
+					relax(index, dist, x + 1, y - 1, 14);
+			}
+			if (x > 0) {
+				relax(index, dist, x - 1, y, 10);
+				if (y < lastRow)
+					relax(index, dist, x - 1, y + 1, 14);
+				if (y > 0)
+					relax(index, dist, x - 1, y - 1, 14);
+			}
+			if (y < lastRow)
+				relax(index, dist, x, y + 1, 10);
+			if (y > 0)
+				relax(index, dist, x, y - 1, 10);
+		}
+	}
+
+	private void relax(int from, int dist, int x, int y, int cost) {
+		if (!isValid(x, y))
+			return;
+		int index = y * width + x;
+		int newDist = dist + cost;
+		if (newDist < distance[index]) {
+			distance[index] = newDist;
+			next[index] = from;
+			push(newDist, index);
+		}
+	}
+
+	private void push(int dist, int index) {
+		if (heapSize == heap.length)
+			heap = Arrays.copyOf(heap, heap.length * 2);
+		long value = ((long) dist << 32) | index;
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (heap[parent] <= value)
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = value;
+	}
+
+	private long pop() {
+		long result = heap[0];
+		long last = heap[--heapSize];
+		int i = 0;
+		int half = heapSize >> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < heapSize && heap[child + 1] < heap[child])
+				child++;
+			if (last <= heap[child])
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		if (heapSize > 0)
+			heap[i] = last;
+		return result;
+	}
+
+	/**
+	 * Check if the tile has a step toward the target
+	 */
+	public boolean hasStep(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			return false;
+		return next[y * width + x] != -1;
+	}
+
+	public int getNextX(int x, int y) {
+		return next[y * width + x] % width;
+	}
+
+	public int getNextY(int x, int y) {
+		return next[y * width + x] / width;
+	}
+
+	/**
+	 * @return the path cost to the target, Integer.MAX_VALUE if unreachable
+	 */
+	public int getDistance(int x, int y) {
+		return distance[y * width + x];
+	}
+
+	/**
+	 * Check if the selected position is valid
+	 *
+	 * @param x
+	 * @param y
+	 * @return true if valid otherwise false
+	 */
+	protected boolean isValid(int x, int y) {
+		return true;
+	}
+
+	public int getBuilds() {
+		return builds;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
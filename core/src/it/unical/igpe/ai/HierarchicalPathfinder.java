@@ -0,0 +1,262 @@
+package it.unical.igpe.ai;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.BinaryHeap;
+import com.badlogic.gdx.utils.BinaryHeap.Node;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Hierarchical A* (HPA*). The map is split in square clusters and the
+ * entrances between neighbouring clusters are precomputed into an abstract
+ * ClusterGraph, shared by every pathfinder on the same map. A long query is then a small search on that graph followed by
+ * local A* refinements that never leave a single cluster.
+ */
+public class HierarchicalPathfinder implements PathFinder {
+	private final int width, height, clusterSize;
+	private final int clustersX;
+	private final Astar local;
+	private int minX, minY, maxX, maxY;
+	private ClusterGraph graph;
+
+	// Abstract search state
+	private final BinaryHeap<AbstractNode> open = new BinaryHeap<AbstractNode>(64, false);
+	private final Array<AbstractNode> searchNodes = new Array<AbstractNode>();
+	private final IntArray startEdges = new IntArray(), startCosts = new IntArray();
+	private final IntArray goalCosts = new IntArray();
+	private final IntArray waypoints = new IntArray();
+	private final IntArray path = new IntArray();
+	private int runID, expanded;
+
+	public HierarchicalPathfinder(int width, int height, int clusterSize) {
+		this.width = width;
+		this.height = height;
+		this.clusterSize = clusterSize;
+		this.clustersX = (width + clusterSize - 1) / clusterSize;
+		local = new Astar(width, height) {
+			protected boolean isValid(int x, int y) {
+				return x >= minX && x <= maxX && y >= minY && y <= maxY && HierarchicalPathfinder.this.isValid(x, y);
+			}
+		};
+	}
+
+	/**
+	 * Search on a graph already built for the same walls, shared with the
+	 * other pathfinders on the map
+	 */
+	public HierarchicalPathfinder(ClusterGraph graph) {
+		this(graph.getWidth(), graph.getHeight(), graph.getClusterSize());
+		this.graph = graph;
+	}
+
+	/**
+	 * Build a graph of its own from isValid. Called lazily by the first query
+	 * when no graph was given, call it again if the walls change.
+	 */
+	public void build() {
+		ClusterGraph graph = new ClusterGraph(width, height, clusterSize) {
+			protected boolean isValid(int x, int y) {
+				return HierarchicalPathfinder.this.isValid(x, y);
+			}
+		};
+		graph.build();
+		this.graph = graph;
+		searchNodes.clear();
+	}
+
+	private int clusterOf(int x, int y) {
+		return (y / clusterSize) * clustersX + x / clusterSize;
+	}
+
+	/**
+	 * Run a local A* that can not leave the given cluster
+	 *
+	 * @return the path in local's shared array, empty if not found
+	 */
+	private IntArray localPath(int startX, int startY, int targetX, int targetY, int cluster) {
+		minX = (cluster % clustersX) * clusterSize;
+		minY = (cluster / clustersX) * clusterSize;
+		maxX = Math.min(width, minX + clusterSize) - 1;
+		maxY = Math.min(height, minY + clusterSize) - 1;
+		IntArray result = local.getPath(startX, startY, targetX, targetY);
+		expanded += local.getExpanded();
+		return result;
+	}
+
+	/**
+	 * @return the 10/14 cost of the local path, -1 if there is none
+	 */
+	private int localCost(int startX, int startY, int targetX, int targetY, int cluster) {
+		if (startX == targetX && startY == targetY)
+			return 0;
+		return ClusterGraph.pathCost(startX, startY, localPath(startX, startY, targetX, targetY, cluster));
+	}
+
+	@Override
+	public IntArray getPath(int startX, int startY, int targetX, int targetY) {
+		if (graph == null)
+			build();
+		expanded = 0;
+		path.clear();
+		if (!isValid(startX, startY) || !isValid(targetX, targetY))
+			return path;
+
+		int startCluster = clusterOf(startX, startY);
+		int goalCluster = clusterOf(targetX, targetY);
+		if (startCluster == goalCluster) {
+			IntArray steps = localPath(startX, startY, targetX, targetY, startCluster);
+			if (steps.size > 0 || (startX == targetX && startY == targetY)) {
+				path.addAll(steps);
+				return path;
+			}
+		}
+
+		// Connect start and goal to the entrances of their clusters
+		startEdges.clear();
+		startCosts.clear();
+		IntArray nodeX = graph.nodeX, nodeY = graph.nodeY;
+		IntArray nodes = graph.clusterNodes.get(startCluster);
+		for (int i = 0; i < nodes.size; i++) {
+			int n = nodes.get(i);
+			int cost = localCost(startX, startY, nodeX.get(n), nodeY.get(n), startCluster);
+			if (cost >= 0) {
+				startEdges.add(n);
+				startCosts.add(cost);
+			}
+		}
+		nodes = graph.clusterNodes.get(goalCluster);
+		goalCosts.clear();
+		for (int i = 0; i < nodes.size; i++) {
+			int n = nodes.get(i);
+			goalCosts.add(localCost(nodeX.get(n), nodeY.get(n), targetX, targetY, goalCluster));
+		}
+
+		if (!searchAbstract(targetX, targetY, nodes))
+			return path;
+		waypoints.add(startX);
+		waypoints.add(startY);
+
+		// Refine every abstract edge, waypoints are stored from goal to start
+		for (int i = 0; i + 3 < waypoints.size; i += 2) {
+			int toX = waypoints.get(i), toY = waypoints.get(i + 1);
+			int fromX = waypoints.get(i + 2), fromY = waypoints.get(i + 3);
+			if (Math.abs(toX - fromX) + Math.abs(toY - fromY) == 1 && clusterOf(toX, toY) != clusterOf(fromX, fromY)) {
+				path.add(toX);
+				path.add(toY);
+			} else
+				path.addAll(localPath(fromX, fromY, toX, toY, clusterOf(toX, toY)));
+		}
+		return path;
+	}
+
+	/**
+	 * A* on the abstract graph. On success waypoints holds x,y pairs from the
+	 * goal back to the first entrance after the start.
+	 */
+	private boolean searchAbstract(int targetX, int targetY, IntArray goalNodes) {
+		waypoints.clear();
+		open.clear();
+		runID++;
+		IntArray nodeX = graph.nodeX, nodeY = graph.nodeY;
+		while (searchNodes.size < nodeX.size)
+			searchNodes.add(new AbstractNode());
+
+		for (int i = 0; i < startEdges.size; i++) {
+			AbstractNode node = searchNodes.get(startEdges.get(i));
+			node.id = startEdges.get(i);
+			node.runID = runID;
+			node.parent = null;
+			node.pathCost = startCosts.get(i);
+			open.add(node, node.pathCost + heuristic(node.id, targetX, targetY));
+		}
+
+		AbstractNode best = null;
+		int bestCost = Integer.MAX_VALUE;
+		while (open.size > 0) {
+			AbstractNode node = open.pop();
+			if (node.getValue() >= bestCost)
+				break;
+			node.closedID = runID;
+			expanded++;
+			int goalIndex = goalNodes.indexOf(node.id);
+			if (goalIndex != -1 && goalCosts.get(goalIndex) >= 0 && node.pathCost + goalCosts.get(goalIndex) < bestCost) {
+				bestCost = node.pathCost + goalCosts.get(goalIndex);
+				best = node;
+			}
+			IntArray targets = graph.edgeTo.get(node.id);
+			IntArray costs = graph.edgeCost.get(node.id);
+			for (int i = 0; i < targets.size; i++) {
+				AbstractNode next = searchNodes.get(targets.get(i));
+				int pathCost = node.pathCost + costs.get(i);
+				if (next.runID == runID) {
+					if (next.closedID != runID && pathCost < next.pathCost) {
+						open.setValue(next, pathCost + heuristic(targets.get(i), targetX, targetY));
+						next.parent = node;
+						next.pathCost = pathCost;
+					}
+				} else {
+					next.id = targets.get(i);
+					next.runID = runID;
+					next.parent = node;
+					next.pathCost = pathCost;
+					open.add(next, pathCost + heuristic(next.id, targetX, targetY));
+				}
+			}
+		}
+		if (best == null)
+			return false;
+
+		waypoints.add(targetX);
+		waypoints.add(targetY);
+		for (AbstractNode node = best; node != null; node = node.parent) {
+			waypoints.add(nodeX.get(node.id));
+			waypoints.add(nodeY.get(node.id));
+		}
+		return true;
+	}
+
+	/**
+	 * Octile distance with the same 10/14 costs used by Astar
+	 */
+	private int heuristic(int node, int targetX, int targetY) {
+		int dx = Math.abs(graph.nodeX.get(node) - targetX);
+		int dy = Math.abs(graph.nodeY.get(node) - targetY);
+		return 10 * Math.max(dx, dy) + 4 * Math.min(dx, dy);
+	}
+
+	/**
+	 * Check if the selected position is valid
+	 *
+	 * @param x
+	 * @param y
+	 * @return true if valid otherwise false
+	 */
+	protected boolean isValid(int x, int y) {
+		return true;
+	}
+
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	public int getAbstractNodes() {
+		return graph == null ? 0 : graph.getNodes();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	static private class AbstractNode extends Node {
+		int id, runID, closedID, pathCost;
+		AbstractNode parent;
+
+		public AbstractNode() {
+			super(0);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package it.unical.igpe.ai;
+
+import com.badlogic.gdx.utils.BinaryHeap;
+import com.badlogic.gdx.utils.BinaryHeap.Node;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Jump Point Search for uniform-cost grids. Same isValid contract, move
+ * costs (10 straight, 14 diagonal, corners may be cut) and path format as
+ * Astar, but straight and diagonal runs without forced neighbours are
+ * skipped, so only the jump points enter the open list.
+ */
+public class JumpPointSearch implements PathFinder {
+	private final int width, height;
+	private final BinaryHeap<PathNode> open;
+	private final PathNode[] nodes;
+	private int runID;
+	private final IntArray path = new IntArray();
+	private int targetX, targetY;
+	private int expanded;
+
+	public JumpPointSearch(int width, int height) {
+		this.width = width;
+		this.height = height;
+		open = new BinaryHeap<PathNode>(width * 4, false);
+		nodes = new PathNode[width * height];
+	}
+
+	/**
+	 * Returns x,y pairs that are the path from the target to the start,
+	 * with every intermediate tile between jump points filled in.
+	 *
+	 * @param startX
+	 * @param startY
+	 * @param targetX
+	 * @param targetY
+	 * @return
+	 */
+	@Override
+	public IntArray getPath(int startX, int startY, int targetX, int targetY) {
+		this.targetX = targetX;
+		this.targetY = targetY;
+
+		path.clear();
+		open.clear();
+		expanded = 0;
+
+		runID++;
+		if (runID < 0)
+			runID = 1;
+
+		PathNode root = getNode(startX, startY);
+		root.runID = runID;
+		root.parent = null;
+		root.pathCost = 0;
+		open.add(root, 0);
+
+		while (open.size > 0) {
+			PathNode node = open.pop();
+			if (node.x == targetX && node.y == targetY) {
+				while (node != root) {
+					addSegment(node, node.parent);
+					node = node.parent;
+				}
+				break;
+			}
+			node.closedID = runID;
+			expanded++;
+			identifySuccessors(node);
+		}
+		return path;
+	}
+
+	/**
+	 * Add the tiles from node back to parent, parent excluded
+	 */
+	private void addSegment(PathNode node, PathNode parent) {
+		int dx = Integer.signum(parent.x - node.x);
+		int dy = Integer.signum(parent.y - node.y);
+		int x = node.x, y = node.y;
+		while (x != parent.x || y != parent.y) {
+			path.add(x);
+			path.add(y);
+			x += dx;
+			y += dy;
+		}
+	}
+
+	private void identifySuccessors(PathNode node) {
+		int x = node.x, y = node.y;
+		if (node.parent == null) {
+			for (int dx = -1; dx <= 1; dx++)
+				for (int dy = -1; dy <= 1; dy++)
+					if ((dx != 0 || dy != 0) && walkable(x + dx, y + dy))
+						jumpFrom(node, dx, dy);
+			return;
+		}
+		int dx = Integer.signum(x - node.parent.x);
+		int dy = Integer.signum(y - node.parent.y);
+		if (dx != 0 && dy != 0) {
+			if (walkable(x, y + dy))
+				jumpFrom(node, 0, dy);
+			if (walkable(x + dx, y))
+				jumpFrom(node, dx, 0);
+			if (walkable(x + dx, y + dy))
+				jumpFrom(node, dx, dy);
+			if (!walkable(x - dx, y) && walkable(x - dx, y + dy))
+				jumpFrom(node, -dx, dy);
+			if (!walkable(x, y - dy) && walkable(x + dx, y - dy))
+				jumpFrom(node, dx, -dy);
+		} else if (dx != 0) {
+			if (walkable(x + dx, y))
+				jumpFrom(node, dx, 0);
+			if (!walkable(x, y + 1) && walkable(x + dx, y + 1))
+				jumpFrom(node, dx, 1);
+			if (!walkable(x, y - 1) && walkable(x + dx, y - 1))
+				jumpFrom(node, dx, -1);
+		} else {
+			if (walkable(x, y + dy))
+				jumpFrom(node, 0, dy);
+			if (!walkable(x + 1, y) && walkable(x + 1, y + dy))
+				jumpFrom(node, 1, dy);
+			if (!walkable(x - 1, y) && walkable(x - 1, y + dy))
+				jumpFrom(node, -1, dy);
+		}
+	}
+
+	private void jumpFrom(PathNode parent, int dx, int dy) {
+		int jump = jump(parent.x + dx, parent.y + dy, dx, dy);
+		if (jump == -1)
+			return;
+		int x = jump % width, y = jump / width;
+		int steps = Math.max(Math.abs(x - parent.x), Math.abs(y - parent.y));
+		addNode(parent, x, y, (dx != 0 && dy != 0 ? 14 : 10) * steps);
+	}
+
+	/**
+	 * Walk from x,y in the given direction until a jump point is found
+	 *
+	 * @return the index of the jump point, -1 if the walk hits a wall
+	 */
+	private int jump(int x, int y, int dx, int dy) {
+		while (true) {
+			if (!walkable(x, y))
+				return -1;
+			if (x == targetX && y == targetY)
+				return y * width + x;
+			if (dx != 0 && dy != 0) {
+				if ((walkable(x - dx, y + dy) && !walkable(x - dx, y))
+						|| (walkable(x + dx, y - dy) && !walkable(x, y - dy)))
+					return y * width + x;
+				if (jump(x + dx, y, dx, 0) != -1 || jump(x, y + dy, 0, dy) != -1)
+					return y * width + x;
+			} else if (dx != 0) {
+				if ((walkable(x + dx, y + 1) && !walkable(x, y + 1))
+						|| (walkable(x + dx, y - 1) && !walkable(x, y - 1)))
+					return y * width + x;
+			} else {
+				if ((walkable(x + 1, y + dy) && !walkable(x + 1, y))
+						|| (walkable(x - 1, y + dy) && !walkable(x - 1, y)))
+					return y * width + x;
+			}
+			x += dx;
+			y += dy;
+		}
+	}
+
+	private void addNode(PathNode parent, int x, int y, int cost) {
+		int pathCost = parent.pathCost + cost;
+		int dx = Math.abs(x - targetX), dy = Math.abs(y - targetY);
+		int score = pathCost + 10 * Math.max(dx, dy) + 4 * Math.min(dx, dy);
+
+		PathNode node = getNode(x, y);
+		if (node.runID == runID) { // Node already encountered for this run.
+			if (node.closedID != runID && pathCost < node.pathCost) {
+				open.setValue(node, score);
+				node.parent = parent;
+				node.pathCost = pathCost;
+			}
+		} else {
+			open.add(node, score);
+			node.runID = runID;
+			node.parent = parent;
+			node.pathCost = pathCost;
+		}
+	}
+
+	private PathNode getNode(int x, int y) {
+		int index = y * width + x;
+		PathNode node = nodes[index];
+		if (node == null) {
+			node = new PathNode(0);
+			node.x = x;
+			node.y = y;
+			nodes[index] = node;
+		}
+		return node;
+	}
+
+	private boolean walkable(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height && isValid(x, y);
+	}
+
+	/**
+	 * Check if the selected position is valid
+	 *
+	 * @param x
+	 * @param y
+	 * @return true if valid otherwise false
+	 */
+	protected boolean isValid(int x, int y) {
+		return true;
+	}
+
+	@Override
+	public int getExpanded() {
+		return expanded;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	static private class PathNode extends Node {
+		int runID, closedID, pathCost;
+		int x, y;
+		PathNode parent;
+
+		public PathNode(int value) {
+			super(value);
+		}
+	}
+}
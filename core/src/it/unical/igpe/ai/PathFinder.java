@@ -0,0 +1,19 @@
+package it.unical.igpe.ai;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Common contract of the grid pathfinders used by the EnemyManager
+ */
+public interface PathFinder {
+	/**
+	 * Returns x,y pairs that are the path from the target to the start. The
+	 * array is owned by the pathfinder and reused by the next call.
+	 */
+	public IntArray getPath(int startX, int startY, int targetX, int targetY);
+
+	/**
+	 * @return the number of nodes expanded by the last getPath call
+	 */
+	public int getExpanded();
+}
@@ -0,0 +1,165 @@
+package it.unical.igpe.logic;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectIntMap;
+
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Bullet storage kept as parallel primitive arrays. The velocity is computed
+ * once when the bullet is fired and dead bullets are removed by moving the
+ * last bullet into their slot, so iteration order is not preserved.
+ */
+public class BulletPool {
+	public static final int SIZE = 8;
+
+	public float[] x, y, dx, dy, damage, lifetime;
+	public int[] owner;
+	/** Unique per bullet, so a copy of the pool can refer to it */
+	public int[] id;
+	public int size;
+	private int nextId;
+
+	private final ObjectIntMap<String> ownerIds = new ObjectIntMap<String>();
+	private final Array<String> ownerNames = new Array<String>();
+	private final Rectangle box = new Rectangle(0, 0, SIZE, SIZE);
+
+	public BulletPool() {
+		this(256);
+	}
+
+	public BulletPool(int capacity) {
+		x = new float[capacity];
+		y = new float[capacity];
+		dx = new float[capacity];
+		dy = new float[capacity];
+		damage = new float[capacity];
+		lifetime = new float[capacity];
+		owner = new int[capacity];
+		id = new int[capacity];
+	}
+
+	/**
+	 * Returns the numeric id of an owner name ("player", "enemy" or a
+	 * username), registering it the first time it is seen
+	 */
+	public int ownerId(String name) {
+		int id = ownerIds.get(name, -1);
+		if (id == -1) {
+			id = ownerNames.size;
+			ownerNames.add(name);
+			ownerIds.put(name, id);
+		}
+		return id;
+	}
+
+	public String ownerName(int id) {
+		return ownerNames.get(id);
+	}
+
+	/**
+	 * Fire a bullet from the given position
+	 *
+	 * @param _x
+	 * @param _y
+	 * @param angle
+	 *            in radians
+	 * @param ownerId
+	 * @param dmg
+	 */
+	public void add(float _x, float _y, float angle, int ownerId, float dmg) {
+		add(_x, _y, angle, ownerId, dmg, nextId++);
+	}
+
+	/**
+	 * Add a bullet that mirrors the bullet with the given id in another pool
+	 */
+	public void add(float _x, float _y, float angle, int ownerId, float dmg, int bulletId) {
+		if (size == x.length)
+			grow();
+		int i = size++;
+		x[i] = (int) _x;
+		y[i] = (int) _y;
+		dx[i] = (float) Math.cos(angle) * GameConfig.BULLETSPEED;
+		dy[i] = (float) Math.sin(angle) * GameConfig.BULLETSPEED;
+		damage[i] = dmg;
+		lifetime[i] = 0;
+		owner[i] = ownerId;
+		id[i] = bulletId;
+	}
+
+	public void update(int i, float delta) {
+		lifetime[i] += delta;
+		x[i] += dx[i] * delta;
+		y[i] += dy[i] * delta;
+	}
+
+	/**
+	 * Remove the bullet at index i by swapping the last one into its slot
+	 */
+	public void remove(int i) {
+		int last = --size;
+		x[i] = x[last];
+		y[i] = y[last];
+		dx[i] = dx[last];
+		dy[i] = dy[last];
+		damage[i] = damage[last];
+		lifetime[i] = lifetime[last];
+		owner[i] = owner[last];
+		id[i] = id[last];
+	}
+
+	/**
+	 * Ids are unique per pool, bullets mirrored from another pool are told
+	 * apart by their owner
+	 *
+	 * @return the index of the bullet, -1 if it is gone
+	 */
+	public int indexOf(int bulletId, int ownerId) {
+		for (int i = 0; i < size; i++)
+			if (id[i] == bulletId && owner[i] == ownerId)
+				return i;
+		return -1;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Bounding box of the bullet at index i. The rectangle is shared and
+	 * overwritten by the next call.
+	 */
+	public Rectangle getBoundingBox(int i) {
+		return box.setPosition(x[i], y[i]);
+	}
+
+	private void grow() {
+		int capacity = x.length * 2;
+		x = copy(x, capacity);
+		y = copy(y, capacity);
+		dx = copy(dx, capacity);
+		dy = copy(dy, capacity);
+		damage = copy(damage, capacity);
+		lifetime = copy(lifetime, capacity);
+		owner = copy(owner, capacity);
+		id = copy(id, capacity);
+	}
+
+	private int[] copy(int[] array, int capacity) {
+		int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+
+	private float[] copy(float[] array, int capacity) {
+		float[] result = new float[capacity];
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+}
@@ -29,18 +29,32 @@ public class Enemy extends AbstractDynamicObject implements Updatable {
 	private Rectangle box;
 	private Vector2 dir;
 	private IntArray path;
+	private final IntArray step = new IntArray(2);
+	private final IntArray route = new IntArray();
+	private int routeTargetX = -1, routeTargetY = -1;
+	public boolean pathQueued;
+	private final Random random;
 
 	public Enemy(Vector2 _pos) {
+		this(_pos, System.nanoTime());
+	}
+
+	/**
+	 * @param seed
+	 *            seeds the wandering of this enemy, the same seed gives the
+	 *            same moves
+	 */
+	public Enemy(Vector2 _pos, long seed) {
 		boundingBox = new Rectangle((int) _pos.x, (int) _pos.y, 64, 64);
 		ID = "enemy";
 		alive = true;
 		HP = 100f;
 		speed = 1.5f;
-		chaseObj = true;
+		chaseObj = false;
 		canShoot = false;
 		path = new IntArray();
 		dir = new Vector2();
-		Random random = new Random();
+		random = new Random(seed);
 		followTimer = random.nextFloat() + 6f;
 		startx = this.getX() + 32;
 		starty = this.getY() + 32;
@@ -50,55 +64,87 @@ public class Enemy extends AbstractDynamicObject implements Updatable {
 	}
 
 	public void update(float delta) {
+		think(delta, World.player.getBoundingBox().x, World.player.getBoundingBox().y);
+		move(delta);
+	}
+
+	/**
+	 * Choose target, facing and whether to shoot from the player position.
+	 * Only this enemy's own fields are written, so enemies can think in
+	 * parallel.
+	 *
+	 * @param delta
+	 * @param playerX
+	 * @param playerY
+	 */
+	public void think(float delta, float playerX, float playerY) {
 		canMove = true;
 		isMoving = false;
+		chaseObj = false;
 		startx = this.getX() + 32;
 		starty = this.getY() + 32;
-		if (this.getPos().dst(World.player.getPos()) < GameConfig.ENEMY_RADIUS
-				&& this.getPos().dst(World.player.getPos()) > GameConfig.ENEMY_SHOOT_RADIUS) {
-			targetx = World.player.getX() + 32;
-			targety = World.player.getY() + 32;
+		float distance = Vector2.dst(boundingBox.x, boundingBox.y, playerX, playerY);
+		if (distance < GameConfig.ENEMY_RADIUS && distance > GameConfig.ENEMY_SHOOT_RADIUS) {
+			targetx = (int) playerX + 32;
+			targety = (int) playerY + 32;
 			followDelay = 0;
+			chaseObj = true;
 		} else if (followDelay > followTimer) {
-			Random r = new Random();
-			targetx = startx + (r.nextInt(16) - 8) * 32;
-			targety = starty + (r.nextInt(16) - 8) * 32;
+			targetx = startx + (random.nextInt(16) - 8) * 32;
+			targety = starty + (random.nextInt(16) - 8) * 32;
 			followDelay = 0;
-		} else if (this.getPos().dst(World.player.getPos()) < GameConfig.ENEMY_SHOOT_RADIUS) {
+		} else if (distance < GameConfig.ENEMY_SHOOT_RADIUS) {
 			canMove = false;
 			followDelay = 0;
-			targetx = World.player.getX() + 32;
-			targety = World.player.getY() + 32;
+			targetx = (int) playerX + 32;
+			targety = (int) playerY + 32;
+			chaseObj = true;
 		}
 
-		dir = new Vector2(targetx - startx, targety - starty);
+		dir.set(targetx - startx, targety - starty);
 		dir.rotate90(-1);
 		angle = dir.angle();
 
-		if (this.getPos().dst(World.player.getPos()) <= GameConfig.ENEMY_SHOOT_RADIUS) {
-			targetx = World.player.getX() + 32;
-			targety = World.player.getY() + 32;
+		if (distance <= GameConfig.ENEMY_SHOOT_RADIUS) {
+			targetx = (int) playerX + 32;
+			targety = (int) playerY + 32;
 			followDelay = 0;
 			if (shootDelay > 1) {
 				shootDelay = 0;
 				canShoot = true;
 			}
 		}
-		if (path.size != 0 && canMove) {
-			isMoving = true;
-			float y = path.pop();
-			float x = path.pop();
-			this.followPath(new Vector2(x * 64, y * 64), delta);
-		}
 
 		shootDelay += delta;
 		followDelay += delta;
 	}
 
-	public Bullet fire() {
+	/**
+	 * Walk along the current path. Collides with the other enemies, so it
+	 * must run on one thread.
+	 *
+	 * @param delta
+	 */
+	public void move(float delta) {
+		if (path.size != 0 && canMove) {
+			// Drop the steps already reached, the path is kept between frames
+			while (path.size != 0 && path.get(path.size - 2) == startx / GameConfig.TILEDIM
+					&& path.peek() == starty / GameConfig.TILEDIM) {
+				path.pop();
+				path.pop();
+			}
+			if (path.size != 0) {
+				isMoving = true;
+				float y = path.peek();
+				float x = path.get(path.size - 2);
+				this.followPath(new Vector2(x * 64, y * 64), delta);
+			}
+		}
+	}
+
+	public void fire(World world) {
 		this.canShoot = false;
-		return new Bullet(new Vector2(this.getX() + 32, this.getY() + 32),
-				(float) Math.toRadians(angle + 90f), "enemy", 15);
+		world.addBullet(this.getX() + 32, this.getY() + 32, (float) Math.toRadians(angle + 90f), "enemy", 15);
 	}
 
 	public void hit(float dmg) {
@@ -107,8 +153,40 @@ public class Enemy extends AbstractDynamicObject implements Updatable {
 			alive = false;
 	}
 
-	public void setPath(IntArray intArray) {
-		path = intArray;
+	/**
+	 * Follow a single tile step, used when the next move comes from a flow field
+	 */
+	public void setNextStep(int x, int y) {
+		step.clear();
+		step.add(x);
+		step.add(y);
+		path = step;
+		routeTargetX = routeTargetY = -1;
+	}
+
+	public void clearPath() {
+		step.clear();
+		path = step;
+		routeTargetX = routeTargetY = -1;
+	}
+
+	/**
+	 * Store a copy of a path toward the given target tile. The copy is reused
+	 * until the target changes or the path is blocked.
+	 */
+	public void setPath(IntArray intArray, int targetX, int targetY) {
+		route.clear();
+		route.addAll(intArray);
+		path = route;
+		routeTargetX = targetX;
+		routeTargetY = targetY;
+	}
+
+	/**
+	 * Check if the stored path still leads to the target tile
+	 */
+	public boolean hasPathTo(int targetX, int targetY) {
+		return path == route && routeTargetX == targetX && routeTargetY == targetY;
 	}
 
 	public IntArray getPath() {
@@ -26,6 +26,7 @@ public class Player extends AbstractDynamicObject {
 	public int kills;
 	public int deaths;
 	public float timeToNextStep;
+	private final Vector2 shotPos = new Vector2();
 
 	public Player(Vector2 _pos, World _world, String username) {
 		this.world = _world;
@@ -49,17 +50,15 @@ public class Player extends AbstractDynamicObject {
 	}
 
 	public void fire() {
+		Vector2 pos = this.shotPosition();
 		if (!reloading) {
-			world.addBullet(new Bullet(this.shotPosition(), (float) Math.toRadians(this.angle + 90f), "player",
-					activeWeapon.damage));
+			world.addBullet(pos.x, pos.y, (float) Math.toRadians(this.angle + 90f), "player", activeWeapon.damage);
 			this.activeWeapon.lastFired = 0f;
 			this.activeWeapon.actClip--;
 		}
 		if (!reloading && activeWeapon.ID == "shotgun") {
-			world.addBullet(new Bullet(this.shotPosition(), (float) Math.toRadians(this.angle + 100f), "player",
-					activeWeapon.damage));
-			world.addBullet(new Bullet(this.shotPosition(), (float) Math.toRadians(this.angle + 80f), "player",
-					activeWeapon.damage));
+			world.addBullet(pos.x, pos.y, (float) Math.toRadians(this.angle + 100f), "player", activeWeapon.damage);
+			world.addBullet(pos.x, pos.y, (float) Math.toRadians(this.angle + 80f), "player", activeWeapon.damage);
 		}
 	}
 
@@ -129,7 +128,7 @@ public class Player extends AbstractDynamicObject {
 	public Vector2 shotPosition() {
 		float x2 = (float) (16 * Math.cos(Math.toRadians(this.angle)) - 16 * Math.sin(Math.toRadians(this.angle)));
 		float y2 = (float) (16 * Math.sin(Math.toRadians(this.angle)) + 16 * Math.cos(Math.toRadians(this.angle)));
-		return new Vector2(this.getPos().x + 32 + x2, this.getPos().y + 32 + y2);
+		return shotPos.set(boundingBox.x + 32 + x2, boundingBox.y + 32 + y2);
 	}
 	
 	public float getSkillCharge() {
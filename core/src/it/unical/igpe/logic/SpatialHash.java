@@ -0,0 +1,89 @@
+package it.unical.igpe.logic;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Broad-phase collision structure: objects are bucketed in square cells by
+ * their bounding box, so a query only looks at the objects sharing a cell
+ * with the searched box. Cell buckets are kept between rebuilds to avoid
+ * allocating every tick.
+ */
+public class SpatialHash<T extends AbstractStaticObject> {
+	private final int cellSize;
+	private final LongMap<Array<T>> cells;
+	private final Array<Array<T>> used;
+
+	public SpatialHash(int cellSize) {
+		this.cellSize = cellSize;
+		this.cells = new LongMap<Array<T>>();
+		this.used = new Array<Array<T>>(false, 64);
+	}
+
+	/**
+	 * Empty every bucket, keeping them for the next rebuild
+	 */
+	public void clear() {
+		for (int i = 0; i < used.size; i++)
+			used.get(i).clear();
+		used.clear();
+	}
+
+	public void insert(T obj) {
+		Rectangle box = obj.getBoundingBox();
+		int minX = cell(box.x), maxX = cell(box.x + box.width);
+		int minY = cell(box.y), maxY = cell(box.y + box.height);
+		for (int x = minX; x <= maxX; x++)
+			for (int y = minY; y <= maxY; y++) {
+				long key = key(x, y);
+				Array<T> bucket = cells.get(key);
+				if (bucket == null) {
+					bucket = new Array<T>(false, 8);
+					cells.put(key, bucket);
+				}
+				if (bucket.size == 0)
+					used.add(bucket);
+				bucket.add(obj);
+			}
+	}
+
+	/**
+	 * Collects into out every object sharing a cell with the box. Candidates
+	 * still have to be tested with Rectangle.overlaps.
+	 *
+	 * @param box
+	 * @param out
+	 *            cleared before being filled
+	 * @return out
+	 */
+	public Array<T> query(Rectangle box, Array<T> out) {
+		out.clear();
+		int minX = cell(box.x), maxX = cell(box.x + box.width);
+		int minY = cell(box.y), maxY = cell(box.y + box.height);
+		for (int x = minX; x <= maxX; x++)
+			for (int y = minY; y <= maxY; y++) {
+				Array<T> bucket = cells.get(key(x, y));
+				if (bucket == null)
+					continue;
+				for (int i = 0; i < bucket.size; i++) {
+					T obj = bucket.get(i);
+					if (!out.contains(obj, true))
+						out.add(obj);
+				}
+			}
+		return out;
+	}
+
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	private int cell(float coord) {
+		return (int) Math.floor(coord / cellSize);
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+}
@@ -0,0 +1,53 @@
+package it.unical.igpe.net;
+
+import com.badlogic.gdx.math.Rectangle;
+
+/**
+ * Bounding box of a player at each of the last ticks, in fixed arrays
+ * indexed by tick modulo the capacity, so the server can put a target back
+ * where a lagging shooter saw it
+ */
+public class BoxHistory {
+	private final int[] ticks;
+	private final float[] x, y, width, height;
+
+	/**
+	 * @param capacity
+	 *            ticks kept
+	 */
+	public BoxHistory(int capacity) {
+		ticks = new int[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		width = new float[capacity];
+		height = new float[capacity];
+		for (int i = 0; i < capacity; i++)
+			ticks[i] = -1;
+	}
+
+	public void record(int tick, Rectangle box) {
+		int slot = tick % ticks.length;
+		ticks[slot] = tick;
+		x[slot] = box.x;
+		y[slot] = box.y;
+		width[slot] = box.width;
+		height[slot] = box.height;
+	}
+
+	/**
+	 * @return false if the tick is too old or was never recorded
+	 */
+	public boolean get(int tick, Rectangle out) {
+		if (tick < 0)
+			return false;
+		int slot = tick % ticks.length;
+		if (ticks[slot] != tick)
+			return false;
+		out.set(x[slot], y[slot], width[slot], height[slot]);
+		return true;
+	}
+
+	public int getCapacity() {
+		return ticks.length;
+	}
+}
@@ -0,0 +1,34 @@
+package it.unical.igpe.net;
+
+import java.nio.ByteBuffer;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Direct buffers of one size, reused instead of allocated per datagram. Not
+ * thread safe, every buffer is obtained and freed by the same thread.
+ */
+public class BufferPool {
+	private final int size;
+	private final Array<ByteBuffer> free = new Array<ByteBuffer>(false, 16);
+
+	public BufferPool(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * @return a cleared buffer of at least the given capacity
+	 */
+	public ByteBuffer obtain(int capacity) {
+		if (capacity > size)
+			return ByteBuffer.allocateDirect(capacity);
+		ByteBuffer buffer = free.size > 0 ? free.pop() : ByteBuffer.allocateDirect(size);
+		buffer.clear();
+		return buffer;
+	}
+
+	public void free(ByteBuffer buffer) {
+		if (buffer.capacity() == size)
+			free.add(buffer);
+	}
+}
@@ -1,13 +1,16 @@
 package it.unical.igpe.net;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
 
 import it.unical.igpe.game.IGPEGame;
 import it.unical.igpe.logic.AbstractDynamicObject;
@@ -20,6 +23,10 @@ import it.unical.igpe.net.packet.Packet03Fire;
 import it.unical.igpe.net.packet.Packet04Death;
 import it.unical.igpe.net.packet.Packet05GameOver;
 import it.unical.igpe.net.packet.Packet06MapData;
+import it.unical.igpe.net.packet.Packet07Snapshot;
+import it.unical.igpe.net.packet.Packet08MapChunk;
+import it.unical.igpe.net.packet.Packet09MapAck;
+import it.unical.igpe.utils.GameConfig;
 
 public class GameClient extends Thread {
 	private InetAddress ipAddress;
@@ -27,6 +34,23 @@ public class GameClient extends Thread {
 	private String serverAddress;
 	private int port;
 	private boolean initialized = false;
+	private final byte[] receiveData = new byte[Packet.MAX_SIZE];
+	private final ByteBuffer receiveBuffer = ByteBuffer.wrap(receiveData);
+	private final ByteBuffer sendBuffer = ByteBuffer.allocate(Packet.MAX_SIZE);
+	private final DatagramPacket sendPacket = new DatagramPacket(sendBuffer.array(), 0);
+	private int sequence;
+	/** Reliability state of the packets exchanged with the server */
+	private ReliableChannel channel;
+	private final ReliableChannel.Sender resender = new ReliableChannel.Sender() {
+		@Override
+		public void send(ByteBuffer datagram, ReliableChannel to) {
+			GameClient.this.send(datagram.array(), datagram.arrayOffset(), datagram.limit());
+		}
+	};
+	/** Custom map being received, null when none */
+	private MapDownload mapDownload;
+	/** Logins that came before the world existed */
+	private final Array<Packet00Login> pendingLogins = new Array<Packet00Login>();
 
 	public GameClient(String ipAddress, int port) {
 		// Store parameters but don't create socket yet (avoid NetworkOnMainThreadException on Android)
@@ -40,6 +64,19 @@ public class GameClient extends Thread {
 			it.unical.igpe.utils.DebugUtils.showMessage("Creating client socket, connecting to server: " + serverAddress + ":" + port);
 			this.socket = new DatagramSocket();
 			this.ipAddress = InetAddress.getByName(serverAddress);
+			if (GameConfig.NET_SIM_LATENCY_MS > 0 || GameConfig.NET_SIM_JITTER_MS > 0 || GameConfig.NET_SIM_LOSS > 0) {
+				// Talk to the server through a loopback proxy that adds lag and loss
+				LagSimulator simulator = new LagSimulator(ipAddress, port, GameConfig.NET_SIM_LATENCY_MS,
+						GameConfig.NET_SIM_JITTER_MS, GameConfig.NET_SIM_LOSS);
+				simulator.start();
+				this.ipAddress = InetAddress.getLoopbackAddress();
+				this.port = simulator.getPort();
+				it.unical.igpe.utils.DebugUtils.showMessage("Simulating " + GameConfig.NET_SIM_LATENCY_MS + "+"
+						+ GameConfig.NET_SIM_JITTER_MS + " ms and " + GameConfig.NET_SIM_LOSS + " loss");
+			}
+			this.channel = new ReliableChannel(ipAddress, port);
+			// Wake up to resend reliable packets even when the server is silent
+			this.socket.setSoTimeout(GameConfig.NET_POLL_MS);
 			System.out.println("Connected to server " + serverAddress);
 			it.unical.igpe.utils.DebugUtils.showMessage("GameClient initialized successfully");
 			this.initialized = true;
@@ -68,11 +105,16 @@ public class GameClient extends Thread {
 		}
 
 		it.unical.igpe.utils.DebugUtils.showMessage("GameClient thread started");
+		DatagramPacket packet = new DatagramPacket(receiveData, receiveData.length);
 		while(true) {
-			byte[] data = new byte[1024];
-			DatagramPacket packet = new DatagramPacket(data, data.length);
+			packet.setLength(receiveData.length);
 			try {
 				socket.receive(packet);
+			} catch (SocketTimeoutException e) {
+				synchronized (this) {
+					channel.update(resender, System.currentTimeMillis());
+				}
+				continue;
 			} catch (IOException e) {
 				it.unical.igpe.utils.DebugUtils.showError("Error receiving packet in GameClient", e);
 				e.printStackTrace();
@@ -82,23 +124,71 @@ public class GameClient extends Thread {
 				e.printStackTrace();
 				break;
 			}
-			this.parsePacket(packet.getData(), packet.getAddress(), packet.getPort());
+			// Datagrams of other hosts, or too short to hold a header
+			if (packet.getPort() != port || !ipAddress.equals(packet.getAddress())
+					|| packet.getLength() < Packet.HEADER_SIZE)
+				continue;
+			receiveBuffer.clear();
+			receiveBuffer.limit(packet.getLength());
+			boolean handle;
+			synchronized (this) {
+				handle = channel.receive(receiveBuffer);
+			}
+			if (handle) {
+				this.handlePacket(receiveBuffer, packet.getAddress(), packet.getPort());
+				// Reliable packets that were waiting for this one
+				while (true) {
+					ByteBuffer held;
+					synchronized (this) {
+						held = channel.nextHeld();
+					}
+					if (held == null)
+						break;
+					this.handlePacket(held, packet.getAddress(), packet.getPort());
+				}
+			}
+			synchronized (this) {
+				channel.update(resender, System.currentTimeMillis());
+			}
 		}
 		it.unical.igpe.utils.DebugUtils.showMessage("GameClient thread ended");
 	}
 	
-	public void sendData(byte[] data) {
-		DatagramPacket packet = new DatagramPacket(data, data.length, ipAddress, port);
+	/**
+	 * Encode the packet in the send buffer and send it to the server
+	 */
+	public synchronized void sendData(Packet packet) {
+		sendBuffer.clear();
+		packet.write(sendBuffer, sequence++);
+		if (channel.prepare(sendBuffer, sendBuffer.position(), packet.isReliable(), System.currentTimeMillis()))
+			send(sendBuffer.array(), 0, sendBuffer.position());
+	}
+
+	private void send(byte[] data, int offset, int length) {
+		sendPacket.setData(data, offset, length);
+		sendPacket.setAddress(ipAddress);
+		sendPacket.setPort(port);
 		try {
-			socket.send(packet);
+			socket.send(sendPacket);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 	
-	private void parsePacket(byte[] data, InetAddress address, int port) {
-		String message = new String(data).trim();
-		PacketTypes type = Packet.lookupPacket(message.substring(0, 2));
+	/**
+	 * Parse a packet, a truncated or corrupt one is logged and dropped so
+	 * the receiving thread goes on
+	 */
+	private void handlePacket(ByteBuffer data, InetAddress address, int port) {
+		try {
+			parsePacket(data, address, port);
+		} catch (RuntimeException e) {
+			it.unical.igpe.utils.DebugUtils.showError("Dropped an invalid packet from " + address.getHostAddress(), e);
+		}
+	}
+
+	private void parsePacket(ByteBuffer data, InetAddress address, int port) {
+		PacketTypes type = Packet.readHeader(data);
 		Packet packet = null;
 		switch (type) {
 		default:
@@ -135,27 +225,77 @@ public class GameClient extends Thread {
 			packet = new Packet06MapData(data);
 			handleMapData((Packet06MapData) packet);
 			break;
+		case SNAPSHOT:
+			packet = new Packet07Snapshot(data);
+			handleSnapshot((Packet07Snapshot) packet);
+			break;
+		case MAPCHUNK:
+			packet = new Packet08MapChunk(data);
+			handleMapChunk((Packet08MapChunk) packet);
+			break;
+		case MAPACK:
+		case ACK:
+			break;
 		}
 	}
 	
 	private void handleMapData(Packet06MapData packet) {
 		String mapName = packet.getMapName();
-		String mapContent = packet.getMapContent();
-
-		it.unical.igpe.utils.DebugUtils.showMessage("Received map data from server: " + mapName + (mapContent != null ? " (with content, length: " + mapContent.length() + ")" : ""));
+		it.unical.igpe.utils.DebugUtils.showMessage("Received map offer from server: " + mapName + (packet.isCustom() ? " (" + packet.getLength() + " bytes in " + packet.getChunks() + " chunks)" : ""));
 
-		// Store map content directly (don't save to file)
-		if (mapContent != null && !mapContent.isEmpty()) {
-			// Store map content for use when creating MultiplayerWorld
-			MultiplayerWorld.serverMapName = mapName; // Store filename
-			MultiplayerWorld.serverMapContent = mapContent; // Store content
-			it.unical.igpe.utils.DebugUtils.showMessage("Stored map content for multiplayer world creation");
-		} else {
+		if (!packet.isCustom()) {
 			// No map content, just use the map name (try to load from assets)
-			MultiplayerWorld.serverMapName = mapName;
-			MultiplayerWorld.serverMapContent = null;
+			new Packet09MapAck(0, 0, null).writeData(this);
+			if (mapDownload == null && mapName.equals(MultiplayerWorld.serverMapName) && MultiplayerWorld.serverMapContent == null && IGPEGame.game.worldMP != null)
+				return; // Repeated offer, the map is already in use
+			mapDownload = null;
+			useMap(mapName, null);
+			return;
 		}
 
+		String cached = MapDownload.loadCached(packet.getHash(), packet.getLength());
+		if (cached != null) {
+			it.unical.igpe.utils.DebugUtils.showMessage("Map " + mapName + " found in cache, skipping download");
+			new Packet09MapAck(packet.getHash(), packet.getChunks(), null).writeData(this);
+			mapDownload = null;
+			if (!cached.equals(MultiplayerWorld.serverMapContent) || IGPEGame.game.worldMP == null)
+				useMap(mapName, cached);
+			return;
+		}
+
+		// A repeated offer of the same map resumes the download
+		if (mapDownload == null || !mapDownload.matches(packet))
+			mapDownload = new MapDownload(packet);
+		mapDownload.getAck().writeData(this);
+	}
+
+	private void handleMapChunk(Packet08MapChunk packet) {
+		if (mapDownload == null || packet.getHash() != mapDownload.getHash())
+			return;
+		mapDownload.add(packet.getIndex(), packet.getData());
+		if (mapDownload.isComplete()) {
+			MapDownload download = mapDownload;
+			String content = download.getContent();
+			if (content != null) {
+				mapDownload = null;
+				MapDownload.saveCached(download.getHash(), download.getLength(), content);
+				download.getAck().writeData(this);
+				useMap(download.getMapName(), content);
+				return;
+			}
+		}
+		mapDownload.getAck().writeData(this);
+	}
+
+	/**
+	 * Store the map for the multiplayer world and reload the world of a
+	 * client that joined with another map
+	 */
+	private void useMap(String mapName, String mapContent) {
+		// Store map content for use when creating MultiplayerWorld
+		MultiplayerWorld.serverMapName = mapName;
+		MultiplayerWorld.serverMapContent = mapContent;
+
 		// If worldMP doesn't exist yet, it will be created with this map
 		// If it exists, check if we're the host player before reloading
 		if (IGPEGame.game.worldMP == null) {
@@ -189,6 +329,12 @@ public class GameClient extends Thread {
 		}
 	}
 
+	private void handleSnapshot(Packet07Snapshot packet) {
+		if (IGPEGame.game.worldMP == null)
+			return;
+		IGPEGame.game.worldMP.applySnapshot(packet);
+	}
+
 	private void handleGameOver(Packet05GameOver packet) {
 		IGPEGame.game.worldMP.handleGameOver(packet.getUsernameWinner(), packet.getKillsWinner());
 	}
@@ -206,18 +352,26 @@ public class GameClient extends Thread {
 			it.unical.igpe.utils.DebugUtils.showError("Cannot handle fire: worldMP is null!", null);
 			return;
 		}
-		IGPEGame.game.worldMP.fireBullet(packet.getUsername(), packet.getX(), packet.getY(), packet.getAngle(), packet.getWeapon());
+		PlayerMP shooter = IGPEGame.game.worldMP.getPlayerMP(packet.getId());
+		if (shooter == null)
+			return;
+		IGPEGame.game.worldMP.fireBullet(shooter.getUsername(), packet.getX(), packet.getY(), packet.getAngle(), packet.getWeapon());
 	}
 
 	private void handleLogin(Packet00Login packet, InetAddress address, int port) {
-		// Check if world exists before trying to access it
-		if (IGPEGame.game.worldMP == null) {
-			it.unical.igpe.utils.DebugUtils.showError("Cannot handle login: worldMP is null! Waiting for world to be created...", null);
-			return; // Skip this login packet, world will be created soon
+		synchronized (pendingLogins) {
+			// The world sends our login before it is assigned, the echo with
+			// our id must not be lost, it is never sent again
+			if (IGPEGame.game.worldMP == null) {
+				pendingLogins.add(packet);
+				return;
+			}
 		}
 		synchronized (IGPEGame.game.worldMP.getEntities()) {
 			for (AbstractDynamicObject e: IGPEGame.game.worldMP.getEntities()) {
 				if (e instanceof PlayerMP && ((PlayerMP)e).username.equalsIgnoreCase(packet.getUsername())) {
+					// Our own login or a player we know, take the id given by the server
+					((PlayerMP) e).id = packet.getId();
 					return;
 				}
 			}
@@ -225,10 +379,23 @@ public class GameClient extends Thread {
 		System.out.println("[" + address.getHostAddress() + ":" + port + "]"
 				+ packet.getUsername() + " has joined the game");
 		PlayerMP player = new PlayerMP(new Vector2(packet.getX(), packet.getY()), IGPEGame.game.worldMP, packet.getUsername(), address, port);
+		player.id = packet.getId();
 		IGPEGame.game.worldMP.addEntity(player);
 	}
 	
+	/**
+	 * Handle the logins received before IGPEGame.game.worldMP was assigned,
+	 * called once the world is set
+	 */
+	public void applyPendingLogins() {
+		synchronized (pendingLogins) {
+			for (Packet00Login login : pendingLogins)
+				handleLogin(login, ipAddress, port);
+			pendingLogins.clear();
+		}
+	}
+
 	private void handleMove(Packet02Move packet) {
-		IGPEGame.game.worldMP.movePlayer(packet.getUsername(), packet.getX(), packet.getY(), packet.getAngle(), packet.getState(), packet.getWeapon());
+		IGPEGame.game.worldMP.movePlayer(packet.getId(), packet.getX(), packet.getY(), packet.getAngle(), packet.getState(), packet.getWeapon());
 	}
 }
@@ -1,39 +1,110 @@
 package it.unical.igpe.net;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.InputStreamReader;
 import java.net.InetAddress;
-import java.net.SocketException;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
 
-import it.unical.igpe.game.IGPEGame;
+import it.unical.igpe.MapUtils.MapFormat;
 import it.unical.igpe.net.packet.Packet;
-import it.unical.igpe.net.packet.Packet.PacketTypes;
 import it.unical.igpe.net.packet.Packet00Login;
 import it.unical.igpe.net.packet.Packet01Disconnect;
 import it.unical.igpe.net.packet.Packet02Move;
 import it.unical.igpe.net.packet.Packet03Fire;
 import it.unical.igpe.net.packet.Packet04Death;
 import it.unical.igpe.net.packet.Packet05GameOver;
-import it.unical.igpe.net.packet.Packet06MapData;
+import it.unical.igpe.net.packet.Packet07Snapshot;
+import it.unical.igpe.net.packet.Packet09MapAck;
+import it.unical.igpe.net.packet.Packet11Input;
+import it.unical.igpe.net.packet.Packet12Discovery;
+import it.unical.igpe.utils.GameConfig;
 
+/**
+ * Server of a multiplayer match. This thread only receives: datagrams are read
+ * from a non-blocking channel, go through the reliability layer, are decoded
+ * and put in a bounded queue. The game thread takes them from the queue to
+ * change the world and queues the replies, which are sent together once per
+ * tick, or once per batch of packets when the server only relays. A server
+ * can also be a room of a RoomManager, which then owns the socket and runs
+ * the ticks.
+ */
 public class GameServer extends Thread {
 	public MultiplayerWorld worldMP;
 	public int MaxKills;
-	private DatagramSocket socket;
+	private DatagramChannel datagramChannel;
+	private Selector selector;
 	private int port;
-	private List<PlayerMP> connectedPlayers = new ArrayList<PlayerMP>();
+	/** Manager of this room, null when the server has its own socket */
+	private RoomManager rooms;
+	private String roomName;
+	private ScheduledFuture<?> task;
+	private volatile boolean closed;
+	/** Clients that joined this room, and when the last one left; kept by the RoomManager */
+	int members;
+	long emptySince;
+	private final PlayerRegistry players = new PlayerRegistry();
 	private String mapName; // Map name sent to clients (filename)
 	private String serverMapPath; // Full path for server to load map (Desktop) or filename (Android)
 	private String serverMapContent; // Map content for server to load (Android)
+	private MapTransfer mapTransfer;
+	/** Reliability state of every client that sent or was sent a reliable packet */
+	private final Map<InetSocketAddress, ReliableChannel> channels = new ConcurrentHashMap<InetSocketAddress, ReliableChannel>();
+	private long lastPoll;
 	private boolean initialized = false;
+	/** Simulation ticks per second, 0 when the server only relays packets */
+	private int tickRate = 0;
+	private int tick;
+	private volatile boolean gameOverSent = false;
+	/** Name in the discovery beacons */
+	private String serverName = "Server";
+	private final ByteBuffer beaconBuffer = ByteBuffer.allocate(Packet.MAX_SIZE);
+	/** Time spent ticking or relaying since loadSince, and its percent over the last sample */
+	private long busyNanos, loadSince = System.nanoTime();
+	private volatile int load;
+	private ByteBuffer receiveBuffer;
+	/** Decoded packets waiting for the game thread, and the empty holders */
+	private final ArrayBlockingQueue<Inbound> inbound = new ArrayBlockingQueue<Inbound>(GameConfig.SERVER_QUEUE_SIZE);
+	private final ArrayBlockingQueue<Inbound> freeInbound = new ArrayBlockingQueue<Inbound>(GameConfig.SERVER_QUEUE_SIZE);
+	private int dropped;
+	private final ByteBuffer sendBuffer = ByteBuffer.allocate(Packet.MAX_SIZE);
+	private final BufferPool buffers = new BufferPool(GameConfig.SERVER_BUFFER_SIZE);
+	/** Datagrams waiting for the next flush */
+	private final Array<ByteBuffer> outgoing = new Array<ByteBuffer>();
+	private final Array<InetSocketAddress> outgoingTo = new Array<InetSocketAddress>();
+	private final ReliableChannel.Sender resender = new ReliableChannel.Sender() {
+		@Override
+		public void send(ByteBuffer datagram, ReliableChannel to) {
+			queue(datagram, datagram.limit(), to);
+		}
+	};
+	private int sequence;
+	/** Whole world at the last snapshot tick, each client gets its own view of it */
+	private final WorldSnapshot frame = new WorldSnapshot();
+	private final InterestManager interest = new InterestManager();
+	private final Array<PlayerMP> nearby = new Array<PlayerMP>(false, 16);
+	private final Packet07Snapshot snapshotPacket = new Packet07Snapshot();
+	/** Box of a shooter at the tick it fired */
+	private final Rectangle shooterBox = new Rectangle();
 
 	public GameServer(int port) {
 		this(port, "arena.map", null); // Default map
@@ -60,14 +131,36 @@ public class GameServer extends Thread {
 		// Keep .map extension
 		this.mapName = mapNameForClients;
 
+		for (int i = 0; i < GameConfig.SERVER_QUEUE_SIZE; i++)
+			freeInbound.add(new Inbound());
+
 		// Socket creation and world loading moved to run() to avoid NetworkOnMainThreadException on Android
 		it.unical.igpe.utils.DebugUtils.showMessage("GameServer constructor completed (socket will be created in background thread)");
 	}
 
-	private void initialize() {
+	/**
+	 * Room of a RoomManager: packets come from the manager and replies go out
+	 * through its socket
+	 */
+	GameServer(RoomManager rooms, String roomName, String mapName, String mapContent) {
+		this(rooms.getPort(), mapName, mapContent);
+		this.rooms = rooms;
+		this.roomName = roomName;
+	}
+
+	void initialize() {
 		try {
-			it.unical.igpe.utils.DebugUtils.showMessage("Creating server socket on port: " + port + " with map: " + serverMapPath);
-			this.socket = new DatagramSocket(port);
+			if (rooms != null) {
+				this.datagramChannel = rooms.getDatagramChannel();
+			} else {
+				it.unical.igpe.utils.DebugUtils.showMessage("Creating server socket on port: " + port + " with map: " + serverMapPath);
+				this.datagramChannel = DatagramChannel.open();
+				this.datagramChannel.socket().bind(new InetSocketAddress(port));
+				this.datagramChannel.configureBlocking(false);
+				this.selector = Selector.open();
+				this.datagramChannel.register(selector, SelectionKey.OP_READ);
+				this.receiveBuffer = ByteBuffer.allocateDirect(Packet.MAX_SIZE);
+			}
 			System.out.println("Creating Server...");
 			it.unical.igpe.utils.DebugUtils.showMessage("Socket created, loading multiplayer world...");
 			try {
@@ -79,25 +172,32 @@ public class GameServer extends Thread {
 					it.unical.igpe.utils.DebugUtils.showMessage("Loading multiplayer world from path: " + serverMapPath);
 					this.worldMP = new MultiplayerWorld(serverMapPath, true);
 				}
+				this.worldMP.server = this;
+				String transferContent = serverMapContent;
+				// Clients only have the bundled maps, a custom file is sent to
+				// them as text
+				if ((transferContent == null || transferContent.isEmpty()) && !Gdx.files.internal(serverMapPath).exists())
+					transferContent = loadMapContent(serverMapPath);
+				this.mapTransfer = new MapTransfer(mapName, transferContent);
 				it.unical.igpe.utils.DebugUtils.showMessage("GameServer initialized successfully");
 				this.initialized = true;
 			} catch (Exception e) {
 				it.unical.igpe.utils.DebugUtils.showError("Failed to load multiplayer world", e);
 				// Close socket if world creation fails
-				if (this.socket != null && !this.socket.isClosed()) {
-					this.socket.close();
-				}
-				this.socket = null;
+				close();
+				this.datagramChannel = null;
 				throw e; // Re-throw to indicate failure
 			}
-		} catch (SocketException e1) {
+		} catch (IOException e1) {
 			it.unical.igpe.utils.DebugUtils.showError("Socket error creating GameServer on port: " + port, e1);
 			e1.printStackTrace();
-			this.socket = null; // Mark as failed
+			close();
+			this.datagramChannel = null; // Mark as failed
 		} catch (Exception e) {
 			it.unical.igpe.utils.DebugUtils.showError("Unexpected error initializing GameServer", e);
 			e.printStackTrace();
-			this.socket = null; // Mark as failed
+			close();
+			this.datagramChannel = null; // Mark as failed
 		}
 	}
 
@@ -108,120 +208,457 @@ public class GameServer extends Thread {
 		}
 
 		// Don't run if initialization failed
-		if (socket == null || !initialized) {
+		if (datagramChannel == null || !initialized) {
 			it.unical.igpe.utils.DebugUtils.showError("GameServer thread cannot start: initialization failed");
 			return;
 		}
 
 		it.unical.igpe.utils.DebugUtils.showMessage("GameServer thread started");
-		while (true) {
-			byte[] data = new byte[1024];
-			DatagramPacket packet = new DatagramPacket(data, data.length);
-			try {
-				socket.receive(packet);
-			} catch (IOException e) {
+		Thread game = new Thread("GameServer tick") {
+			public void run() {
+				if (isAuthoritative())
+					runTicks();
+				else
+					runRelay();
+			}
+		};
+		game.setDaemon(true);
+		game.start();
+		try {
+			while (isValid()) {
+				selector.select();
+				selector.selectedKeys().clear();
+				receiveAll();
+			}
+		} catch (ClosedSelectorException e) {
+			// Closed by close()
+		} catch (IOException e) {
+			if (isValid()) {
 				it.unical.igpe.utils.DebugUtils.showError("Error receiving packet in GameServer", e);
 				e.printStackTrace();
-				break; // Exit loop on error
-			} catch (Exception e) {
-				it.unical.igpe.utils.DebugUtils.showError("Unexpected error in GameServer.run()", e);
-				e.printStackTrace();
+			}
+		} catch (Exception e) {
+			it.unical.igpe.utils.DebugUtils.showError("Unexpected error in GameServer.run()", e);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read every datagram waiting in the channel
+	 */
+	private void receiveAll() throws IOException {
+		while (true) {
+			receiveBuffer.clear();
+			InetSocketAddress from = (InetSocketAddress) datagramChannel.receive(receiveBuffer);
+			if (from == null)
+				return;
+			receiveBuffer.flip();
+			receive(receiveBuffer, from);
+		}
+	}
+
+	/**
+	 * Pass the datagram through the channel of its sender and queue the
+	 * packets it releases. When the queue is full the datagram is dropped
+	 * before the channel sees it, so a reliable packet is not acked and comes
+	 * again.
+	 */
+	void receive(ByteBuffer data, InetSocketAddress from) {
+		if (data.remaining() < Packet.HEADER_SIZE)
+			return;
+		// Probes come from clients not connected, they get no channel
+		if (Packet12Discovery.isProbe(data)) {
+			if (rooms == null)
+				answerProbe(datagramChannel, beaconBuffer,
+						new Packet12Discovery(serverName, mapName, players.size(), load), from);
+			return;
+		}
+		if (freeInbound.isEmpty()) {
+			if (dropped++ % 1000 == 0)
+				it.unical.igpe.utils.DebugUtils.showMessage("GameServer queue full, " + dropped + " datagrams dropped");
+			return;
+		}
+		ReliableChannel channel = Packet.lookupPacket(data.get(0)).isReliable() ? getChannel(from) : channels.get(from);
+		if (channel != null && !channel.receive(data))
+			return;
+		enqueue(data, from);
+		// Reliable packets that were waiting for this one
+		ByteBuffer held;
+		while (channel != null && !freeInbound.isEmpty() && (held = channel.nextHeld()) != null)
+			enqueue(held, from);
+	}
+
+	private void enqueue(ByteBuffer data, InetSocketAddress from) {
+		Packet packet;
+		try {
+			packet = readPacket(data);
+		} catch (RuntimeException e) {
+			// Truncated or corrupt payload
+			packet = null;
+		}
+		if (packet == null)
+			return;
+		Inbound message = freeInbound.poll();
+		message.packet = packet;
+		message.from = from;
+		inbound.add(message);
+	}
+
+	/**
+	 * Handle the queued packets on the game thread
+	 */
+	private void processInbound() {
+		Inbound message;
+		while ((message = inbound.poll()) != null)
+			process(message);
+	}
+
+	private void process(Inbound message) {
+		handlePacket(message.packet, message.from);
+		message.packet = null;
+		message.from = null;
+		freeInbound.add(message);
+	}
+
+	/**
+	 * Without a tick, handle packets as they come and flush the replies after
+	 * each batch
+	 */
+	private void runRelay() {
+		while (isValid()) {
+			Inbound first;
+			try {
+				first = inbound.poll(GameConfig.NET_POLL_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
 				break;
 			}
-			this.parsePacket(packet.getData(), packet.getAddress(), packet.getPort());
-			for (PlayerMP p : connectedPlayers) {
-				if(p.kills >= MaxKills)  {
-					Packet05GameOver packetGO = new Packet05GameOver(p.username, p.kills);
-					packetGO.writeData(this);
+			synchronized (this) {
+				if (first != null)
+					process(first);
+				relay();
+			}
+		}
+	}
+
+	private synchronized void relay() {
+		long start = System.nanoTime();
+		processInbound();
+		// The next batch is relayed by where the players are now
+		interest.update(players.list());
+		checkGameOver();
+		poll(System.currentTimeMillis());
+		flush();
+		measure(start);
+	}
+
+	/**
+	 * Add the time since start to the busy time and update the load once
+	 * every LOAD_SAMPLE_MS
+	 */
+	private void measure(long start) {
+		long now = System.nanoTime();
+		busyNanos += now - start;
+		long elapsed = now - loadSince;
+		if (elapsed >= GameConfig.LOAD_SAMPLE_MS * 1000000L) {
+			load = (int) (busyNanos * 100 / elapsed);
+			busyNanos = 0;
+			loadSince = now;
+		}
+	}
+
+	/**
+	 * Send a beacon to the client that broadcast a probe, straight from the
+	 * receiving thread
+	 */
+	static void answerProbe(DatagramChannel channel, ByteBuffer buffer, Packet12Discovery beacon,
+			InetSocketAddress to) {
+		buffer.clear();
+		beacon.write(buffer, 0);
+		buffer.flip();
+		try {
+			channel.send(buffer, to);
+		} catch (IOException e) {
+			it.unical.igpe.utils.DebugUtils.showMessage("Could not answer the probe of " + to + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Run the ticks of this room on the pool of its manager
+	 */
+	void schedule(ScheduledExecutorService pool) {
+		final long period = isAuthoritative() ? 1000000000L / tickRate : GameConfig.NET_POLL_MS * 1000000L;
+		it.unical.igpe.utils.DebugUtils.showMessage("Room " + roomName + " ticking at " + tickRate + " Hz");
+		task = pool.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					if (isAuthoritative())
+						tick(1f / tickRate);
+					else
+						relay();
+				} catch (Exception e) {
+					// An exception would cancel the task and freeze the room
+					it.unical.igpe.utils.DebugUtils.showError("Error in room " + roomName, e);
+				}
+			}
+		}, 0, period, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Resend what was not acknowledged: reliable packets, acks no packet
+	 * carried and map chunks
+	 */
+	private void poll(long now) {
+		if (now - lastPoll < GameConfig.NET_POLL_MS)
+			return;
+		lastPoll = now;
+		if (!mapTransfer.isIdle())
+			mapTransfer.update(this, now);
+		for (Map.Entry<InetSocketAddress, ReliableChannel> entry : channels.entrySet()) {
+			ReliableChannel channel = entry.getValue();
+			if (channel.isIdle(now))
+				timeOut(entry.getKey());
+			else
+				channel.update(resender, now);
+		}
+	}
+
+	/**
+	 * Clients send an ack at least every KEEPALIVE_MS, one silent for
+	 * CONNECTION_TIMEOUT_MS is gone and leaves as if it had disconnected
+	 */
+	private void timeOut(InetSocketAddress from) {
+		PlayerMP player = players.get(from);
+		System.out.println("[" + from.getAddress().getHostAddress() + ":" + from.getPort() + "] "
+				+ (player != null ? player.getUsername() + " " : "") + "timed out...");
+		disconnect(player != null ? new Packet01Disconnect(player.getUsername()) : null, from);
+	}
+
+	/**
+	 * @return the channel of the endpoint, created if it is new
+	 */
+	private ReliableChannel getChannel(InetSocketAddress address) {
+		ReliableChannel channel = channels.get(address);
+		if (channel == null) {
+			channel = new ReliableChannel(address.getAddress(), address.getPort());
+			channels.put(address, channel);
+		}
+		return channel;
+	}
+
+	private void checkGameOver() {
+		// The game over is reliable, it is sent once
+		if (gameOverSent)
+			return;
+		for (PlayerMP p : players) {
+			if(p.kills >= MaxKills)  {
+				Packet05GameOver packetGO = new Packet05GameOver(p.username, p.kills);
+				packetGO.writeData(this);
+				gameOverSent = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Run the world at a fixed rate: every tick moves the bullets, resolves
+	 * hits and deaths and sends a snapshot to each client. When the server
+	 * falls far behind the lost ticks are dropped instead of replayed.
+	 */
+	private void runTicks() {
+		long step = 1000000000L / tickRate;
+		float delta = 1f / tickRate;
+		long next = System.nanoTime();
+		it.unical.igpe.utils.DebugUtils.showMessage("GameServer ticking at " + tickRate + " Hz");
+		while (isValid()) {
+			tick(delta);
+			next += step;
+			long wait = next - System.nanoTime();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} catch (InterruptedException e) {
+					break;
 				}
+			} else if (wait < -step * GameConfig.SERVER_MAX_LATE_TICKS)
+				next = System.nanoTime();
+		}
+	}
+
+	private synchronized void tick(float delta) {
+		long start = System.nanoTime();
+		processInbound();
+		worldMP.update(delta);
+		tick++;
+		for (PlayerMP p : players)
+			if (p.history != null)
+				p.history.record(tick, p.getBoundingBox());
+		interest.update(players.list());
+		// Clients interpolate between snapshots, they need not come every tick
+		if (tick % GameConfig.SNAPSHOT_INTERVAL == 0)
+			sendSnapshots();
+		checkGameOver();
+		poll(System.currentTimeMillis());
+		flush();
+		measure(start);
+	}
+
+	/**
+	 * Capture the world once and send every client one datagram with the
+	 * changes of its view since the last tick it acknowledged, or the whole
+	 * view when that tick is no longer in its history. Far players are
+	 * refreshed every INTEREST_FAR_INTERVAL snapshots, at a different
+	 * snapshot for each client, and cost nothing in between.
+	 */
+	private void sendSnapshots() {
+		synchronized (worldMP.getBullets()) {
+			frame.capture(tick, players.list(), worldMP.getBullets());
+		}
+		int snapshot = tick / GameConfig.SNAPSHOT_INTERVAL;
+		for (PlayerMP p : players) {
+			if (p.endpoint == null)
+				continue;
+			if (p.views == null) {
+				p.views = new WorldSnapshot[GameConfig.SNAPSHOT_HISTORY];
+				for (int i = 0; i < p.views.length; i++)
+					p.views[i] = new WorldSnapshot();
 			}
+			WorldSnapshot previous = getView(p, tick - GameConfig.SNAPSHOT_INTERVAL);
+			WorldSnapshot view = p.views[tick % p.views.length];
+			interest.view(frame, p, previous, InterestManager.isFarUpdate(snapshot + p.id), view);
+			WorldSnapshot base = p.ackedTick < tick ? getView(p, p.ackedTick) : null;
+			snapshotPacket.set(view, base, p.inputSequence);
+			sendData(snapshotPacket, p.endpoint);
+		}
+	}
+
+	/**
+	 * @return the snapshot sent to the client at the tick, null if it is no
+	 *         longer in its history
+	 */
+	private static WorldSnapshot getView(PlayerMP p, int tick) {
+		if (tick < 0)
+			return null;
+		WorldSnapshot view = p.views[tick % p.views.length];
+		return view.tick == tick ? view : null;
+	}
+
+	/**
+	 * Simulate the world on the server at the given rate instead of relaying
+	 * the hits decided by the clients. Call before start.
+	 */
+	public void setTickRate(int tickRate) {
+		this.tickRate = tickRate;
+	}
+
+	public boolean isAuthoritative() {
+		return tickRate > 0;
+	}
+
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * Decode a datagram on the receiving thread
+	 *
+	 * @return null for acks, which only the channel reads, and for the types
+	 *         the server does not receive
+	 */
+	private Packet readPacket(ByteBuffer data) {
+		switch (Packet.readHeader(data)) {
+		case LOGIN:
+			return new Packet00Login(data);
+		case DISCONNECT:
+			return new Packet01Disconnect(data);
+		case MOVE:
+			return new Packet02Move(data);
+		case FIRE:
+			return new Packet03Fire(data);
+		case DEATH:
+			return new Packet04Death(data);
+		case GAMEOVER:
+			return new Packet05GameOver(data);
+		case MAPACK:
+			return new Packet09MapAck(data);
+		case INPUT:
+			return new Packet11Input(data);
+		default:
+			return null;
 		}
 	}
 
-	private void parsePacket(byte[] data, InetAddress address, int port) {
-		String message = new String(data).trim();
-		PacketTypes type = Packet.lookupPacket(message.substring(0, 2));
-		Packet packet = null;
-		switch (type) {
+	private void handlePacket(Packet packet, InetSocketAddress from) {
+		InetAddress address = from.getAddress();
+		int port = from.getPort();
+		switch (Packet.lookupPacket(packet.packetID)) {
 		default:
-		case INVALID:
 			break;
 		case LOGIN:
-			packet = new Packet00Login(data);
 			System.out.println("[" + address.getHostAddress() + ":" + port + "]"
 					+ ((Packet00Login) packet).getUsername() + " has connected");
 			PlayerMP player = new PlayerMP(
 					new Vector2(((Packet00Login) packet).getX(), ((Packet00Login) packet).getY()),
-					IGPEGame.game.worldMP, ((Packet00Login) packet).getUsername(), address, port);
+					worldMP, ((Packet00Login) packet).getUsername(), address, port);
 			this.addConnection(player, (Packet00Login) packet);
-			// Send map data to the newly connected client
-			// Use stored map content if available (custom maps), otherwise send just map name (default maps in assets)
-			try {
-				if (serverMapContent != null && !serverMapContent.isEmpty()) {
-					// Custom map: send content
-					Packet06MapData mapPacket = new Packet06MapData(mapName, serverMapContent);
-					sendData(mapPacket.getData(), address, port);
-					it.unical.igpe.utils.DebugUtils.showMessage("Sent custom map data to client: " + mapName + " (" + serverMapContent.length() + " bytes)");
-				} else {
-					// Default map: just send name, client will load from assets
-					Packet06MapData mapPacket = new Packet06MapData(mapName);
-					sendData(mapPacket.getData(), address, port);
-					it.unical.igpe.utils.DebugUtils.showMessage("Sent default map name to client: " + mapName + " (client will load from assets)");
-				}
-			} catch (Exception e) {
-				it.unical.igpe.utils.DebugUtils.showError("Failed to send map data to client", e);
-				// Fallback: send just map name
-				Packet06MapData mapPacket = new Packet06MapData(mapName);
-				sendData(mapPacket.getData(), address, port);
-			}
+			// Offer the map, custom map content follows in chunks
+			mapTransfer.start(from);
 			break;
 		case DISCONNECT:
-			packet = new Packet01Disconnect(data);
 			System.out.println("[" + address.getHostAddress() + ":" + port + "] "
 					+ ((Packet01Disconnect) packet).getUsername() + " has left...");
-			this.removeConnection((Packet01Disconnect) packet);
+			disconnect((Packet01Disconnect) packet, from);
 			break;
 		case MOVE:
-			packet = new Packet02Move(data);
-			this.handleMove((Packet02Move) packet);
+			this.handleMove((Packet02Move) packet, from);
 			break;
 		case FIRE:
-			packet = new Packet03Fire(data);
-			handleFire((Packet03Fire) packet);
+			handleFire((Packet03Fire) packet, from);
 			break;
 		case DEATH:
-			packet = new Packet04Death(data);
 			handleDeath((Packet04Death) packet);
 			break;
 		case GAMEOVER:
-			packet = new Packet05GameOver(data);
 			packet.writeData(this);
 			break;
-		case MAPDATA:
-			// Server receives map data (shouldn't happen, but handle gracefully)
+		case MAPACK:
+			mapTransfer.acknowledge((Packet09MapAck) packet, from);
+			break;
+		case INPUT:
+			handleInput((Packet11Input) packet, from);
 			break;
 		}
 	}
 	
 	private void handleDeath(Packet04Death packet) {
-		if (getPlayerMP(packet.getUsernameKiller()) != null && getPlayerMP(packet.getUsernameKilled()) != null) {
-			int index = getPlayerMPIndex(packet.getUsernameKiller());
-			if (index >= 0 && index < this.connectedPlayers.size() &&
-				!packet.getUsernameKiller().equalsIgnoreCase(MultiplayerWorld.username)) {
-				this.connectedPlayers.get(index).kills++;
-			}
-			index = getPlayerMPIndex(packet.getUsernameKilled());
-			if (index >= 0 && index < this.connectedPlayers.size() &&
-				!packet.getUsernameKilled().equalsIgnoreCase(MultiplayerWorld.username)) {
-				this.connectedPlayers.get(index).deaths++;
-			}
+		// Deaths are decided by the tick, not by the clients
+		if (isAuthoritative())
+			return;
+		PlayerMP killer = players.get(packet.getUsernameKiller());
+		PlayerMP killed = players.get(packet.getUsernameKilled());
+		if (killer != null && killed != null) {
+			if (!packet.getUsernameKiller().equalsIgnoreCase(MultiplayerWorld.username))
+				killer.kills++;
+			if (!packet.getUsernameKilled().equalsIgnoreCase(MultiplayerWorld.username))
+				killed.deaths++;
 			packet.writeData(this);
 		}
 	}
 
 	public void close() {
-		if (this.socket != null && !this.socket.isClosed()) {
-			this.socket.close();
+		closed = true;
+		if (rooms != null) {
+			// The socket belongs to the manager
+			if (task != null)
+				task.cancel(false);
+			return;
+		}
+		try {
+			if (this.selector != null)
+				this.selector.close();
+			if (this.datagramChannel != null)
+				this.datagramChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -229,111 +666,318 @@ public class GameServer extends Thread {
 	 * Check if the server was created successfully
 	 */
 	public boolean isValid() {
-		return this.initialized && this.socket != null && !this.socket.isClosed();
+		return this.initialized && !closed && this.datagramChannel != null && this.datagramChannel.isOpen();
 	}
 
-	private void handleFire(Packet03Fire packet) {
-		if (getPlayerMP(packet.getUsername()) != null) {
-			int index = getPlayerMPIndex(packet.getUsername());
-			if (index >= 0 && index < this.connectedPlayers.size()) {
-				this.connectedPlayers.get(index).getBoundingBox().x = packet.getX();
-				this.connectedPlayers.get(index).getBoundingBox().y = packet.getY();
-				this.connectedPlayers.get(index).angle = packet.getAngle();
-				packet.writeData(this);
+	/**
+	 * @return true once a player reached the kills to win
+	 */
+	public boolean isGameOver() {
+		return gameOverSent;
+	}
+
+	public String getRoomName() {
+		return roomName;
+	}
+
+	/**
+	 * Name the server in the answers to LAN discovery
+	 */
+	public void setServerName(String serverName) {
+		this.serverName = serverName;
+	}
+
+	public String getMapName() {
+		return mapName;
+	}
+
+	public int getPlayerCount() {
+		return players.size();
+	}
+
+	/**
+	 * @return percent of the time spent ticking or relaying over the last
+	 *         GameConfig.LOAD_SAMPLE_MS
+	 */
+	public int getLoad() {
+		return load;
+	}
+
+	private void handleFire(Packet03Fire packet, InetSocketAddress from) {
+		PlayerMP plMP = getSender(packet.getId(), from);
+		if (plMP != null) {
+			if (!isAuthoritative() || plMP.inputSequence < 0) {
+				plMP.getBoundingBox().x = packet.getX();
+				plMP.getBoundingBox().y = packet.getY();
 			}
+			plMP.angle = packet.getAngle();
+			if (isAuthoritative()) {
+				// Check the shot against the targets where the shooter saw them:
+				// its last snapshot, minus the time it draws the others in the past
+				int viewTick = tick;
+				if (packet.getTick() >= 0)
+					viewTick = Math.max(packet.getTick() - packet.getDelay() * tickRate / 1000,
+							tick - plMP.history.getCapacity() + 1);
+				viewTick = Math.min(viewTick, tick);
+				int x = packet.getX(), y = packet.getY();
+				if (plMP.inputSequence >= 0) {
+					// The server moves this player, the shot leaves from where
+					// the server had it, the claimed position only within a
+					// small tolerance
+					if (plMP.history == null || !plMP.history.get(viewTick, shooterBox))
+						shooterBox.set(plMP.getBoundingBox());
+					x = (int) MathUtils.clamp(x, shooterBox.x - GameConfig.FIRE_ORIGIN_TOLERANCE,
+							shooterBox.x + GameConfig.FIRE_ORIGIN_TOLERANCE);
+					y = (int) MathUtils.clamp(y, shooterBox.y - GameConfig.FIRE_ORIGIN_TOLERANCE,
+							shooterBox.y + GameConfig.FIRE_ORIGIN_TOLERANCE);
+				}
+				// The bullets reach the other clients with the next snapshots
+				worldMP.fireBullet(plMP.getUsername(), x, y, packet.getAngle(), packet.getWeapon(), viewTick, tick,
+						1f / tickRate);
+			} else
+				sendShotToInterested(packet, plMP);
 		}
 	}
 
-	private void removeConnection(Packet01Disconnect packet) {
-		int index = getPlayerMPIndex(packet.getUsername());
-		if (index >= 0 && index < this.connectedPlayers.size()) {
-			this.connectedPlayers.remove(index);
-		}
+	/**
+	 * Forget a client that left or timed out, the disconnect is acked right
+	 * away when its channel is still there
+	 *
+	 * @param packet
+	 *            disconnect broadcast to the others, null if the client had
+	 *            no player
+	 */
+	private void disconnect(Packet01Disconnect packet, InetSocketAddress from) {
+		if (packet != null)
+			this.removeConnection(packet, from);
+		mapTransfer.remove(from);
+		ReliableChannel channel = channels.remove(from);
+		if (channel != null)
+			channel.update(resender, System.currentTimeMillis());
+		if (rooms != null)
+			rooms.leave(from);
+	}
+
+	/**
+	 * @param from
+	 *            endpoint the disconnect came from, its player leaves
+	 *            before the one named in the packet
+	 */
+	private void removeConnection(Packet01Disconnect packet, InetSocketAddress from) {
+		PlayerMP leaving = players.get(from);
+		if (leaving == null)
+			leaving = players.get(packet.getUsername());
+		if (leaving != null)
+			players.remove(leaving);
+		if (isAuthoritative())
+			worldMP.removePlayerMP(packet.getUsername());
 		packet.writeData(this);
 	}
 
-	private void handleMove(Packet02Move packet) {
-		if (getPlayerMP(packet.getUsername()) != null) {
-			int index = getPlayerMPIndex(packet.getUsername());
-			if (index >= 0 && index < this.connectedPlayers.size()) {
-				PlayerMP plMP = this.connectedPlayers.get(index);
+	private void handleMove(Packet02Move packet, InetSocketAddress from) {
+		PlayerMP plMP = getSender(packet.getId(), from);
+		if (plMP != null) {
+			// Once the client sends input frames the server moves the player
+			if (!isAuthoritative() || plMP.inputSequence < 0) {
 				plMP.getBoundingBox().x = packet.getX();
 				plMP.getBoundingBox().y = packet.getY();
-				plMP.angle = packet.getAngle();
-				plMP.state = packet.getState();
-				packet.writeData(this);
 			}
+			plMP.angle = packet.getAngle();
+			plMP.state = packet.getState();
+			plMP.setWeapon(packet.getWeapon());
+			if (isAuthoritative()) {
+				if (packet.getAck() > plMP.ackedTick)
+					plMP.ackedTick = packet.getAck();
+			} else
+				sendMoveToInterested(packet, plMP);
+		}
+	}
+
+	/**
+	 * Apply the movement frames not applied yet, in order, with the same
+	 * collisions the client predicted them with
+	 */
+	private void handleInput(Packet11Input packet, InetSocketAddress from) {
+		PlayerMP plMP = getSender(packet.getId(), from);
+		if (plMP == null || !isAuthoritative())
+			return;
+		plMP.angle = packet.getAngle();
+		plMP.state = packet.getState();
+		plMP.setWeapon(packet.getWeapon());
+		if (packet.getAck() > plMP.ackedTick)
+			plMP.ackedTick = packet.getAck();
+		// The frames may not add up to more time than really passed, plus a
+		// burst for the frames delayed by the network, the excess is cut
+		long now = System.currentTimeMillis();
+		plMP.inputBudget = Math.min(plMP.inputBudget + now - plMP.inputBudgetTime, GameConfig.INPUT_BURST_MS);
+		plMP.inputBudgetTime = now;
+		for (int i = 0; i < packet.getCount(); i++) {
+			int sequence = packet.getSequence(i);
+			if (sequence <= plMP.inputSequence)
+				continue;
+			int deltaMs = (int) Math.min(packet.getDeltaMs(i), plMP.inputBudget);
+			plMP.inputBudget -= deltaMs;
+			// The player of a hosting client is moved by its own world
+			if (plMP.world == worldMP && deltaMs > 0)
+				worldMP.applyInput(plMP, packet.getMoveX(i), packet.getMoveY(i), deltaMs);
+			plMP.inputSequence = sequence;
 		}
 	}
 
 	public void addConnection(PlayerMP player, Packet00Login packet) {
-		boolean alreadyConnected = false;
-		for (PlayerMP p : this.connectedPlayers) {
-			if (player.getUsername().equalsIgnoreCase(p.getUsername())) {
-				if (p.ipAddress == null)
-					p.ipAddress = player.ipAddress;
-				if (p.port == -1)
-					p.port = player.port;
-				alreadyConnected = true;
+		PlayerMP connected = players.get(player.getUsername());
+		if (connected != null) {
+			if (connected.ipAddress == null || connected.port == -1)
+				players.setAddress(connected, connected.ipAddress == null ? player.ipAddress : connected.ipAddress,
+						connected.port == -1 ? player.port : connected.port);
+		} else {
+			players.add(player);
+			if (isAuthoritative()) {
+				player.history = new BoxHistory(tickRate * GameConfig.LAG_COMPENSATION_MS / 1000 + 1);
+				worldMP.addEntity(player);
 			}
-			// Only send to players with valid address and port
-			if (p.ipAddress != null && p.port > 0) {
-				sendData(packet.getData(), p.ipAddress, p.port);
+			connected = player;
+		}
+		packet.setId(connected.id);
+		for (PlayerMP p : players) {
+			// Only send to players with valid address and port, the new player
+			// gets its own login back with the id given by the server
+			if (p.endpoint != null) {
+				sendData(packet, p.endpoint);
 			}
 
 			// Only send back if player has valid address and port
-			if (player.ipAddress != null && player.port > 0) {
-				Packet newPacket = new Packet00Login(p.getUsername(), (int) p.getBoundingBox().x, (int) p.getBoundingBox().y);
-				sendData(newPacket.getData(), player.ipAddress, player.port);
+			if (p != connected && player.endpoint != null) {
+				Packet newPacket = new Packet00Login(p.id, p.getUsername(), (int) p.getBoundingBox().x, (int) p.getBoundingBox().y);
+				sendData(newPacket, player.endpoint);
 			}
 		}
-		if (!alreadyConnected) {
-			this.connectedPlayers.add(player);
-		}
-
 	}
 
-	public void sendData(byte[] data, InetAddress ipAddress, int port) {
-		// Validate port and address before sending
-		if (ipAddress == null || port <= 0 || port > 65535) {
-			it.unical.igpe.utils.DebugUtils.showMessage("Skipping sendData to invalid address/port: " + ipAddress + ":" + port);
+	/**
+	 * Encode the packet and queue it for the next flush
+	 */
+	public synchronized void sendData(Packet packet, InetSocketAddress to) {
+		// Validate the endpoint before sending
+		if (to == null || to.getPort() <= 0) {
+			it.unical.igpe.utils.DebugUtils.showMessage("Skipping sendData to invalid endpoint: " + to);
 			return;
 		}
-		DatagramPacket packet = new DatagramPacket(data, data.length, ipAddress, port);
-		try {
-			socket.send(packet);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		sendBuffer.clear();
+		packet.write(sendBuffer, sequence++);
+		queue(packet, to);
 	}
 
-	public void sendDataToAllClients(byte[] data) {
-		for (PlayerMP p : connectedPlayers) {
+	/**
+	 * Encode the packet once and queue the same bytes for every client, only
+	 * the sequence and acks of the header change per client
+	 */
+	public synchronized void sendDataToAllClients(Packet packet) {
+		sendBuffer.clear();
+		packet.write(sendBuffer, sequence++);
+		for (PlayerMP p : players) {
 			// Only send to players with valid address and port
-			if (p.ipAddress != null && p.port > 0) {
-				sendData(data, p.ipAddress, p.port);
+			if (p.endpoint != null) {
+				queue(packet, p.endpoint);
 			}
 		}
 	}
 
-	public PlayerMP getPlayerMP(String username) {
-		for (PlayerMP player : this.connectedPlayers) {
-			if (player.getUsername().equalsIgnoreCase(username)) {
-				return player;
-			}
+	/**
+	 * Relay a move to the clients near the player, and to all of them once
+	 * every INTEREST_FAR_INTERVAL moves
+	 */
+	private synchronized void sendMoveToInterested(Packet packet, PlayerMP source) {
+		if (InterestManager.isFarUpdate(source.relayed++)) {
+			sendDataToAllClients(packet);
+			return;
+		}
+		sendBuffer.clear();
+		packet.write(sendBuffer, sequence++);
+		interest.near(source.getBoundingBox(), nearby);
+		for (int i = 0; i < nearby.size; i++) {
+			PlayerMP p = nearby.get(i);
+			if (p.endpoint != null)
+				queue(packet, p.endpoint);
+		}
+	}
+
+	/**
+	 * Relay a shot to the clients near the shooter and to the far ones it
+	 * can reach, each client decides the hits on its own player
+	 */
+	private synchronized void sendShotToInterested(Packet03Fire packet, PlayerMP shooter) {
+		sendBuffer.clear();
+		packet.write(sendBuffer, sequence++);
+		interest.near(shooter.getBoundingBox(), nearby);
+		for (PlayerMP p : players) {
+			if (p.endpoint == null)
+				continue;
+			if (nearby.contains(p, true)
+					|| InterestManager.inLineOfFire(p, packet.getX(), packet.getY(), packet.getAngle()))
+				queue(packet, p.endpoint);
 		}
-		return null;
 	}
 
-	public int getPlayerMPIndex(String username) {
-		int index = 0;
-		for (PlayerMP player : this.connectedPlayers) {
-			if (player.getUsername().equalsIgnoreCase(username)) {
-				return index;
+	private void queue(Packet packet, InetSocketAddress to) {
+		ReliableChannel channel = getChannel(to);
+		// A reliable packet over the window is sent later by the channel
+		if (channel.prepare(sendBuffer, sendBuffer.position(), packet.isReliable(), System.currentTimeMillis()))
+			queue(sendBuffer, sendBuffer.position(), channel);
+	}
+
+	/**
+	 * Copy the first bytes of the datagram to a pooled buffer queued for the
+	 * next flush
+	 */
+	private void queue(ByteBuffer datagram, int length, ReliableChannel to) {
+		ByteBuffer copy = buffers.obtain(length);
+		for (int i = 0; i < length; i++)
+			copy.put(datagram.get(i));
+		copy.flip();
+		outgoing.add(copy);
+		outgoingTo.add(to.getSocketAddress());
+	}
+
+	/**
+	 * Send the queued datagrams and give their buffers back to the pool
+	 */
+	private void flush() {
+		for (int i = 0; i < outgoing.size; i++) {
+			ByteBuffer datagram = outgoing.get(i);
+			try {
+				datagramChannel.send(datagram, outgoingTo.get(i));
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			index++;
+			buffers.free(datagram);
 		}
-		return -1;
+		outgoing.clear();
+		outgoingTo.clear();
+	}
+
+	/**
+	 * @return the player whose packets come from the endpoint, null if there
+	 *         is none or the packet names another session id
+	 */
+	private PlayerMP getSender(int id, InetSocketAddress from) {
+		PlayerMP player = players.get(from);
+		return player != null && player.id == id ? player : null;
+	}
+
+	public PlayerMP getPlayerMP(int id) {
+		return players.get(id);
+	}
+
+	public PlayerMP getPlayerMP(String username) {
+		return players.get(username);
+	}
+
+	/**
+	 * @return the player whose packets come from the endpoint, null if none
+	 */
+	public PlayerMP getPlayerMP(InetSocketAddress address) {
+		return players.get(address);
 	}
 	
 	/**
@@ -365,8 +1009,14 @@ public class GameServer extends Thread {
 			throw new IOException("Map file does not exist: " + mapPath);
 		}
 		
+		// Clients receive custom maps as text, a compiled map is converted
+		byte[] bytes = fileHandle.readBytes();
+		ByteBuffer data = ByteBuffer.wrap(bytes);
+		if (MapFormat.isCompiled(data))
+			return MapFormat.toText(MapFormat.read(data, null));
+
 		// Read entire file content
-		BufferedReader br = new BufferedReader(fileHandle.reader());
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), "UTF-8"));
 		StringBuilder content = new StringBuilder();
 		String line;
 		while ((line = br.readLine()) != null) {
@@ -379,4 +1029,12 @@ public class GameServer extends Thread {
 		
 		return content.toString();
 	}
+
+	/**
+	 * Decoded packet and its sender, reused through the free queue
+	 */
+	private static class Inbound {
+		Packet packet;
+		InetSocketAddress from;
+	}
 }
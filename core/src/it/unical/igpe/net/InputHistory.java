@@ -0,0 +1,70 @@
+package it.unical.igpe.net;
+
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Movement frames of the local player the server has not applied yet, oldest
+ * first. They are sent again with every input packet and replayed over each
+ * position the server sends back. Frames are quantized as the server reads
+ * them: movement in hundredths of the speed on each axis, time in
+ * milliseconds.
+ */
+public class InputHistory {
+	private final int[] sequence = new int[GameConfig.INPUT_HISTORY];
+	private final int[] moveX = new int[GameConfig.INPUT_HISTORY];
+	private final int[] moveY = new int[GameConfig.INPUT_HISTORY];
+	private final int[] deltaMs = new int[GameConfig.INPUT_HISTORY];
+	private int first, size, next;
+
+	/**
+	 * Record a frame, dropping the oldest when the history is full
+	 *
+	 * @return the sequence of the frame
+	 */
+	public int add(int moveX, int moveY, int deltaMs) {
+		if (size == sequence.length) {
+			first = (first + 1) % sequence.length;
+			size--;
+		}
+		int slot = (first + size) % sequence.length;
+		this.sequence[slot] = next;
+		this.moveX[slot] = moveX;
+		this.moveY[slot] = moveY;
+		this.deltaMs[slot] = deltaMs;
+		size++;
+		return next++;
+	}
+
+	/**
+	 * Forget the frames up to the one the server applied last
+	 */
+	public void acknowledge(int applied) {
+		while (size > 0 && sequence[first] <= applied) {
+			first = (first + 1) % sequence.length;
+			size--;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the sequence of the newest frame, -1 before the first
+	 */
+	public int getLastSequence() {
+		return next - 1;
+	}
+
+	public int getMoveX(int index) {
+		return moveX[(first + index) % sequence.length];
+	}
+
+	public int getMoveY(int index) {
+		return moveY[(first + index) % sequence.length];
+	}
+
+	public int getDeltaMs(int index) {
+		return deltaMs[(first + index) % sequence.length];
+	}
+}
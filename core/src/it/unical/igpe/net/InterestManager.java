@@ -0,0 +1,114 @@
+package it.unical.igpe.net;
+
+import java.util.List;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntSet;
+
+import it.unical.igpe.logic.SpatialHash;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Decides which clients of a server get which updates. Players are bucketed
+ * in a grid by position, so the clients near an update are found by looking
+ * at a few cells instead of at every player. Clients far from an entity
+ * still get its updates, once every GameConfig.INTEREST_FAR_INTERVAL.
+ */
+public class InterestManager {
+	private final SpatialHash<PlayerMP> grid = new SpatialHash<PlayerMP>(GameConfig.INTEREST_CELL);
+	private final Rectangle area = new Rectangle();
+	private final Array<PlayerMP> nearby = new Array<PlayerMP>(false, 16);
+	private final IntSet nearIds = new IntSet();
+
+	/**
+	 * Bucket the players by their current position, call once per tick or
+	 * batch of packets
+	 */
+	public void update(List<PlayerMP> players) {
+		grid.clear();
+		for (int i = 0; i < players.size(); i++)
+			grid.insert(players.get(i));
+	}
+
+	/**
+	 * Collects into out the players within GameConfig.INTEREST_RADIUS of the
+	 * box
+	 *
+	 * @return out
+	 */
+	public Array<PlayerMP> near(Rectangle box, Array<PlayerMP> out) {
+		setArea(box);
+		grid.query(area, out);
+		for (int i = out.size - 1; i >= 0; i--)
+			if (!area.overlaps(out.get(i).getBoundingBox()))
+				out.removeIndex(i);
+		return out;
+	}
+
+	/**
+	 * @param updates
+	 *            updates of the entity so far
+	 * @return true if this update also goes to the clients far from the
+	 *         entity
+	 */
+	public static boolean isFarUpdate(int updates) {
+		return updates % GameConfig.INTEREST_FAR_INTERVAL == 0;
+	}
+
+	/**
+	 * A far client only cares about a shot that can reach it: it is in front
+	 * of the shooter, inside a cone that widens as far as the target can walk
+	 * while the bullet flies
+	 *
+	 * @param angle
+	 *            aim of the shooter in degrees, as in Packet03Fire
+	 */
+	public static boolean inLineOfFire(PlayerMP target, float x, float y, float angle) {
+		Rectangle box = target.getBoundingBox();
+		float dx = box.x - x, dy = box.y - y;
+		double aim = Math.toRadians(angle + 90f);
+		float cos = (float) Math.cos(aim), sin = (float) Math.sin(aim);
+		float along = dx * cos + dy * sin;
+		float across = Math.abs(dx * sin - dy * cos);
+		if (along < -GameConfig.TILEDIM)
+			return false;
+		// Shotgun pellets spread 10 degrees, tan(10) is about 0.18
+		float widening = (float) GameConfig.MOVESPEED / GameConfig.BULLETSPEED + 0.18f;
+		return across <= GameConfig.TILEDIM * 2 + Math.max(along, 0) * widening;
+	}
+
+	/**
+	 * Build the snapshot a client receives: the players near it as in the
+	 * full frame, the far ones as it last saw them unless refreshFar, and
+	 * only the bullets near it
+	 *
+	 * @param previous
+	 *            last snapshot sent to the client, null if none
+	 */
+	public void view(WorldSnapshot full, PlayerMP viewer, WorldSnapshot previous, boolean refreshFar,
+			WorldSnapshot out) {
+		near(viewer.getBoundingBox(), nearby);
+		nearIds.clear();
+		for (int i = 0; i < nearby.size; i++)
+			nearIds.add(nearby.get(i).id);
+		out.clear(full.tick);
+		for (int i = 0; i < full.players; i++) {
+			int id = full.ids[i];
+			int p = previous == null ? -1 : previous.indexOfPlayer(id);
+			if (p < 0 || refreshFar || id == viewer.id || nearIds.contains(id))
+				out.copyPlayer(full, i);
+			else
+				out.copyPlayer(previous, p);
+		}
+		for (int i = 0; i < full.bullets; i++)
+			if (area.contains(full.bulletX[i], full.bulletY[i]))
+				out.addBullet(full.bulletIds[i], full.bulletX[i], full.bulletY[i], full.bulletAngle[i],
+						full.bulletOwners[i], full.bulletDamage[i]);
+	}
+
+	private void setArea(Rectangle box) {
+		int radius = GameConfig.INTEREST_RADIUS;
+		area.set(box.x - radius, box.y - radius, box.width + radius * 2, box.height + radius * 2);
+	}
+}
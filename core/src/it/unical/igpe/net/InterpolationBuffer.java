@@ -0,0 +1,89 @@
+package it.unical.igpe.net;
+
+import com.badlogic.gdx.math.MathUtils;
+
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Last positions received for a remote player with the time they arrived.
+ * The renderer samples it a little in the past, between two received states,
+ * so irregular packets do not make the player jump; when packets are late it
+ * keeps the last velocity for a short time. Written by the receiving thread,
+ * read by the render thread.
+ */
+public class InterpolationBuffer {
+	private final long[] time = new long[GameConfig.INTERPOLATION_STATES];
+	private final float[] x = new float[GameConfig.INTERPOLATION_STATES];
+	private final float[] y = new float[GameConfig.INTERPOLATION_STATES];
+	private final float[] angle = new float[GameConfig.INTERPOLATION_STATES];
+	private int newest = -1, size;
+
+	/** Result of the last sample */
+	public float sampleX, sampleY, sampleAngle;
+
+	/**
+	 * Add the state received at the given time. A jump longer than
+	 * TELEPORT_DISTANCE, like a respawn, clears the older states so the
+	 * player is not slid across the map.
+	 */
+	public synchronized void add(long now, float x, float y, float angle) {
+		if (size > 0) {
+			if (now < time[newest])
+				return;
+			if (Math.abs(x - this.x[newest]) > GameConfig.TELEPORT_DISTANCE
+					|| Math.abs(y - this.y[newest]) > GameConfig.TELEPORT_DISTANCE)
+				size = 0;
+		}
+		newest = (newest + 1) % time.length;
+		time[newest] = now;
+		this.x[newest] = x;
+		this.y[newest] = y;
+		this.angle[newest] = angle;
+		if (size < time.length)
+			size++;
+	}
+
+	/**
+	 * Compute the state at the given time into sampleX, sampleY and
+	 * sampleAngle
+	 *
+	 * @return false if no state was received yet
+	 */
+	public synchronized boolean sample(long at) {
+		if (size == 0)
+			return false;
+		int after = newest;
+		if (at >= time[after]) {
+			// Late packets: go on with the last velocity for a while, then wait
+			sampleX = x[after];
+			sampleY = y[after];
+			sampleAngle = angle[after];
+			if (size > 1) {
+				int before = (after - 1 + time.length) % time.length;
+				long span = time[after] - time[before];
+				if (span > 0) {
+					float ahead = Math.min(at - time[after], GameConfig.EXTRAPOLATION_MS) / (float) span;
+					sampleX += (x[after] - x[before]) * ahead;
+					sampleY += (y[after] - y[before]) * ahead;
+				}
+			}
+			return true;
+		}
+		for (int n = 1; n < size; n++) {
+			int before = (after - 1 + time.length) % time.length;
+			if (time[before] <= at) {
+				float alpha = (at - time[before]) / (float) (time[after] - time[before]);
+				sampleX = MathUtils.lerp(x[before], x[after], alpha);
+				sampleY = MathUtils.lerp(y[before], y[after], alpha);
+				sampleAngle = MathUtils.lerpAngleDeg(angle[before], angle[after], alpha);
+				return true;
+			}
+			after = before;
+		}
+		// Older than everything kept
+		sampleX = x[after];
+		sampleY = y[after];
+		sampleAngle = angle[after];
+		return true;
+	}
+}
@@ -0,0 +1,128 @@
+package it.unical.igpe.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import it.unical.igpe.net.packet.Packet;
+
+/**
+ * Loopback proxy between a client and the server that delays and drops
+ * datagrams in both directions, to try prediction and reliability on one
+ * machine. The client sends to getPort() on the loopback address instead of
+ * the server.
+ */
+public class LagSimulator extends Thread {
+	private final DatagramSocket socket;
+	private final InetAddress serverAddress;
+	private final int serverPort;
+	private volatile InetAddress clientAddress;
+	private volatile int clientPort = -1;
+	private final int latency, jitter;
+	private final float loss;
+	private final Random random = new Random();
+	private final DelayQueue<Datagram> queue = new DelayQueue<Datagram>();
+
+	/**
+	 * @param latency
+	 *            delay of each direction in milliseconds
+	 * @param jitter
+	 *            most milliseconds added at random to the delay
+	 * @param loss
+	 *            chance of dropping each datagram, from 0 to 1
+	 */
+	public LagSimulator(InetAddress serverAddress, int serverPort, int latency, int jitter, float loss)
+			throws SocketException {
+		super("LagSimulator");
+		this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		this.serverAddress = serverAddress;
+		this.serverPort = serverPort;
+		this.latency = latency;
+		this.jitter = jitter;
+		this.loss = loss;
+		setDaemon(true);
+	}
+
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+
+	public void run() {
+		Thread sender = new Thread("LagSimulator send") {
+			public void run() {
+				while (!socket.isClosed()) {
+					try {
+						Datagram datagram = queue.take();
+						socket.send(new DatagramPacket(datagram.data, datagram.data.length, datagram.address, datagram.port));
+					} catch (InterruptedException e) {
+						return;
+					} catch (IOException e) {
+						// Closed or unreachable, the datagram is lost
+					}
+				}
+			}
+		};
+		sender.setDaemon(true);
+		sender.start();
+
+		byte[] data = new byte[Packet.MAX_SIZE];
+		DatagramPacket packet = new DatagramPacket(data, data.length);
+		while (!socket.isClosed()) {
+			packet.setLength(data.length);
+			try {
+				socket.receive(packet);
+			} catch (IOException e) {
+				break;
+			}
+			boolean fromServer = packet.getPort() == serverPort && packet.getAddress().equals(serverAddress);
+			if (!fromServer) {
+				clientAddress = packet.getAddress();
+				clientPort = packet.getPort();
+			}
+			if (random.nextFloat() < loss || (fromServer && clientPort < 0))
+				continue;
+			byte[] copy = new byte[packet.getLength()];
+			System.arraycopy(data, 0, copy, 0, copy.length);
+			long delay = latency + (jitter > 0 ? random.nextInt(jitter + 1) : 0);
+			queue.add(new Datagram(copy, fromServer ? clientAddress : serverAddress, fromServer ? clientPort : serverPort,
+					System.nanoTime() + delay * 1000000L));
+		}
+		sender.interrupt();
+	}
+
+	public void close() {
+		socket.close();
+	}
+
+	private static class Datagram implements Delayed {
+		final byte[] data;
+		final InetAddress address;
+		final int port;
+		final long sendAt;
+
+		Datagram(byte[] data, InetAddress address, int port, long sendAt) {
+			this.data = data;
+			this.address = address;
+			this.port = port;
+			this.sendAt = sendAt;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(sendAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			long difference = sendAt - ((Datagram) other).sendAt;
+			return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package it.unical.igpe.net;
+
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+
+import it.unical.igpe.net.packet.Packet06MapData;
+import it.unical.igpe.net.packet.Packet09MapAck;
+
+/**
+ * Chunks of a custom map received by the client. The download survives a
+ * repeated offer of the same map, so only the missing chunks are sent again,
+ * and a complete map is kept in a local cache keyed by its checksum.
+ */
+public class MapDownload {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String CACHE_DIR = "mapcache/";
+
+	private final String mapName;
+	private final int hash, length;
+	private final byte[][] chunks;
+	private final boolean[] received;
+	private int count;
+
+	public MapDownload(Packet06MapData offer) {
+		this.mapName = offer.getMapName();
+		this.hash = offer.getHash();
+		this.length = offer.getLength();
+		this.chunks = new byte[offer.getChunks()][];
+		this.received = new boolean[chunks.length];
+	}
+
+	/**
+	 * @return true if the offer is for the map being downloaded
+	 */
+	public boolean matches(Packet06MapData offer) {
+		return offer.getHash() == hash && offer.getLength() == length && offer.getChunks() == chunks.length;
+	}
+
+	public int getHash() {
+		return hash;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public String getMapName() {
+		return mapName;
+	}
+
+	public void add(int index, byte[] data) {
+		if (index >= chunks.length || received[index])
+			return;
+		chunks[index] = data;
+		received[index] = true;
+		count++;
+	}
+
+	public boolean isComplete() {
+		return count == chunks.length;
+	}
+
+	public Packet09MapAck getAck() {
+		return new Packet09MapAck(hash, chunks.length, received);
+	}
+
+	/**
+	 * Inflate the chunks and check the content against the checksum of the
+	 * offer. On a mismatch every chunk is dropped and downloaded again.
+	 *
+	 * @return the map content, null if it is corrupt
+	 */
+	public String getContent() {
+		int size = 0;
+		for (byte[] chunk : chunks)
+			size += chunk.length;
+		byte[] compressed = new byte[size];
+		int offset = 0;
+		for (byte[] chunk : chunks) {
+			System.arraycopy(chunk, 0, compressed, offset, chunk.length);
+			offset += chunk.length;
+		}
+		byte[] bytes = new byte[length];
+		Inflater inflater = new Inflater();
+		inflater.setInput(compressed);
+		try {
+			int n = 0;
+			while (n < length && !inflater.finished()) {
+				int read = inflater.inflate(bytes, n, length - n);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += read;
+			}
+			if (n == length && inflater.finished() && MapTransfer.hash(bytes) == hash)
+				return new String(bytes, UTF8);
+		} catch (DataFormatException e) {
+			it.unical.igpe.utils.DebugUtils.showError("Corrupt map data for " + mapName, e);
+		} finally {
+			inflater.end();
+		}
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = null;
+			received[i] = false;
+		}
+		count = 0;
+		return null;
+	}
+
+	/**
+	 * @return the content of a map received before, null if not cached
+	 */
+	public static String loadCached(int hash, int length) {
+		try {
+			FileHandle file = cacheFile(hash, length);
+			if (!file.exists())
+				return null;
+			byte[] bytes = file.readBytes();
+			if (bytes.length != length || MapTransfer.hash(bytes) != hash)
+				return null;
+			return new String(bytes, UTF8);
+		} catch (Exception e) {
+			it.unical.igpe.utils.DebugUtils.showError("Cannot read cached map", e);
+			return null;
+		}
+	}
+
+	public static void saveCached(int hash, int length, String content) {
+		try {
+			cacheFile(hash, length).writeBytes(content.getBytes(UTF8), false);
+		} catch (Exception e) {
+			it.unical.igpe.utils.DebugUtils.showError("Cannot cache map", e);
+		}
+	}
+
+	private static FileHandle cacheFile(int hash, int length) {
+		return Gdx.files.local(CACHE_DIR + Integer.toHexString(hash) + "_" + length + ".map");
+	}
+}
@@ -0,0 +1,168 @@
+package it.unical.igpe.net;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.badlogic.gdx.utils.ByteArray;
+
+import it.unical.igpe.net.packet.Packet06MapData;
+import it.unical.igpe.net.packet.Packet08MapChunk;
+import it.unical.igpe.net.packet.Packet09MapAck;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Map offered by the server to every client that joins. Custom map content
+ * is compressed once and sent in numbered chunks, a few at a time; each
+ * client acknowledges the chunks it holds and the chunks not acknowledged in
+ * time are sent again. The offer itself is repeated until the client answers.
+ */
+public class MapTransfer {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Packet06MapData offer;
+	private final Packet08MapChunk chunk = new Packet08MapChunk();
+	private final int hash;
+	private final byte[] data;
+	private final int chunks;
+	private final List<Receiver> receivers = new ArrayList<Receiver>();
+
+	/**
+	 * @param content
+	 *            null when the clients load the map from their assets
+	 */
+	public MapTransfer(String mapName, String content) {
+		if (content == null || content.isEmpty()) {
+			offer = new Packet06MapData(mapName);
+			hash = 0;
+			data = new byte[0];
+			chunks = 0;
+			return;
+		}
+		byte[] bytes = content.getBytes(UTF8);
+		if (bytes.length > GameConfig.MAP_MAX_BYTES)
+			it.unical.igpe.utils.DebugUtils.showError("Map " + mapName + " is over " + GameConfig.MAP_MAX_BYTES
+					+ " bytes, clients will refuse it");
+		hash = hash(bytes);
+		data = compress(bytes);
+		chunks = (data.length + GameConfig.MAP_CHUNK_SIZE - 1) / GameConfig.MAP_CHUNK_SIZE;
+		offer = new Packet06MapData(mapName, hash, bytes.length, chunks);
+		it.unical.igpe.utils.DebugUtils.showMessage("Map " + mapName + " compressed from " + bytes.length + " to "
+				+ data.length + " bytes in " + chunks + " chunks");
+	}
+
+	/**
+	 * Offer the map to a client, replacing a transfer already running for it
+	 */
+	public void start(InetSocketAddress endpoint) {
+		remove(endpoint);
+		receivers.add(new Receiver(endpoint, chunks));
+	}
+
+	public void remove(InetSocketAddress endpoint) {
+		Receiver r = find(endpoint);
+		if (r != null)
+			receivers.remove(r);
+	}
+
+	public void acknowledge(Packet09MapAck packet, InetSocketAddress endpoint) {
+		Receiver r = find(endpoint);
+		if (r == null || packet.getHash() != hash || packet.getChunks() != chunks)
+			return;
+		r.offered = true;
+		r.lastProgress = System.currentTimeMillis();
+		for (int i = 0; i < chunks; i++)
+			if (packet.isReceived(i))
+				r.acked[i] = true;
+	}
+
+	/**
+	 * Send the offers and chunks that are due, drop the clients that got the
+	 * whole map or stopped answering
+	 */
+	public void update(GameServer server, long now) {
+		for (int n = receivers.size() - 1; n >= 0; n--) {
+			Receiver r = receivers.get(n);
+			if (now - r.lastProgress > GameConfig.MAP_TRANSFER_TIMEOUT_MS) {
+				it.unical.igpe.utils.DebugUtils.showMessage("Map transfer to " + r.endpoint + " timed out");
+				receivers.remove(n);
+				continue;
+			}
+			if (!r.offered) {
+				if (now - r.offerSentAt >= GameConfig.MAP_RESEND_MS) {
+					server.sendData(offer, r.endpoint);
+					r.offerSentAt = now;
+				}
+				continue;
+			}
+			int inFlight = 0;
+			boolean done = true;
+			for (int i = 0; i < chunks && inFlight < GameConfig.MAP_CHUNK_WINDOW; i++) {
+				if (r.acked[i])
+					continue;
+				done = false;
+				inFlight++;
+				if (r.sentAt[i] == 0 || now - r.sentAt[i] >= GameConfig.MAP_RESEND_MS) {
+					int offset = i * GameConfig.MAP_CHUNK_SIZE;
+					chunk.set(hash, i, data, offset, Math.min(GameConfig.MAP_CHUNK_SIZE, data.length - offset));
+					server.sendData(chunk, r.endpoint);
+					r.sentAt[i] = now;
+				}
+			}
+			if (done)
+				receivers.remove(n);
+		}
+	}
+
+	public boolean isIdle() {
+		return receivers.isEmpty();
+	}
+
+	private Receiver find(InetSocketAddress endpoint) {
+		for (Receiver r : receivers)
+			if (r.endpoint.equals(endpoint))
+				return r;
+		return null;
+	}
+
+	/**
+	 * @return CRC32 of the map content, used as its checksum and cache key
+	 */
+	public static int hash(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return (int) crc.getValue();
+	}
+
+	private static byte[] compress(byte[] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		deflater.setInput(bytes);
+		deflater.finish();
+		ByteArray out = new ByteArray(bytes.length / 4 + 64);
+		byte[] buffer = new byte[4096];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buffer);
+			out.addAll(buffer, 0, n);
+		}
+		deflater.end();
+		return out.toArray();
+	}
+
+	private static class Receiver {
+		final InetSocketAddress endpoint;
+		final boolean[] acked;
+		final long[] sentAt;
+		boolean offered;
+		long offerSentAt;
+		long lastProgress = System.currentTimeMillis();
+
+		Receiver(InetSocketAddress endpoint, int chunks) {
+			this.endpoint = endpoint;
+			this.acked = new boolean[chunks];
+			this.sentAt = new long[chunks];
+		}
+	}
+}
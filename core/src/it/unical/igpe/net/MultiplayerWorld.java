@@ -1,24 +1,29 @@
 package it.unical.igpe.net;
 
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Rectangle;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Random;
 
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
 
+import it.unical.igpe.MapUtils.MapData;
+import it.unical.igpe.MapUtils.TileGrid;
 import it.unical.igpe.MapUtils.WorldLoader;
 import it.unical.igpe.game.IGPEGame;
 import it.unical.igpe.logic.AbstractDynamicObject;
-import it.unical.igpe.logic.Bullet;
+import it.unical.igpe.logic.BulletPool;
 import it.unical.igpe.logic.Lootable;
 import it.unical.igpe.logic.Player;
+import it.unical.igpe.logic.SpatialHash;
 import it.unical.igpe.logic.Tile;
 import it.unical.igpe.net.packet.Packet00Login;
 import it.unical.igpe.net.packet.Packet04Death;
+import it.unical.igpe.net.packet.Packet07Snapshot;
 import it.unical.igpe.net.screens.MultiplayerOverScreen;
 import it.unical.igpe.utils.DebugUtils;
 import it.unical.igpe.utils.GameConfig;
@@ -30,17 +35,38 @@ public class MultiplayerWorld implements Updatable {
 	public static String serverMapName = "arena.map"; // Default, will be set by server
 	public static String serverMapContent = null; // Map content received from server
 	public boolean gameOver = false;
-	public static int keyCollected;
+	public int keyCollected;
 	public PlayerMP player;
 	public List<AbstractDynamicObject> entities;
 
-	private LinkedList<Bullet> bls;
-	private static LinkedList<Tile> tiles;
-	private static LinkedList<Lootable> lootables;
-	private static LinkedList<Vector2> spawnPoints;
+	private BulletPool bullets;
+	private LinkedList<Tile> tiles;
+	private TileGrid grid;
+	private LinkedList<Lootable> lootables;
+	private LinkedList<Vector2> spawnPoints;
+	private final Random random = new Random();
 	public Vector2 dir;
 	private WorldLoader manager;
+	private SpatialHash<PlayerMP> playerHash = new SpatialHash<PlayerMP>(GameConfig.TILEDIM * 2);
+	private Array<PlayerMP> candidates = new Array<PlayerMP>();
+	private final Vector2 shotPos = new Vector2();
+	private final Rectangle rewound = new Rectangle();
 	public boolean isServer = false;
+	/** Server running this world at a fixed tick, null on clients */
+	public GameServer server;
+	/** Set on clients once snapshots arrive, hits and scores then come from the server */
+	public boolean authoritative = false;
+	/** Last ticks received from the server, the bases of the next snapshots */
+	private final WorldSnapshot[] snapshots = new WorldSnapshot[GameConfig.SNAPSHOT_HISTORY];
+	/** State of the world after the last snapshot applied */
+	private final WorldSnapshot applied = new WorldSnapshot();
+	private int snapshotTick = -1;
+	/** Movement of the local player not applied by the server yet */
+	private final InputHistory inputs = new InputHistory();
+	private final Rectangle moveBox = new Rectangle();
+	/** Position of the local player in the last snapshot, to reconcile on the render thread */
+	private boolean reconcile;
+	private int serverX, serverY, serverInput;
 
 	public MultiplayerWorld(String path, boolean isServer) {
 		this(path, null, isServer);
@@ -48,9 +74,8 @@ public class MultiplayerWorld implements Updatable {
 	
 	public MultiplayerWorld(String path, String mapContent, boolean isServer) {
 		this.isServer = isServer;
-		tiles = new LinkedList<Tile>();
 		lootables = new LinkedList<Lootable>();
-		bls = new LinkedList<Bullet>();
+		bullets = new BulletPool();
 		entities = new ArrayList<AbstractDynamicObject>();
 		spawnPoints = new LinkedList<Vector2>();
 		keyCollected = 0;
@@ -74,27 +99,14 @@ public class MultiplayerWorld implements Updatable {
 			throw new RuntimeException("Failed to load map: " + path, e);
 		}
 
-		for (int x = 0; x < manager.map.length; x++)
-			for (int y = 0; y < manager.map.length; y++) {
-				if (manager.map[x][y] == 0)
-					tiles.add(new Tile(new Vector2(x * 64, y * 64), TileType.GROUND));
-				else if (manager.map[x][y] == 1)
-					tiles.add(new Tile(new Vector2(x * 64, y * 64), TileType.WALL));
-				else if (manager.map[x][y] == 17) {
-					tiles.add(new Tile(new Vector2(x * 64, y * 64), TileType.GROUND));
-					spawnPoints.add(new Vector2(x, y));
-				} else if (manager.map[x][y] == 12) // Box
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.BOX));
-				else if (manager.map[x][y] == 13) { // Barrel
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.BARREL));
-				} else if (manager.map[x][y] == 14) { // Cactus
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.CACTUS));
-				} else if (manager.map[x][y] == 15) { // Plant
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.PLANT));
-				} else if (manager.map[x][y] == 16) { // Logs
-					tiles.add(new Tile(new Vector2(x * GameConfig.TILEDIM, y * GameConfig.TILEDIM), TileType.LOGS));
-				}
-			}
+		// The tiles and the grid are shared with the other worlds on this map
+		MapData data = manager.data;
+		tiles = data.getTiles(true);
+		for (int i = 0; i < data.spawns.size; i++) {
+			int cell = data.spawns.get(i);
+			spawnPoints.add(new Vector2(cell / data.height, cell % data.height));
+		}
+		grid = data.getGrid(true);
 
 		if (!isServer) {
 			try {
@@ -121,11 +133,15 @@ public class MultiplayerWorld implements Updatable {
 		}
 	}
 
-	public static Vector2 randomSpawn() {
-		return spawnPoints.get(new Random().nextInt(spawnPoints.size()));
+	public Vector2 randomSpawn() {
+		return spawnPoints.get(random.nextInt(spawnPoints.size()));
 	}
 
 	public void update(float delta) {
+		if (isServer) {
+			updateServer(delta);
+			return;
+		}
 
 		player.state = Player.STATE_IDLE;
 
@@ -136,42 +152,49 @@ public class MultiplayerWorld implements Updatable {
 
 		String Killer = null;
 		// Bullet collisions
-		synchronized (bls) {
-			if (!bls.isEmpty()) {
-				boolean removed = false;
-				ListIterator<Bullet> it = bls.listIterator();
-				while (it.hasNext()) {
-					ListIterator<AbstractDynamicObject> iter = entities.listIterator();
-					Bullet b = it.next();
-					b.update(delta);
+		synchronized (bullets) {
+			if (!bullets.isEmpty()) {
+				playerHash.clear();
+				for (AbstractDynamicObject o : entities)
+					if (o instanceof PlayerMP && o.Alive())
+						playerHash.insert((PlayerMP) o);
+
+				// Walk backwards so a swap-removed slot is always already updated
+				for (int i = bullets.size - 1; i >= 0; i--) {
+					bullets.update(i, delta);
 
 					// Skip collision for first 0.1 seconds
-					if (b.getLifetime() < 0.1f) {
+					if (bullets.lifetime[i] < 0.1f) {
 						continue;
 					}
 
-					while (iter.hasNext()) {
-						PlayerMP a = (PlayerMP) iter.next();
-						if (!b.getID().equalsIgnoreCase(((PlayerMP) a).getUsername())
-								&& b.getBoundingBox().overlaps(a.getBoundingBox()) && a.Alive()) {
-							it.remove();
-							removed = true;
-							if (a.getUsername() == this.player.getUsername()) {
-								this.player.hit(b.getHP());
-								Killer = b.getID();
+					Rectangle box = bullets.getBoundingBox(i);
+					String shooter = bullets.ownerName(bullets.owner[i]);
+					boolean removed = false;
+					playerHash.query(box, candidates);
+					for (int j = 0; j < candidates.size; j++) {
+						PlayerMP a = candidates.get(j);
+						if (!shooter.equalsIgnoreCase(a.getUsername()) && box.overlaps(a.getBoundingBox())
+								&& a.Alive()) {
+							if (a.getUsername() == this.player.getUsername() && !authoritative) {
+								this.player.hit(bullets.damage[i]);
+								Killer = shooter;
 							}
+							bullets.remove(i);
+							removed = true;
+							break;
 						}
 					}
 					if (removed)
 						continue;
-					TileType tmp = getNextTile(b.getBoundingBox());
-					if (tmp == TileType.WALL)
-						it.remove();
+					TileType tmp = getNextTile(box);
+					if (tmp == TileType.WALL || !grid.contains(box.x, box.y))
+						bullets.remove(i);
 				}
 			}
 		}
 
-		if (this.player.getHP() <= 0) {
+		if (this.player.getHP() <= 0 && !authoritative) {
 			Packet04Death packet = new Packet04Death(Killer, this.player.getUsername());
 			packet.writeData(IGPEGame.game.socketClient);
 
@@ -183,18 +206,296 @@ public class MultiplayerWorld implements Updatable {
 		}
 	}
 
-	public static TileType getNextTile(Rectangle _box) {
-		for (Tile tile : tiles) {
-			if (Math.sqrt(Math.pow((_box.x - tile.getBoundingBox().x), 2)
-					+ Math.pow(_box.y - tile.getBoundingBox().y, 2)) < 128) {
-				if (tile.getType() != TileType.GROUND && tile.getType() != TileType.ENDLEVEL
-						&& _box.overlaps(tile.getBoundingBox()))
-					return TileType.WALL;
-				else if (tile.getType() == TileType.ENDLEVEL && _box.overlaps(tile.getBoundingBox()))
-					return TileType.ENDLEVEL;
+	/**
+	 * One tick of the authoritative server: move the bullets, apply the hits
+	 * to every player and report the deaths to all clients
+	 */
+	private void updateServer(float delta) {
+		synchronized (bullets) {
+			if (bullets.isEmpty())
+				return;
+			playerHash.clear();
+			for (AbstractDynamicObject o : entities)
+				if (o instanceof PlayerMP && o.Alive())
+					playerHash.insert((PlayerMP) o);
+
+			// Walk backwards so a swap-removed slot is always already updated
+			for (int i = bullets.size - 1; i >= 0; i--) {
+				bullets.update(i, delta);
+				if (bullets.lifetime[i] < 0.1f)
+					continue;
+
+				Rectangle box = bullets.getBoundingBox(i);
+				String shooter = bullets.ownerName(bullets.owner[i]);
+				boolean removed = false;
+				playerHash.query(box, candidates);
+				for (int j = 0; j < candidates.size; j++) {
+					PlayerMP a = candidates.get(j);
+					if (!shooter.equalsIgnoreCase(a.getUsername()) && box.overlaps(a.getBoundingBox())
+							&& a.getHP() > 0) {
+						hit(i, shooter, a);
+						removed = true;
+						break;
+					}
+				}
+				if (removed)
+					continue;
+				TileType tmp = getNextTile(box);
+				if (tmp == TileType.WALL || !grid.contains(box.x, box.y))
+					bullets.remove(i);
+			}
+		}
+	}
+
+	private void hit(int bullet, String shooter, PlayerMP target) {
+		target.hit(bullets.damage[bullet]);
+		if (target.getHP() <= 0)
+			killPlayer(shooter, target);
+		bullets.remove(bullet);
+	}
+
+	/**
+	 * Fire on an authoritative server for a shooter that saw the world at an
+	 * older tick: the new bullets fly through the ticks since then against
+	 * the players where they were at each of those ticks, and the ones left
+	 * go on from the current tick
+	 */
+	public void fireBullet(String username, int x, int y, float angle, int weapon, int fromTick, int toTick,
+			float tickDelta) {
+		synchronized (bullets) {
+			int first = bullets.size;
+			fireBullet(username, x, y, angle, weapon);
+			// Walk backwards so a swap-removed slot is always already caught up
+			for (int i = bullets.size - 1; i >= first; i--)
+				catchUp(i, fromTick, toTick, tickDelta);
+		}
+	}
+
+	private void catchUp(int i, int fromTick, int toTick, float tickDelta) {
+		String shooter = bullets.ownerName(bullets.owner[i]);
+		for (int t = fromTick + 1; t <= toTick; t++) {
+			bullets.update(i, tickDelta);
+			if (bullets.lifetime[i] < 0.1f)
+				continue;
+			Rectangle box = bullets.getBoundingBox(i);
+			for (AbstractDynamicObject o : entities) {
+				if (!(o instanceof PlayerMP))
+					continue;
+				PlayerMP a = (PlayerMP) o;
+				if (a.history != null && a.getHP() > 0 && !shooter.equalsIgnoreCase(a.getUsername())
+						&& a.history.get(t, rewound) && box.overlaps(rewound)) {
+					hit(i, shooter, a);
+					return;
+				}
+			}
+			if (getNextTile(box) == TileType.WALL || !grid.contains(box.x, box.y)) {
+				bullets.remove(i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Count the kill and restore the killed player, the client respawns
+	 * itself when the death packet arrives
+	 */
+	private void killPlayer(String killer, PlayerMP killed) {
+		int index = getPlayerMPIndex(killer);
+		if (index >= 0)
+			((PlayerMP) entities.get(index)).kills++;
+		killed.deaths++;
+		killed.setHP(100);
+		killed.setPos(randomSpawn());
+		if (server != null)
+			new Packet04Death(killer, killed.getUsername()).writeData(server);
+	}
+
+	/**
+	 * Rebuild the tick from its base and take players and bullets from the
+	 * server. Snapshots older than the last one, or encoded against a tick
+	 * no longer kept, are dropped.
+	 */
+	public synchronized void applySnapshot(Packet07Snapshot packet) {
+		int tick = packet.getTick();
+		if (tick <= snapshotTick)
+			return;
+		WorldSnapshot base = null;
+		if (packet.getBaseTick() != Packet07Snapshot.NO_BASE) {
+			base = snapshots[packet.getBaseTick() % snapshots.length];
+			if (base == null || base.tick != packet.getBaseTick())
+				return;
+		}
+		WorldSnapshot frame = snapshots[tick % snapshots.length];
+		if (frame == null)
+			frame = snapshots[tick % snapshots.length] = new WorldSnapshot();
+		packet.readInto(base, frame);
+		snapshotTick = tick;
+		authoritative = true;
+		long now = System.currentTimeMillis();
+
+		for (int i = 0; i < frame.players; i++) {
+			PlayerMP p = getPlayerMP(frame.ids[i]);
+			if (p == null)
+				continue;
+			p.setHP(frame.hp[i]);
+			p.kills = frame.kills[i];
+			p.deaths = frame.deaths[i];
+			if (p == player) {
+				serverX = frame.x[i];
+				serverY = frame.y[i];
+				serverInput = packet.getInputAck();
+				reconcile = true;
+			} else {
+				p.getBoundingBox().x = frame.x[i];
+				p.getBoundingBox().y = frame.y[i];
+				p.angle = frame.angle[i];
+				p.interpolation.add(now, frame.x[i], frame.y[i], frame.angle[i]);
+				p.state = frame.state[i];
+				p.setWeapon(frame.weapon[i]);
+			}
+		}
+		applyBullets(frame);
+		applied.set(frame);
+	}
+
+	/**
+	 * Mirror the bullets that appeared or disappeared since the last snapshot,
+	 * the bullets of the local player are already fired locally
+	 */
+	private void applyBullets(WorldSnapshot frame) {
+		synchronized (bullets) {
+			for (int i = 0; i < applied.bullets; i++) {
+				if (frame.hasBullet(applied.bulletIds[i]))
+					continue;
+				PlayerMP shooter = getPlayerMP(applied.bulletOwners[i]);
+				if (shooter == null || shooter == player)
+					continue;
+				int index = bullets.indexOf(applied.bulletIds[i], bullets.ownerId(shooter.getUsername()));
+				if (index >= 0)
+					bullets.remove(index);
+			}
+			for (int i = 0; i < frame.bullets; i++) {
+				if (applied.hasBullet(frame.bulletIds[i]))
+					continue;
+				PlayerMP shooter = getPlayerMP(frame.bulletOwners[i]);
+				if (shooter == null || shooter == player)
+					continue;
+				bullets.add(frame.bulletX[i], frame.bulletY[i], frame.bulletAngle[i],
+						bullets.ownerId(shooter.getUsername()), frame.bulletDamage[i], frame.bulletIds[i]);
+				shotPos.set(frame.bulletX[i], frame.bulletY[i]);
+				MultiplayerWorldRenderer.shotPos = shotPos;
+				if (frame.bulletDamage[i] == 15)
+					MultiplayerWorldRenderer.pistolShot = true;
+				else if (frame.bulletDamage[i] == 34)
+					MultiplayerWorldRenderer.shotgunShot = true;
+				else
+					MultiplayerWorldRenderer.rifleShot = true;
 			}
 		}
-		return TileType.GROUND;
+	}
+
+	/**
+	 * Move a player by one frame of input, the same way on the client that
+	 * predicts it and on the server that applies it
+	 */
+	public void move(PlayerMP p, float moveX, float moveY, float delta) {
+		if (moveX == 0 && moveY == 0)
+			return;
+		Rectangle box = p.getBoundingBox();
+		float dx = moveX * GameConfig.MOVESPEED * delta;
+		float dy = moveY * GameConfig.MOVESPEED * delta;
+		moveBox.set(box.x + dx, box.y + dy, box.width, box.height);
+		if (getNextTile(moveBox) != TileType.WALL) {
+			box.x += dx;
+			box.y += dy;
+		}
+	}
+
+	/**
+	 * Move a player by a frame quantized as in Packet11Input. The direction is
+	 * cut to the length of a full step, on the server and in the prediction
+	 * alike, so no frame moves faster than MOVESPEED.
+	 */
+	public void applyInput(PlayerMP p, int moveX, int moveY, int deltaMs) {
+		float x = moveX / 100f, y = moveY / 100f;
+		float length2 = x * x + y * y;
+		if (length2 > 1) {
+			float length = (float) Math.sqrt(length2);
+			x /= length;
+			y /= length;
+		}
+		move(p, x, y, deltaMs / 1000f);
+	}
+
+	/**
+	 * Move the local player now. Against an authoritative server the frame is
+	 * also kept, to be sent and replayed until the server applies it.
+	 *
+	 * @param moveX
+	 *            fraction of the speed on x, from -1 to 1
+	 */
+	public void predict(float moveX, float moveY, float delta) {
+		if (!authoritative) {
+			move(player, moveX, moveY, delta);
+			return;
+		}
+		int x = Math.round(moveX * 100);
+		int y = Math.round(moveY * 100);
+		int ms = MathUtils.clamp(Math.round(delta * 1000), 1, 255);
+		inputs.add(x, y, ms);
+		applyInput(player, x, y, ms);
+	}
+
+	/**
+	 * Put the local player where the last snapshot says and replay the
+	 * frames the server has not applied yet. A result close to the predicted
+	 * position is ignored, so rounded snapshot positions do not make the
+	 * player shake.
+	 */
+	public void reconcile() {
+		int x, y, input;
+		synchronized (this) {
+			if (!reconcile)
+				return;
+			reconcile = false;
+			x = serverX;
+			y = serverY;
+			input = serverInput;
+		}
+		inputs.acknowledge(input);
+		Rectangle box = player.getBoundingBox();
+		float predictedX = box.x, predictedY = box.y;
+		box.x = x;
+		box.y = y;
+		for (int i = 0; i < inputs.size(); i++)
+			applyInput(player, inputs.getMoveX(i), inputs.getMoveY(i), inputs.getDeltaMs(i));
+		if (Math.abs(box.x - predictedX) <= GameConfig.RECONCILE_TOLERANCE
+				&& Math.abs(box.y - predictedY) <= GameConfig.RECONCILE_TOLERANCE) {
+			box.x = predictedX;
+			box.y = predictedY;
+		}
+	}
+
+	/**
+	 * @return the movement frames of the local player to send
+	 */
+	public InputHistory getInputs() {
+		return inputs;
+	}
+
+	/**
+	 * @return the last snapshot tick received, -1 before the first
+	 */
+	public int getSnapshotTick() {
+		return snapshotTick;
+	}
+
+	public TileType getNextTile(Rectangle _box) {
+		return grid.getNextTile(_box);
+	}
+
+	public TileGrid getGrid() {
+		return grid;
 	}
 
 	public synchronized void removePlayerMP(String username) {
@@ -223,54 +524,64 @@ public class MultiplayerWorld implements Updatable {
 		return -1;
 	}
 
-	public synchronized void movePlayer(String username, int x, int y, float angle, int state, int weapon) {
-		int index = getPlayerMPIndex(username);
-		int localPlayerIndex = getPlayerMPIndex(player.username);
-		if (index >= 0 && index < this.getEntities().size() && index != localPlayerIndex) {
-			AbstractDynamicObject obj = this.getEntities().get(index);
-			if (obj instanceof PlayerMP) {
-				PlayerMP p = (PlayerMP) obj;
-				p.getBoundingBox().x = x;
-				p.getBoundingBox().y = y;
-				p.angle = angle;
-				p.state = state;
-				if (weapon == 0)
-					p.activeWeapon = p.pistol;
-				else if (weapon == 1)
-					p.activeWeapon = p.shotgun;
-				else if (weapon == 2)
-					p.activeWeapon = p.rifle;
+	/**
+	 * @return the player with the id given by the server, null if unknown
+	 */
+	public synchronized PlayerMP getPlayerMP(int id) {
+		for (AbstractDynamicObject e : entities) {
+			if (e instanceof PlayerMP && ((PlayerMP) e).id == id) {
+				return (PlayerMP) e;
 			}
 		}
+		return null;
+	}
+
+	public synchronized void movePlayer(int id, int x, int y, float angle, int state, int weapon) {
+		PlayerMP p = getPlayerMP(id);
+		if (p != null && p != player) {
+			p.getBoundingBox().x = x;
+			p.getBoundingBox().y = y;
+			p.angle = angle;
+			p.interpolation.add(System.currentTimeMillis(), x, y, angle);
+			p.state = state;
+			p.setWeapon(weapon);
+		}
 	}
 
 	public void fireBullet(String username, int x, int y, float angle, int weapon) {
-		synchronized (bls) {
+		synchronized (bullets) {
 			float x2 = (float) (16 * Math.cos(Math.toRadians(angle)) - 16 * Math.sin(Math.toRadians(angle)));
 			float y2 = (float) (16 * Math.sin(Math.toRadians(angle)) + 16 * Math.cos(Math.toRadians(angle)));
-			Vector2 shotPos = new Vector2(x + 32 + x2, y + 32 + y2);
-			Bullet newBullet = null;
+			shotPos.set(x + 32 + x2, y + 32 + y2);
+			int owner = bullets.ownerId(username);
 			if (weapon == 1) {
-				newBullet = new Bullet(shotPos, (float) Math.toRadians(angle + 90f), username, 15);
-				this.bls.add(newBullet);
-				MultiplayerWorldRenderer.pistolShot = true;
-				MultiplayerWorldRenderer.shotPos = shotPos;
+				bullets.add(shotPos.x, shotPos.y, (float) Math.toRadians(angle + 90f), owner, 15);
+				if (!isServer) {
+					MultiplayerWorldRenderer.pistolShot = true;
+					MultiplayerWorldRenderer.shotPos = shotPos;
+				}
 			} else if (weapon == 2) {
-				this.bls.add(new Bullet(shotPos, (float) Math.toRadians(angle + 90f), username, 34));
-				this.bls.add(new Bullet(shotPos, (float) Math.toRadians(angle + 100f), username, 34));
-				this.bls.add(new Bullet(shotPos, (float) Math.toRadians(angle + 80f), username, 34));
-				MultiplayerWorldRenderer.shotgunShot = true;
-				MultiplayerWorldRenderer.shotPos = shotPos;
+				bullets.add(shotPos.x, shotPos.y, (float) Math.toRadians(angle + 90f), owner, 34);
+				bullets.add(shotPos.x, shotPos.y, (float) Math.toRadians(angle + 100f), owner, 34);
+				bullets.add(shotPos.x, shotPos.y, (float) Math.toRadians(angle + 80f), owner, 34);
+				if (!isServer) {
+					MultiplayerWorldRenderer.shotgunShot = true;
+					MultiplayerWorldRenderer.shotPos = shotPos;
+				}
 			} else {
-				newBullet = new Bullet(shotPos, (float) Math.toRadians(angle + 90f), username, 50);
-				this.bls.add(newBullet);
-				MultiplayerWorldRenderer.rifleShot = true;
-				MultiplayerWorldRenderer.shotPos = shotPos;
+				bullets.add(shotPos.x, shotPos.y, (float) Math.toRadians(angle + 90f), owner, 50);
+				if (!isServer) {
+					MultiplayerWorldRenderer.rifleShot = true;
+					MultiplayerWorldRenderer.shotPos = shotPos;
+				}
 			}
 		}
 	}
 
 	public void handleDeath(String usernameKiller, String usernameKilled) {
+		// Scores and the respawn position come with the snapshots
+		if (authoritative)
+			return;
 		if (usernameKiller.equalsIgnoreCase(this.player.username))
 			this.player.kills++;
 		else if (usernameKilled.equalsIgnoreCase(this.player.username)) {
@@ -290,18 +601,21 @@ public class MultiplayerWorld implements Updatable {
 		return player;
 	}
 
-	public LinkedList<Bullet> getBls() {
-		return bls;
-	}
-
-	public void addBullet(Bullet _bullet) {
-		bls.add(_bullet);
+	public BulletPool getBullets() {
+		return bullets;
 	}
 
 	public LinkedList<Tile> getTiles() {
 		return tiles;
 	}
 
+	/**
+	 * @return the cached data of the map, shared with the other worlds on it
+	 */
+	public MapData getMapData() {
+		return manager.data;
+	}
+
 	public LinkedList<Lootable> getLootables() {
 		return lootables;
 	}
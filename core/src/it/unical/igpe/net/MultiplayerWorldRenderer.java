@@ -19,14 +19,16 @@ import com.badlogic.gdx.utils.viewport.FitViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
 
 import it.unical.igpe.GUI.Assets;
+import it.unical.igpe.GUI.FrameTimer;
 import it.unical.igpe.GUI.SoundManager;
+import it.unical.igpe.GUI.TileChunkCache;
+import it.unical.igpe.GUI.ViewCulling;
 import it.unical.igpe.game.IGPEGame;
 import it.unical.igpe.logic.AbstractDynamicObject;
-import it.unical.igpe.logic.Bullet;
+import it.unical.igpe.logic.BulletPool;
 import it.unical.igpe.logic.Player;
 import it.unical.igpe.logic.Tile;
 import it.unical.igpe.utils.GameConfig;
-import it.unical.igpe.utils.TileType;
 
 public class MultiplayerWorldRenderer {
 	public static boolean pistolShot;
@@ -40,6 +42,9 @@ public class MultiplayerWorldRenderer {
 	private SpriteBatch batch;
 	public SpriteBatch getBatch() { return batch; }
 	private ShapeRenderer sr;
+	private TileChunkCache chunks;
+	private final ViewCulling culling = new ViewCulling();
+	private final FrameTimer frameTimer = new FrameTimer("MultiplayerWorldRenderer");
 	private float stateTime;
 	// CRITICAL: Don't store world reference - it can be replaced when map is reloaded!
 	// Always get it fresh from IGPEGame.game.worldMP to avoid stale reference bug
@@ -69,9 +74,11 @@ public class MultiplayerWorldRenderer {
 		batch.setColor(1f, 1f, 1f, 0.7f);
 		this.sr = new ShapeRenderer();
 		this.sr.setColor(Color.BLACK);
+		this.chunks = new TileChunkCache();
 	}
 
 	public void render(float deltaTime) {
+		frameTimer.begin();
 		stateTime += deltaTime;
 
 		// Get fresh world reference (it can be replaced when map is reloaded!)
@@ -91,6 +98,21 @@ public class MultiplayerWorldRenderer {
 			camera.position.y = world.getPlayer().getY();
 		}
 		camera.update();
+		culling.update(camera);
+
+		LinkedList<Tile> tiles = world.getTiles();
+		if (tiles == null || tiles.isEmpty()) {
+			if (tiles == null) {
+				it.unical.igpe.utils.DebugUtils.showError("Tiles list is null in renderer!", null);
+			} else {
+				it.unical.igpe.utils.DebugUtils.showError("Tiles list is EMPTY in renderer! Map not loaded yet.", null);
+			}
+			return;
+		}
+		// Drawing tiles, only the chunks on screen. Baked again when the
+		// world is replaced by one on another map
+		chunks.build(tiles);
+		chunks.render(culling.getView(), batch.getProjectionMatrix());
 
 		// Begin batch (handle state errors)
 		try {
@@ -105,37 +127,6 @@ public class MultiplayerWorldRenderer {
 			batch.begin();
 		}
 
-		// Drawing tiles
-		LinkedList<Tile> tiles = world.getTiles();
-		if (tiles == null || tiles.isEmpty()) {
-			if (tiles == null) {
-				it.unical.igpe.utils.DebugUtils.showError("Tiles list is null in renderer!", null);
-			} else {
-				it.unical.igpe.utils.DebugUtils.showError("Tiles list is EMPTY in renderer! Map not loaded yet.", null);
-			}
-			batch.end();
-			return;
-		}
-		for (Tile tile : tiles) {
-			if (tile == null) continue;
-			batch.draw(Assets.manager.get(Assets.Ground, Texture.class), tile.getBoundingBox().x,
-						tile.getBoundingBox().y);
-			
-			if (tile.getType() == TileType.WALL)
-				batch.draw(Assets.manager.get(Assets.Wall, Texture.class), tile.getBoundingBox().x,
-						tile.getBoundingBox().y);
-			else if (tile.getType() == TileType.BOX)
-				batch.draw(Assets.manager.get(Assets.Box, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.BARREL) 
-				batch.draw(Assets.manager.get(Assets.Barrel, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.CACTUS) 
-				batch.draw(Assets.manager.get(Assets.Cactus, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.PLANT) 
-				batch.draw(Assets.manager.get(Assets.Plant, Texture.class), tile.getX(), tile.getY());
-			else if (tile.getType() == TileType.LOGS)
-				batch.draw(Assets.manager.get(Assets.Logs, Texture.class), tile.getX(), tile.getY());
-		}
-		
 		// Drawing players
 		batch.setColor(1f, 1f, 1f, 1f);
 		List<AbstractDynamicObject> entitiesCopy;
@@ -147,6 +138,7 @@ public class MultiplayerWorldRenderer {
 			it.unical.igpe.utils.DebugUtils.showError("Error getting entities in renderer", e);
 			entitiesCopy = new ArrayList<>();
 		}
+		long renderTime = System.currentTimeMillis() - GameConfig.INTERPOLATION_DELAY_MS;
 		for (AbstractDynamicObject obj : entitiesCopy) {
 			if (obj == null || !(obj instanceof PlayerMP)) continue;
 			PlayerMP e = (PlayerMP) obj;
@@ -167,6 +159,8 @@ public class MultiplayerWorldRenderer {
 				e.timeToNextStep = 0;
 			}
 			if (e.getUsername() != null && MultiplayerWorld.username != null && e.getUsername().equalsIgnoreCase(MultiplayerWorld.username)) {
+				if (!culling.isVisible(e.getBoundingBox().x, e.getBoundingBox().y, 64, 64))
+					continue;
 				if (e.getActWeapon() == "pistol") {
 					if (e.state == Player.STATE_IDLE)
 						batch.draw(Assets.idlePistolAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
@@ -199,36 +193,45 @@ public class MultiplayerWorldRenderer {
 								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
 				}
 			} else {
+				// Remote players are drawn in the past, between the states received
+				float drawX = e.getBoundingBox().x, drawY = e.getBoundingBox().y, drawAngle = e.angle;
+				if (e.interpolation.sample(renderTime)) {
+					drawX = e.interpolation.sampleX;
+					drawY = e.interpolation.sampleY;
+					drawAngle = e.interpolation.sampleAngle;
+				}
+				if (!culling.isVisible(drawX, drawY, 64, 64))
+					continue;
 				if (e.getActWeapon() == "pistol") {
 					if (e.state == Player.STATE_IDLE)
-						batch.draw(Assets.eIdlePistolAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eIdlePistolAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 					else if (e.state == Player.STATE_RELOADING)
-						batch.draw(Assets.eReloadingPistolAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eReloadingPistolAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 					else if (e.state == Player.STATE_RUNNING)
-						batch.draw(Assets.eRunningPistolAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eRunningPistolAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 				} else if (e.getActWeapon() == "shotgun") {
 					if (e.state == Player.STATE_IDLE)
-						batch.draw(Assets.eIdleShotgunAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eIdleShotgunAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 					else if (e.state == Player.STATE_RELOADING)
-						batch.draw(Assets.eReloadingShotgunAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eReloadingShotgunAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 					else if (e.state == Player.STATE_RUNNING)
-						batch.draw(Assets.eRunningShotgunAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eRunningShotgunAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 				} else if (e.getActWeapon() == "rifle") {
 					if (e.state == Player.STATE_IDLE)
-						batch.draw(Assets.eIdleRifleAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eIdleRifleAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 					else if (e.state == Player.STATE_RELOADING)
-						batch.draw(Assets.eReloadingRifleAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eReloadingRifleAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 					else if (e.state == Player.STATE_RUNNING)
-						batch.draw(Assets.eRunningRifleAnimation.getKeyFrame(stateTime, true), e.getBoundingBox().x,
-								e.getBoundingBox().y, 32, 32, 64, 64, 1f, 1f, e.angle);
+						batch.draw(Assets.eRunningRifleAnimation.getKeyFrame(stateTime, true), drawX,
+								drawY, 32, 32, 64, 64, 1f, 1f, drawAngle);
 				}
 			}
 		}
@@ -240,17 +243,14 @@ public class MultiplayerWorldRenderer {
 		// This ensures ShapeRenderer uses the updated camera matrix
 		sr.setProjectionMatrix(camera.combined);
 
-		LinkedList<Bullet> bullets = world.getBls();
-		if (bullets != null && bullets.size() > 0) {
+		BulletPool bullets = world.getBullets();
+		if (bullets != null && bullets.size > 0) {
 			sr.begin(ShapeType.Filled);
-			try {
-				for (Bullet bullet : bullets) {
-					if (bullet != null) {
-						sr.circle(bullet.getX(), bullet.getY(), 4);
-					}
+			synchronized (bullets) {
+				for (int i = 0; i < bullets.size; i++) {
+					if (culling.isVisible(bullets.x[i] - 4, bullets.y[i] - 4, 8, 8))
+						sr.circle((int) bullets.x[i], (int) bullets.y[i], 4);
 				}
-			} catch (Exception e) {
-				// Concurrent modification, skip this frame
 			}
 			sr.end();
 		}
@@ -261,11 +261,21 @@ public class MultiplayerWorldRenderer {
 			this.fireShotgun();
 		else if(rifleShot)
 			this.fireRifle();
+		frameTimer.end(culling);
+
+	}
 
+	/**
+	 * @return the time spent on the CPU by a frame, averaged over the last
+	 *         window
+	 */
+	public FrameTimer getFrameTimer() {
+		return frameTimer;
 	}
 
 	public void dispose() {
 		batch.dispose();
+		chunks.dispose();
 	}
 	
 	public void firePistol() {
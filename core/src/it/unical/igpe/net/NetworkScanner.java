@@ -1,12 +1,10 @@
 package it.unical.igpe.net;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
@@ -46,76 +44,42 @@ public class NetworkScanner {
 	}
 	
 	/**
-	 * Scans the local network for available game servers
-	 * @param port The port to scan
-	 * @param timeoutMs Timeout in milliseconds for each scan
-	 * @return List of found server IP addresses
+	 * @return the broadcast address of every active IPv4 interface, and the
+	 *         limited broadcast address 255.255.255.255
 	 */
-	public static List<String> scanForServers(int port, int timeoutMs) {
-		List<String> foundServers = new ArrayList<String>();
-		
+	public static List<InetAddress> getBroadcastAddresses() {
+		List<InetAddress> addresses = new ArrayList<InetAddress>();
 		try {
-			// Get local network prefix (e.g., 192.168.1.x)
-			String localIP = getLocalIP();
-			String[] parts = localIP.split("\\.");
-			if (parts.length != 4) {
-				return foundServers;
-			}
-			
-			String networkPrefix = parts[0] + "." + parts[1] + "." + parts[2] + ".";
-			
-			// Create a socket for scanning
-			DatagramSocket scanSocket = new DatagramSocket();
-			scanSocket.setSoTimeout(timeoutMs);
-			
-			// Scan IPs in the local network (1-254)
-			for (int i = 1; i < 255; i++) {
-				String testIP = networkPrefix + i;
-				try {
-					InetAddress address = InetAddress.getByName(testIP);
-					
-					// Try to send a discovery packet
-					// For now, we'll just try to connect - in a real implementation,
-					// you'd send a specific discovery packet that servers respond to
-					byte[] data = "DISCOVER".getBytes();
-					DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
-					
-					try {
-						scanSocket.send(packet);
-						
-						// Try to receive a response
-						byte[] buffer = new byte[1024];
-						DatagramPacket response = new DatagramPacket(buffer, buffer.length);
-						scanSocket.receive(response);
-						
-						// If we got a response, add it to the list
-						foundServers.add(testIP);
-					} catch (SocketTimeoutException e) {
-						// Timeout is expected for most IPs
-					} catch (IOException e) {
-						// Ignore IO errors during scanning
-					}
-				} catch (Exception e) {
-					// Skip invalid addresses
-				}
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while (interfaces.hasMoreElements()) {
+				NetworkInterface iface = interfaces.nextElement();
+				if (iface.isLoopback() || !iface.isUp())
+					continue;
+				for (InterfaceAddress address : iface.getInterfaceAddresses())
+					if (address.getBroadcast() != null && !addresses.contains(address.getBroadcast()))
+						addresses.add(address.getBroadcast());
 			}
-			
-			scanSocket.close();
-		} catch (Exception e) {
+		} catch (SocketException e) {
 			e.printStackTrace();
 		}
-		
-		return foundServers;
+		try {
+			addresses.add(InetAddress.getByName("255.255.255.255"));
+		} catch (UnknownHostException e) {
+			e.printStackTrace();
+		}
+		return addresses;
 	}
-	
+
 	/**
-	 * Simple server discovery - just returns the local IP for now
-	 * A full implementation would broadcast discovery packets
+	 * @return true if the address is loopback or belongs to this machine
 	 */
-	public static List<String> discoverServers(int port) {
-		List<String> servers = new ArrayList<String>();
-		// For now, return empty list - full network scanning would require
-		// a discovery protocol that servers respond to
-		return servers;
+	public static boolean isLocalAddress(InetAddress address) {
+		if (address.isLoopbackAddress() || address.isAnyLocalAddress())
+			return true;
+		try {
+			return NetworkInterface.getByInetAddress(address) != null;
+		} catch (SocketException e) {
+			return false;
+		}
 	}
 }
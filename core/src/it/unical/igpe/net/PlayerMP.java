@@ -1,18 +1,40 @@
 package it.unical.igpe.net;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
 import com.badlogic.gdx.math.Vector2;
 
 import it.unical.igpe.game.IGPEGame;
 import it.unical.igpe.logic.Player;
 import it.unical.igpe.net.packet.Packet03Fire;
+import it.unical.igpe.utils.GameConfig;
 
 public class PlayerMP extends Player {
 
 	public MultiplayerWorld world;
 	public InetAddress ipAddress;
 	public int port;
+	/** ipAddress and port as the key of the server maps, null while unknown */
+	public InetSocketAddress endpoint;
+	/** Given by the server at login, -1 until then */
+	public int id = -1;
+	/** Last snapshot tick the client received, the server encodes the next one against it */
+	public int ackedTick = -1;
+	/** Last input frame the server applied, -1 while the client sends positions */
+	public int inputSequence = -1;
+	/** Input time the server may still apply for this player, in milliseconds */
+	public long inputBudget;
+	/** When inputBudget was last credited, 0 before the first input */
+	public long inputBudgetTime;
+	/** States received for a remote player, drawn slightly in the past */
+	public final InterpolationBuffer interpolation = new InterpolationBuffer();
+	/** Bounding boxes of the last ticks on an authoritative server, null elsewhere */
+	public BoxHistory history;
+	/** Snapshots the server last sent to this client, at tick % SNAPSHOT_HISTORY */
+	public WorldSnapshot[] views;
+	/** Moves of this player relayed so far, the far clients get one in INTEREST_FAR_INTERVAL */
+	public int relayed;
 
 	public PlayerMP(Vector2 _pos, MultiplayerWorld _world, String username, InetAddress ipAddress, int port) {
 		super(_pos, null, username);
@@ -20,6 +42,29 @@ public class PlayerMP extends Player {
 		this.activeWeapon = pistol;
 		this.ipAddress = ipAddress;
 		this.port = port;
+		if (ipAddress != null && port > 0)
+			this.endpoint = new InetSocketAddress(ipAddress, port);
+	}
+
+	/**
+	 * @return 0 for the pistol, 1 for the shotgun, 2 for the rifle, as in
+	 *         Packet02Move
+	 */
+	public int getWeapon() {
+		if (activeWeapon == pistol)
+			return 0;
+		else if (activeWeapon == shotgun)
+			return 1;
+		return 2;
+	}
+
+	public void setWeapon(int weapon) {
+		if (weapon == 0)
+			activeWeapon = pistol;
+		else if (weapon == 1)
+			activeWeapon = shotgun;
+		else if (weapon == 2)
+			activeWeapon = rifle;
 	}
 
 	@Override
@@ -34,7 +79,8 @@ public class PlayerMP extends Player {
 			else
 				weaponType = 3;
 
-			packetFire = new Packet03Fire(username, (int) boundingBox.x, (int) boundingBox.y, angle, weaponType);
+			packetFire = new Packet03Fire(id, (int) boundingBox.x, (int) boundingBox.y, angle, weaponType,
+					world != null ? world.getSnapshotTick() : -1, GameConfig.INTERPOLATION_DELAY_MS);
 
 			// For host player (port -1), add bullet locally immediately
 			// Otherwise rely on server echo to ensure synchronization
@@ -0,0 +1,117 @@
+package it.unical.igpe.net;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Players connected to a GameServer, found in constant time by the session
+ * id given at login, by username and by the address their packets come
+ * from. Players join and leave rarely compared to how often they are looked
+ * up and iterated, so the list is copied on every change and an iteration
+ * never sees a join or leave that happens during it.
+ */
+public class PlayerRegistry implements Iterable<PlayerMP> {
+	/** Players by id, ids are given in order and never reused */
+	private volatile PlayerMP[] byId = new PlayerMP[16];
+	private int nextId;
+	private final Map<String, PlayerMP> byName = new ConcurrentHashMap<String, PlayerMP>();
+	private final Map<InetSocketAddress, PlayerMP> byAddress = new ConcurrentHashMap<InetSocketAddress, PlayerMP>();
+	private final CopyOnWriteArrayList<PlayerMP> players = new CopyOnWriteArrayList<PlayerMP>();
+
+	/**
+	 * Give the player the next session id and index it
+	 *
+	 * @return the id
+	 */
+	public synchronized int add(PlayerMP player) {
+		player.id = nextId++;
+		PlayerMP[] ids = byId;
+		if (player.id >= ids.length) {
+			PlayerMP[] grown = new PlayerMP[ids.length * 2];
+			System.arraycopy(ids, 0, grown, 0, ids.length);
+			ids = grown;
+		}
+		ids[player.id] = player;
+		byId = ids;
+		byName.put(key(player.getUsername()), player);
+		if (player.endpoint != null)
+			byAddress.put(player.endpoint, player);
+		players.add(player);
+		return player.id;
+	}
+
+	/**
+	 * Set the endpoint of a player that was added before its address was
+	 * known
+	 */
+	public synchronized void setAddress(PlayerMP player, InetAddress address, int port) {
+		if (player.endpoint != null)
+			byAddress.remove(player.endpoint);
+		player.ipAddress = address;
+		player.port = port;
+		player.endpoint = address != null && port > 0 ? new InetSocketAddress(address, port) : null;
+		if (player.endpoint != null)
+			byAddress.put(player.endpoint, player);
+	}
+
+	public synchronized boolean remove(PlayerMP player) {
+		if (!players.remove(player))
+			return false;
+		byId[player.id] = null;
+		byName.remove(key(player.getUsername()));
+		if (player.endpoint != null)
+			byAddress.remove(player.endpoint);
+		return true;
+	}
+
+	/**
+	 * @return the player with the session id, null if there is none
+	 */
+	public PlayerMP get(int id) {
+		PlayerMP[] ids = byId;
+		return id >= 0 && id < ids.length ? ids[id] : null;
+	}
+
+	/**
+	 * @return the player with the username, ignoring case, null if there is
+	 *         none
+	 */
+	public PlayerMP get(String username) {
+		return username == null ? null : byName.get(key(username));
+	}
+
+	/**
+	 * @return the player whose packets come from the endpoint, null if there
+	 *         is none
+	 */
+	public PlayerMP get(InetSocketAddress address) {
+		return byAddress.get(address);
+	}
+
+	/**
+	 * @return the players in the order they joined, a list that can be read
+	 *         while players join and leave
+	 */
+	public List<PlayerMP> list() {
+		return players;
+	}
+
+	public int size() {
+		return players.size();
+	}
+
+	@Override
+	public Iterator<PlayerMP> iterator() {
+		return players.iterator();
+	}
+
+	private static String key(String username) {
+		return username.toLowerCase(Locale.ROOT);
+	}
+}
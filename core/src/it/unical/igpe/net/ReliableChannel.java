@@ -0,0 +1,272 @@
+package it.unical.igpe.net;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import com.badlogic.gdx.utils.Queue;
+
+import it.unical.igpe.net.packet.Packet;
+import it.unical.igpe.net.packet.Packet10Ack;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Reliability for one remote endpoint of a UDP socket. Reliable packets get
+ * their own sequence numbers and are kept until the other side acknowledges
+ * them, being resent on a timer; the receiver delivers them in order,
+ * holding back the ones that overtook a lost packet. Every datagram to the
+ * endpoint carries the last reliable sequence received and one bit for each
+ * of the 32 before it, unreliable packets are never held or resent. A
+ * reliable packet sent while WINDOW are in flight waits in the channel
+ * until a slot frees up, none is ever dropped. The channel is used from the
+ * receiving and the sending thread at once.
+ */
+public class ReliableChannel {
+	/**
+	 * Socket the resends and acks go out through
+	 */
+	public interface Sender {
+		/**
+		 * @param datagram
+		 *            bytes from 0 to the limit, only valid during the call
+		 */
+		void send(ByteBuffer datagram, ReliableChannel to);
+	}
+
+	/** Reliable packets in flight and held back, at most */
+	public static final int WINDOW = 32;
+
+	private final InetAddress address;
+	private final int port;
+	private final InetSocketAddress socketAddress;
+
+	// Sent reliable packets not acknowledged yet, at slot sequence % WINDOW
+	private int nextSequence;
+	private final ByteBuffer[] pending = new ByteBuffer[WINDOW];
+	private final int[] pendingSequence = new int[WINDOW];
+	private final int[] pendingLength = new int[WINDOW];
+	private final long[] sentAt = new long[WINDOW];
+	/** Reliable datagrams waiting for a free slot, in send order */
+	private final Queue<byte[]> waiting = new Queue<byte[]>();
+	private long lastSent, lastReceived;
+
+	// Received reliable packets
+	private int received = -1;
+	private int receivedBits;
+	private int expected;
+	private final byte[][] early = new byte[WINDOW][];
+	private final int[] earlySequence = new int[WINDOW];
+	private final int[] earlyLength = new int[WINDOW];
+	private boolean ackDue;
+
+	private final ByteBuffer ackBuffer = ByteBuffer.allocate(Packet.HEADER_SIZE);
+	private final Packet10Ack ackPacket = new Packet10Ack();
+
+	public ReliableChannel(InetAddress address, int port) {
+		this.address = address;
+		this.port = port;
+		this.socketAddress = new InetSocketAddress(address, port);
+		this.lastReceived = System.currentTimeMillis();
+	}
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public InetSocketAddress getSocketAddress() {
+		return socketAddress;
+	}
+
+	/**
+	 * Fill in sequence and acks of an encoded datagram before it is sent, a
+	 * reliable packet is also copied for resending
+	 *
+	 * @param datagram
+	 *            the datagram starts at index 0
+	 * @return true if the datagram is to be sent now, false if it is a
+	 *         reliable packet kept to be sent by update once a slot is free
+	 */
+	public synchronized boolean prepare(ByteBuffer datagram, int length, boolean reliable, long now) {
+		if (reliable) {
+			if (waiting.size > 0 || pendingLength[nextSequence % WINDOW] != 0) {
+				byte[] copy = new byte[length];
+				for (int i = 0; i < length; i++)
+					copy[i] = datagram.get(i);
+				waiting.addLast(copy);
+				return false;
+			}
+			store(datagram, length, now);
+		}
+		datagram.putShort(Packet.ACK_OFFSET, (short) received);
+		datagram.putInt(Packet.ACK_BITS_OFFSET, receivedBits);
+		ackDue = false;
+		lastSent = now;
+		return true;
+	}
+
+	/**
+	 * Give the next sequence to a reliable datagram and keep a copy of it in
+	 * its slot, which must be free
+	 */
+	private void store(ByteBuffer datagram, int length, long sentTime) {
+		int sequence = nextSequence;
+		nextSequence = (nextSequence + 1) & 0xFFFF;
+		datagram.putShort(Packet.SEQUENCE_OFFSET, (short) sequence);
+		int slot = sequence % WINDOW;
+		if (pending[slot] == null || pending[slot].capacity() < length)
+			pending[slot] = ByteBuffer.allocate(Math.max(length, 64));
+		for (int i = 0; i < length; i++)
+			pending[slot].put(i, datagram.get(i));
+		pendingSequence[slot] = sequence;
+		pendingLength[slot] = length;
+		sentAt[slot] = sentTime;
+	}
+
+	/**
+	 * Read the acks of a datagram from the endpoint and track its sequence
+	 * if it is reliable. The position of the buffer is not moved.
+	 *
+	 * @return true if the packet is to be handled now, false if it is a
+	 *         duplicate or it is held until the packets before it arrive
+	 */
+	public synchronized boolean receive(ByteBuffer buffer) {
+		int start = buffer.position();
+		lastReceived = System.currentTimeMillis();
+		if (buffer.remaining() < Packet.HEADER_SIZE)
+			return true;
+		acknowledge(buffer.getShort(start + Packet.ACK_OFFSET) & 0xFFFF, buffer.getInt(start + Packet.ACK_BITS_OFFSET));
+		if (!Packet.lookupPacket(buffer.get(start)).isReliable())
+			return true;
+
+		// Only a packet delivered or held is acknowledged, one too far ahead
+		// to be held is left for the sender to resend
+		int sequence = Packet.getSequence(buffer, start);
+		int ahead = difference(sequence, expected);
+		if (ahead >= WINDOW)
+			return false;
+		track(sequence);
+		ackDue = true;
+		if (ahead == 0) {
+			expected = (expected + 1) & 0xFFFF;
+			return true;
+		}
+		if (ahead > 0) {
+			int slot = sequence % WINDOW;
+			int length = buffer.remaining();
+			if (early[slot] == null || early[slot].length < length)
+				early[slot] = new byte[length];
+			for (int i = 0; i < length; i++)
+				early[slot][i] = buffer.get(start + i);
+			earlySequence[slot] = sequence;
+			earlyLength[slot] = length;
+		}
+		// Behind: a duplicate, acknowledged again in case the ack was lost
+		return false;
+	}
+
+	/**
+	 * @return the held packet that is now next in order, with the position
+	 *         at its header, null if there is none
+	 */
+	public synchronized ByteBuffer nextHeld() {
+		int slot = expected % WINDOW;
+		if (earlyLength[slot] == 0 || earlySequence[slot] != expected)
+			return null;
+		ByteBuffer buffer = ByteBuffer.wrap(early[slot], 0, earlyLength[slot]);
+		earlyLength[slot] = 0;
+		expected = (expected + 1) & 0xFFFF;
+		return buffer;
+	}
+
+	/**
+	 * Send the waiting reliable packets that got a slot, resend the ones not
+	 * acknowledged in time and send the acks that no other packet carried.
+	 * An ack also goes out when nothing was sent for
+	 * GameConfig.KEEPALIVE_MS, so the other side knows the endpoint is alive.
+	 */
+	public synchronized void update(Sender sender, long now) {
+		while (waiting.size > 0 && pendingLength[nextSequence % WINDOW] == 0) {
+			byte[] datagram = waiting.removeFirst();
+			// Sent by the resend loop below
+			store(ByteBuffer.wrap(datagram), datagram.length, now - GameConfig.RELIABLE_RESEND_MS);
+		}
+		for (int slot = 0; slot < WINDOW; slot++) {
+			if (pendingLength[slot] == 0 || now - sentAt[slot] < GameConfig.RELIABLE_RESEND_MS)
+				continue;
+			ByteBuffer datagram = pending[slot];
+			datagram.putShort(Packet.ACK_OFFSET, (short) received);
+			datagram.putInt(Packet.ACK_BITS_OFFSET, receivedBits);
+			datagram.position(0);
+			datagram.limit(pendingLength[slot]);
+			sender.send(datagram, this);
+			datagram.clear();
+			sentAt[slot] = now;
+			ackDue = false;
+			lastSent = now;
+		}
+		if (ackDue || now - lastSent >= GameConfig.KEEPALIVE_MS) {
+			ackBuffer.clear();
+			ackPacket.write(ackBuffer, 0);
+			prepare(ackBuffer, ackBuffer.position(), false, now);
+			ackBuffer.flip();
+			sender.send(ackBuffer, this);
+		}
+	}
+
+	/**
+	 * @return true if nothing came from the endpoint for
+	 *         GameConfig.CONNECTION_TIMEOUT_MS
+	 */
+	public synchronized boolean isIdle(long now) {
+		return now - lastReceived >= GameConfig.CONNECTION_TIMEOUT_MS;
+	}
+
+	/**
+	 * @return true if reliable packets are waiting for their ack
+	 */
+	public synchronized boolean isPending() {
+		if (waiting.size > 0)
+			return true;
+		for (int slot = 0; slot < WINDOW; slot++)
+			if (pendingLength[slot] != 0)
+				return true;
+		return false;
+	}
+
+	private void acknowledge(int ack, int bits) {
+		for (int slot = 0; slot < WINDOW; slot++) {
+			if (pendingLength[slot] == 0)
+				continue;
+			int behind = difference(ack, pendingSequence[slot]);
+			if (behind == 0 || (behind > 0 && behind <= 32 && (bits & (1 << (behind - 1))) != 0))
+				pendingLength[slot] = 0;
+		}
+	}
+
+	private void track(int sequence) {
+		if (received < 0) {
+			received = sequence;
+			return;
+		}
+		int newer = difference(sequence, received);
+		if (newer > 0) {
+			if (newer < 32)
+				receivedBits = (receivedBits << newer) | (1 << (newer - 1));
+			else
+				receivedBits = newer == 32 ? 1 << 31 : 0;
+			received = sequence;
+		} else if (newer < 0 && newer >= -32)
+			receivedBits |= 1 << (-newer - 1);
+	}
+
+	/**
+	 * @return a - b for 16 bit sequences that wrap around
+	 */
+	private static int difference(int a, int b) {
+		return (short) (a - b);
+	}
+}
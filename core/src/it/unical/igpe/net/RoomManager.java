@@ -0,0 +1,259 @@
+package it.unical.igpe.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import it.unical.igpe.net.packet.Packet;
+import it.unical.igpe.net.packet.Packet.PacketTypes;
+import it.unical.igpe.net.packet.Packet00Login;
+import it.unical.igpe.net.packet.Packet12Discovery;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Hosts many matches on one port. This thread reads the socket and passes
+ * every datagram to the room of its sender, the rooms tick on a pool shared
+ * by all of them. A login names the room to join, an empty name joins the
+ * first room with space left; rooms are created when a login needs one and
+ * closed when they stay empty.
+ */
+public class RoomManager extends Thread {
+	private final int port;
+	private final String mapName;
+	private final String mapContent;
+	private final int tickRate;
+	private final int maxKills;
+	private DatagramChannel datagramChannel;
+	private Selector selector;
+	private ScheduledExecutorService pool;
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(Packet.MAX_SIZE);
+	private final Map<String, GameServer> rooms = new ConcurrentHashMap<String, GameServer>();
+	/** Room of every client that logged in */
+	private final Map<InetSocketAddress, GameServer> endpoints = new ConcurrentHashMap<InetSocketAddress, GameServer>();
+	private int nextRoom;
+	private long lastCheck;
+	private String serverName = "Dedicated server";
+	private final ByteBuffer beaconBuffer = ByteBuffer.allocate(Packet.MAX_SIZE);
+
+	/**
+	 * @param mapContent
+	 *            content of a map outside the assets, null to load mapName
+	 */
+	public RoomManager(int port, String mapName, String mapContent, int tickRate, int maxKills) {
+		super("RoomManager");
+		this.port = port;
+		this.mapName = mapName;
+		this.mapContent = mapContent;
+		this.tickRate = tickRate;
+		this.maxKills = maxKills;
+	}
+
+	public void run() {
+		try {
+			datagramChannel = DatagramChannel.open();
+			datagramChannel.socket().bind(new InetSocketAddress(port));
+			datagramChannel.configureBlocking(false);
+			selector = Selector.open();
+			datagramChannel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			it.unical.igpe.utils.DebugUtils.showError("Socket error creating RoomManager on port: " + port, e);
+			close();
+			return;
+		}
+		pool = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			private int count;
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "RoomManager tick " + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		it.unical.igpe.utils.DebugUtils.showMessage("RoomManager listening on port " + port);
+		try {
+			while (datagramChannel.isOpen()) {
+				selector.select(GameConfig.ROOM_IDLE_MS / 10);
+				selector.selectedKeys().clear();
+				receiveAll();
+				long now = System.currentTimeMillis();
+				if (now - lastCheck >= GameConfig.ROOM_IDLE_MS / 10) {
+					lastCheck = now;
+					closeIdleRooms(now);
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// Closed by close()
+		} catch (IOException e) {
+			if (datagramChannel.isOpen()) {
+				it.unical.igpe.utils.DebugUtils.showError("Error receiving packet in RoomManager", e);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void receiveAll() throws IOException {
+		while (true) {
+			receiveBuffer.clear();
+			InetSocketAddress from = (InetSocketAddress) datagramChannel.receive(receiveBuffer);
+			if (from == null)
+				return;
+			receiveBuffer.flip();
+			if (receiveBuffer.remaining() < Packet.HEADER_SIZE)
+				continue;
+			if (Packet12Discovery.isProbe(receiveBuffer)) {
+				answerProbe(from);
+				continue;
+			}
+			GameServer room = endpoints.get(from);
+			if (room == null) {
+				// Only a login brings a client into a room
+				if (Packet.lookupPacket(receiveBuffer.get(0)) != PacketTypes.LOGIN)
+					continue;
+				room = join(readRoom(receiveBuffer), from);
+				if (room == null)
+					continue;
+			}
+			room.receive(receiveBuffer, from);
+		}
+	}
+
+	/**
+	 * Describe the whole server: players of all the rooms and the load of
+	 * the busiest one
+	 */
+	private void answerProbe(InetSocketAddress from) {
+		int players = 0, load = 0;
+		for (GameServer room : rooms.values()) {
+			players += room.getPlayerCount();
+			load = Math.max(load, room.getLoad());
+		}
+		String map = mapName.substring(Math.max(mapName.lastIndexOf('/'), mapName.lastIndexOf('\\')) + 1);
+		GameServer.answerProbe(datagramChannel, beaconBuffer, new Packet12Discovery(serverName, map, players, load), from);
+	}
+
+	/**
+	 * @return the room named by the login, null if the login is corrupt
+	 */
+	private String readRoom(ByteBuffer data) {
+		ByteBuffer login = data.duplicate();
+		try {
+			Packet.readHeader(login);
+			return new Packet00Login(login).getRoom();
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Put the client in the named room, or in the first one with space when
+	 * the name is empty, creating the room if needed
+	 *
+	 * @return the room, null if it is full or could not be created
+	 */
+	private synchronized GameServer join(String name, InetSocketAddress from) {
+		if (name == null)
+			return null;
+		GameServer room = null;
+		if (name.isEmpty()) {
+			for (GameServer r : rooms.values())
+				if (r.members < GameConfig.ROOM_MAX_PLAYERS && !r.isGameOver()) {
+					room = r;
+					break;
+				}
+			if (room == null) {
+				do
+					name = "room" + nextRoom++;
+				while (rooms.containsKey(name));
+			}
+		} else
+			room = rooms.get(name);
+		if (room == null)
+			room = open(name);
+		if (room == null || room.members >= GameConfig.ROOM_MAX_PLAYERS)
+			return null;
+		room.members++;
+		endpoints.put(from, room);
+		return room;
+	}
+
+	private GameServer open(String name) {
+		GameServer room = new GameServer(this, name, mapName, mapContent);
+		room.MaxKills = maxKills;
+		room.setTickRate(tickRate);
+		room.initialize();
+		if (!room.isValid()) {
+			it.unical.igpe.utils.DebugUtils.showError("Room " + name + " could not be created");
+			return null;
+		}
+		rooms.put(name, room);
+		room.schedule(pool);
+		it.unical.igpe.utils.DebugUtils.showMessage("Room " + name + " created, " + rooms.size() + " rooms");
+		return room;
+	}
+
+	/**
+	 * Called by a room when its client disconnected
+	 */
+	synchronized void leave(InetSocketAddress endpoint) {
+		GameServer room = endpoints.remove(endpoint);
+		if (room != null && --room.members == 0)
+			room.emptySince = System.currentTimeMillis();
+	}
+
+	private synchronized void closeIdleRooms(long now) {
+		Iterator<GameServer> iterator = rooms.values().iterator();
+		while (iterator.hasNext()) {
+			GameServer room = iterator.next();
+			if (room.members == 0 && now - room.emptySince >= GameConfig.ROOM_IDLE_MS) {
+				room.close();
+				iterator.remove();
+				it.unical.igpe.utils.DebugUtils.showMessage("Room " + room.getRoomName() + " closed, " + rooms.size() + " rooms");
+			}
+		}
+	}
+
+	public void close() {
+		for (GameServer room : rooms.values())
+			room.close();
+		rooms.clear();
+		if (pool != null)
+			pool.shutdown();
+		try {
+			if (selector != null)
+				selector.close();
+			if (datagramChannel != null)
+				datagramChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Name the server in the answers to LAN discovery
+	 */
+	public void setServerName(String serverName) {
+		this.serverName = serverName;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public int getRoomCount() {
+		return rooms.size();
+	}
+
+	DatagramChannel getDatagramChannel() {
+		return datagramChannel;
+	}
+}
@@ -0,0 +1,146 @@
+package it.unical.igpe.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import it.unical.igpe.net.packet.Packet;
+import it.unical.igpe.net.packet.Packet.PacketTypes;
+import it.unical.igpe.net.packet.Packet12Discovery;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Finds the servers on the LAN: broadcasts one probe on every interface and
+ * on loopback, then collects the beacons of all the servers on one socket
+ * for GameConfig.DISCOVERY_WINDOW_MS. Every server is passed to the listener
+ * as soon as its beacon arrives. The probe is sent DISCOVERY_PROBES times
+ * within the window in case one is lost.
+ */
+public class ServerDiscovery extends Thread {
+	/**
+	 * Called on the discovery thread
+	 */
+	public interface Listener {
+		void serverFound(Server server);
+
+		void discoveryFinished(int found);
+	}
+
+	/**
+	 * A server that answered, as described by its beacon
+	 */
+	public static class Server {
+		public final InetAddress address;
+		public final int port;
+		public final String name, map;
+		public final int players, load;
+
+		Server(InetAddress address, int port, Packet12Discovery beacon) {
+			this.address = address;
+			this.port = port;
+			this.name = beacon.getName();
+			this.map = beacon.getMap();
+			this.players = beacon.getPlayers();
+			this.load = beacon.getLoad();
+		}
+
+		@Override
+		public String toString() {
+			return name + " - " + map + " (" + players + " players, " + load + "% load)";
+		}
+	}
+
+	private final int port;
+	private final Listener listener;
+
+	public ServerDiscovery(int port, Listener listener) {
+		super("ServerDiscovery");
+		this.port = port;
+		this.listener = listener;
+		setDaemon(true);
+	}
+
+	public void run() {
+		// A server on this machine answers from loopback and from its LAN
+		// addresses, it is listed once
+		Set<String> seen = new HashSet<String>();
+		DatagramSocket socket = null;
+		try {
+			socket = new DatagramSocket();
+			socket.setBroadcast(true);
+			List<InetAddress> targets = NetworkScanner.getBroadcastAddresses();
+			targets.add(InetAddress.getLoopbackAddress());
+			ByteBuffer probe = ByteBuffer.allocate(Packet.HEADER_SIZE + 1);
+			new Packet12Discovery().write(probe, 0);
+
+			byte[] buffer = new byte[GameConfig.SERVER_BUFFER_SIZE];
+			DatagramPacket received = new DatagramPacket(buffer, buffer.length);
+			long start = System.currentTimeMillis();
+			long end = start + GameConfig.DISCOVERY_WINDOW_MS;
+			int probes = 0;
+			long now;
+			while ((now = System.currentTimeMillis()) < end) {
+				long nextProbe = start + probes * GameConfig.DISCOVERY_WINDOW_MS / GameConfig.DISCOVERY_PROBES;
+				if (probes < GameConfig.DISCOVERY_PROBES && now >= nextProbe) {
+					probes++;
+					for (InetAddress target : targets)
+						send(socket, probe, target);
+					continue;
+				}
+				long wait = end - now;
+				if (probes < GameConfig.DISCOVERY_PROBES)
+					wait = Math.min(wait, nextProbe - now);
+				socket.setSoTimeout((int) Math.max(wait, 1));
+				try {
+					received.setLength(buffer.length);
+					socket.receive(received);
+				} catch (SocketTimeoutException e) {
+					continue;
+				}
+				Server server = readBeacon(received);
+				if (server == null)
+					continue;
+				String key = (NetworkScanner.isLocalAddress(server.address) ? "local" : server.address.getHostAddress())
+						+ ":" + server.port;
+				if (seen.add(key))
+					listener.serverFound(server);
+			}
+		} catch (IOException e) {
+			it.unical.igpe.utils.DebugUtils.showError("Server discovery failed", e);
+		} finally {
+			if (socket != null)
+				socket.close();
+			listener.discoveryFinished(seen.size());
+		}
+	}
+
+	private void send(DatagramSocket socket, ByteBuffer probe, InetAddress target) {
+		try {
+			socket.send(new DatagramPacket(probe.array(), probe.position(), target, port));
+		} catch (IOException e) {
+			// Interfaces without a route to the broadcast address
+			it.unical.igpe.utils.DebugUtils.showMessage("Discovery probe to " + target + " failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the server of a beacon, null if the datagram is not one
+	 */
+	private static Server readBeacon(DatagramPacket received) {
+		ByteBuffer data = ByteBuffer.wrap(received.getData(), received.getOffset(), received.getLength());
+		try {
+			if (Packet.readHeader(data) != PacketTypes.DISCOVERY)
+				return null;
+			Packet12Discovery beacon = new Packet12Discovery(data);
+			return beacon.isBeacon() ? new Server(received.getAddress(), received.getPort(), beacon) : null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package it.unical.igpe.net;
+
+import java.util.List;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.IntSet;
+import com.badlogic.gdx.utils.ObjectIntMap;
+
+import it.unical.igpe.logic.BulletPool;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Players and bullets of a MultiplayerWorld at one server tick, kept in
+ * parallel arrays so the server and the clients can hold a short history of
+ * ticks and encode one tick as the difference from another.
+ */
+public class WorldSnapshot {
+	public int tick = -1;
+
+	public int players;
+	public int[] ids, x, y, state, weapon, kills, deaths;
+	public float[] angle, hp;
+
+	/** Bullets are compared by id only, their position is sent once when they appear */
+	public int bullets;
+	public int[] bulletIds, bulletX, bulletY, bulletOwners;
+	public float[] bulletAngle, bulletDamage;
+	private final IntSet bulletSet = new IntSet();
+
+	private final ObjectIntMap<String> playerIds = new ObjectIntMap<String>();
+
+	public WorldSnapshot() {
+		allocatePlayers(8);
+		allocateBullets(32);
+	}
+
+	/**
+	 * Copy the state of the connected players and of the live bullets, at
+	 * most GameConfig.SNAPSHOT_MAX_BULLETS of them
+	 */
+	public void capture(int tick, List<PlayerMP> connected, BulletPool pool) {
+		clear(tick);
+		playerIds.clear();
+		for (int i = 0; i < connected.size(); i++) {
+			PlayerMP p = connected.get(i);
+			int index = addPlayer(p.id);
+			x[index] = (int) p.getBoundingBox().x;
+			y[index] = (int) p.getBoundingBox().y;
+			angle[index] = p.angle;
+			state[index] = p.state;
+			weapon[index] = p.getWeapon();
+			hp[index] = p.getHP();
+			kills[index] = p.kills;
+			deaths[index] = p.deaths;
+			playerIds.put(p.getUsername(), p.id);
+		}
+		int count = Math.min(pool.size, GameConfig.SNAPSHOT_MAX_BULLETS);
+		for (int i = 0; i < count; i++)
+			addBullet(pool.id[i], (int) pool.x[i], (int) pool.y[i], MathUtils.atan2(pool.dy[i], pool.dx[i]),
+					playerIds.get(pool.ownerName(pool.owner[i]), -1), pool.damage[i]);
+	}
+
+	public void clear(int tick) {
+		this.tick = tick;
+		players = 0;
+		bullets = 0;
+		bulletSet.clear();
+	}
+
+	public void set(WorldSnapshot other) {
+		clear(other.tick);
+		for (int i = 0; i < other.players; i++)
+			copyPlayer(other, i);
+		for (int i = 0; i < other.bullets; i++)
+			addBullet(other.bulletIds[i], other.bulletX[i], other.bulletY[i], other.bulletAngle[i],
+					other.bulletOwners[i], other.bulletDamage[i]);
+	}
+
+	/**
+	 * Add the player at index i of another snapshot with all its fields
+	 *
+	 * @return the index of the copy
+	 */
+	public int copyPlayer(WorldSnapshot other, int i) {
+		int index = addPlayer(other.ids[i]);
+		x[index] = other.x[i];
+		y[index] = other.y[i];
+		angle[index] = other.angle[i];
+		state[index] = other.state[i];
+		weapon[index] = other.weapon[i];
+		hp[index] = other.hp[i];
+		kills[index] = other.kills[i];
+		deaths[index] = other.deaths[i];
+		return index;
+	}
+
+	public int indexOfPlayer(int id) {
+		for (int i = 0; i < players; i++)
+			if (ids[i] == id)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return the index of the new player, its fields are zero
+	 */
+	public int addPlayer(int id) {
+		if (players == ids.length)
+			allocatePlayers(players * 2);
+		int i = players++;
+		ids[i] = id;
+		x[i] = y[i] = state[i] = weapon[i] = kills[i] = deaths[i] = 0;
+		angle[i] = hp[i] = 0;
+		return i;
+	}
+
+	public void removePlayer(int id) {
+		int i = indexOfPlayer(id);
+		if (i < 0)
+			return;
+		int last = --players;
+		ids[i] = ids[last];
+		x[i] = x[last];
+		y[i] = y[last];
+		angle[i] = angle[last];
+		state[i] = state[last];
+		weapon[i] = weapon[last];
+		hp[i] = hp[last];
+		kills[i] = kills[last];
+		deaths[i] = deaths[last];
+	}
+
+	public boolean hasBullet(int id) {
+		return bulletSet.contains(id);
+	}
+
+	public void addBullet(int id, int _x, int _y, float _angle, int owner, float damage) {
+		if (bullets == bulletIds.length)
+			allocateBullets(bullets * 2);
+		int i = bullets++;
+		bulletIds[i] = id;
+		bulletX[i] = _x;
+		bulletY[i] = _y;
+		bulletAngle[i] = _angle;
+		bulletOwners[i] = owner;
+		bulletDamage[i] = damage;
+		bulletSet.add(id);
+	}
+
+	public void removeBullet(int id) {
+		if (!bulletSet.remove(id))
+			return;
+		for (int i = 0; i < bullets; i++) {
+			if (bulletIds[i] == id) {
+				int last = --bullets;
+				bulletIds[i] = bulletIds[last];
+				bulletX[i] = bulletX[last];
+				bulletY[i] = bulletY[last];
+				bulletAngle[i] = bulletAngle[last];
+				bulletOwners[i] = bulletOwners[last];
+				bulletDamage[i] = bulletDamage[last];
+				return;
+			}
+		}
+	}
+
+	private void allocatePlayers(int capacity) {
+		ids = copy(ids, capacity, players);
+		x = copy(x, capacity, players);
+		y = copy(y, capacity, players);
+		state = copy(state, capacity, players);
+		weapon = copy(weapon, capacity, players);
+		kills = copy(kills, capacity, players);
+		deaths = copy(deaths, capacity, players);
+		angle = copy(angle, capacity, players);
+		hp = copy(hp, capacity, players);
+	}
+
+	private void allocateBullets(int capacity) {
+		bulletIds = copy(bulletIds, capacity, bullets);
+		bulletX = copy(bulletX, capacity, bullets);
+		bulletY = copy(bulletY, capacity, bullets);
+		bulletOwners = copy(bulletOwners, capacity, bullets);
+		bulletAngle = copy(bulletAngle, capacity, bullets);
+		bulletDamage = copy(bulletDamage, capacity, bullets);
+	}
+
+	private static int[] copy(int[] array, int capacity, int size) {
+		int[] result = new int[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+
+	private static float[] copy(float[] array, int capacity, int size) {
+		float[] result = new float[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+}
@@ -1,24 +1,59 @@
 package it.unical.igpe.net.packet;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
 
+/**
+ * Binary packet. Every datagram starts with a header of type (1 byte),
+ * sequence (2 bytes), payload length (2 bytes), ack (2 bytes) and ack bits
+ * (4 bytes), followed by the fields of the packet. The sequence and the acks
+ * are filled in by the ReliableChannel of the sender. Integers are written
+ * as zigzag varints, floats as 4 bytes and strings as a varint length
+ * followed by UTF-8 bytes.
+ */
 public abstract class Packet {
 
 	public static enum PacketTypes {
-		INVALID(-1), LOGIN(00), DISCONNECT(01), MOVE(02), FIRE(03), DEATH(04), GAMEOVER(05), MAPDATA(06);
+		INVALID(-1), LOGIN(00, true), DISCONNECT(01, true), MOVE(02), FIRE(03), DEATH(04, true), GAMEOVER(05, true),
+		MAPDATA(06), SNAPSHOT(07), MAPCHUNK(8), MAPACK(9), ACK(10), INPUT(11), DISCOVERY(12);
 
 		private int packetID;
+		private boolean reliable;
 
 		private PacketTypes(int packetID) {
+			this(packetID, false);
+		}
+
+		private PacketTypes(int packetID, boolean reliable) {
 			this.packetID = packetID;
+			this.reliable = reliable;
 		}
 
 		public int getID() {
 			return packetID;
 		}
+
+		/**
+		 * @return true if packets of this type are resent until acknowledged
+		 *         and delivered in order
+		 */
+		public boolean isReliable() {
+			return reliable;
+		}
 	}
 
+	public static final int SEQUENCE_OFFSET = 1;
+	public static final int ACK_OFFSET = 5;
+	public static final int ACK_BITS_OFFSET = 7;
+	public static final int HEADER_SIZE = 11;
+	/** Largest payload of a UDP datagram */
+	public static final int MAX_SIZE = 65507;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final PacketTypes[] types = PacketTypes.values();
+
 	public byte packetID;
 
 	public Packet(int packetID) {
@@ -26,32 +61,107 @@ public abstract class Packet {
 	}
 
 	public abstract void writeData(GameClient client);
-	
+
 	public abstract void writeData(GameServer server);
 
-	public String readData(byte[] data) {
-		String message = new String(data).trim();
-		return message.substring(2);
+	/**
+	 * Write the fields of the packet, the header is already written
+	 */
+	protected abstract void writePayload(ByteBuffer buffer);
+
+	/**
+	 * Write header and fields starting at the position of the buffer
+	 *
+	 * @param buffer
+	 * @param sequence
+	 *            number of the datagram for its sender
+	 */
+	public void write(ByteBuffer buffer, int sequence) {
+		int start = buffer.position();
+		buffer.put(packetID).putShort((short) sequence).putShort((short) 0).putShort((short) 0).putInt(0);
+		writePayload(buffer);
+		buffer.putShort(start + 3, (short) (buffer.position() - start - HEADER_SIZE));
+	}
+
+	/**
+	 * Read the header at the position of the buffer and limit the buffer to
+	 * the payload
+	 *
+	 * @return the type of the packet, INVALID if the header or the length do
+	 *         not fit in the received bytes
+	 */
+	public static PacketTypes readHeader(ByteBuffer buffer) {
+		if (buffer.remaining() < HEADER_SIZE)
+			return PacketTypes.INVALID;
+		int id = buffer.get();
+		buffer.getShort();
+		int length = buffer.getShort() & 0xFFFF;
+		buffer.getShort();
+		buffer.getInt();
+		if (length > buffer.remaining())
+			return PacketTypes.INVALID;
+		buffer.limit(buffer.position() + length);
+		return lookupPacket(id);
+	}
+
+	/**
+	 * @return the sequence number of the datagram starting at offset
+	 */
+	public static int getSequence(ByteBuffer buffer, int offset) {
+		return buffer.getShort(offset + SEQUENCE_OFFSET) & 0xFFFF;
 	}
-	
-	public abstract byte[] getData();
-	
+
+	public boolean isReliable() {
+		return lookupPacket(packetID).isReliable();
+	}
+
 	public static PacketTypes lookupPacket(int id) {
-		for(PacketTypes p : PacketTypes.values()) {
-			if(p.getID() == id) {
+		for (PacketTypes p : types) {
+			if (p.getID() == id) {
 				return p;
 			}
 		}
 		return PacketTypes.INVALID;
 	}
 
-	public static PacketTypes lookupPacket(String packetID) {
-		try {
-			return lookupPacket(Integer.parseInt(packetID));
-		} catch (NumberFormatException e) {
-			return PacketTypes.INVALID;
+	protected static void writeVarInt(ByteBuffer buffer, int value) {
+		int v = (value << 1) ^ (value >> 31);
+		while ((v & ~0x7F) != 0) {
+			buffer.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	protected static int readVarInt(ByteBuffer buffer) {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return (v >>> 1) ^ -(v & 1);
 		}
-		
+		throw new IllegalArgumentException("Invalid packet data: varint too long");
 	}
-	
-}
\ No newline at end of file
+
+	protected static void writeString(ByteBuffer buffer, String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		writeVarInt(buffer, bytes.length);
+		buffer.put(bytes);
+	}
+
+	protected static String readString(ByteBuffer buffer) {
+		int length = readVarInt(buffer);
+		if (length < 0 || length > buffer.remaining())
+			throw new IllegalArgumentException("Invalid packet data: string of " + length + " bytes");
+		if (buffer.hasArray()) {
+			String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+			buffer.position(buffer.position() + length);
+			return value;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+}
@@ -1,26 +1,37 @@
 package it.unical.igpe.net.packet;
 
+import java.nio.ByteBuffer;
+
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
 
 public class Packet00Login extends Packet{
 	
 	private String username;
-	private int x, y;
+	private int id, x, y;
+	/** Room to join on a server hosting many matches, empty for any */
+	private String room = "";
 
-	public Packet00Login(byte[] data) {
+	public Packet00Login(ByteBuffer data) {
 		super(00);
-		String[] dataArray = readData(data).split(",");
-		if (dataArray.length < 3) {
-			throw new IllegalArgumentException("Invalid packet data: expected 3 fields, got " + dataArray.length);
-		}
-		this.username = dataArray[0];
-		this.x = Integer.parseInt(dataArray[1]);
-		this.y = Integer.parseInt(dataArray[2]);
+		this.id = readVarInt(data);
+		this.username = readString(data);
+		this.x = readVarInt(data);
+		this.y = readVarInt(data);
+		this.room = readString(data);
 	}
 	
 	public Packet00Login(String username, int x, int y) {
+		this(-1, username, x, y);
+	}
+
+	/**
+	 * @param id
+	 *            assigned by the server, -1 when the client logs in
+	 */
+	public Packet00Login(int id, String username, int x, int y) {
 		super(00);
+		this.id = id;
 		this.username = username;
 		this.x = x;
 		this.y = y;
@@ -28,22 +39,34 @@ public class Packet00Login extends Packet{
 
 	@Override
 	public void writeData(GameClient client) {
-		client.sendData(getData());
+		client.sendData(this);
 	}
 
 	@Override
 	public void writeData(GameServer server) {
-		server.sendDataToAllClients(getData());
+		server.sendDataToAllClients(this);
 	}
 
 	@Override
-	public byte[] getData() {
-		return ("00" + this.username + "," + this.x + "," + this.y).getBytes();
+	protected void writePayload(ByteBuffer buffer) {
+		writeVarInt(buffer, id);
+		writeString(buffer, username);
+		writeVarInt(buffer, x);
+		writeVarInt(buffer, y);
+		writeString(buffer, room);
 	}
 
 	public String getUsername() {
 		return username;
 	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
 	
 	public int getX() {
 		return x;
@@ -53,4 +76,12 @@ public class Packet00Login extends Packet{
 		return y;
 	}
 
+	public String getRoom() {
+		return room;
+	}
+
+	public void setRoom(String room) {
+		this.room = room;
+	}
+
 }
@@ -1,5 +1,7 @@
 package it.unical.igpe.net.packet;
 
+import java.nio.ByteBuffer;
+
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
 
@@ -7,9 +9,9 @@ public class Packet01Disconnect extends Packet{
 
 	private String username;
 
-    public Packet01Disconnect(byte[] data) {
+    public Packet01Disconnect(ByteBuffer data) {
         super(01);
-        this.username = readData(data);
+        this.username = readString(data);
     }
 
     public Packet01Disconnect(String username) {
@@ -19,21 +21,20 @@ public class Packet01Disconnect extends Packet{
 
     @Override
     public void writeData(GameClient client) {
-        client.sendData(getData());
+        client.sendData(this);
     }
 
     @Override
     public void writeData(GameServer server) {
-        server.sendDataToAllClients(getData());
+        server.sendDataToAllClients(this);
     }
 
     @Override
-    public byte[] getData() {
-        return ("01" + this.username).getBytes();
+    protected void writePayload(ByteBuffer buffer) {
+        writeString(buffer, username);
     }
 
     public String getUsername() {
         return username;
     }
-
 }
\ No newline at end of file
@@ -1,56 +1,73 @@
 package it.unical.igpe.net.packet;
 
+import java.nio.ByteBuffer;
+
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
 
 public class Packet02Move extends Packet {
 
-	private String username;
-	private int x, y, state, weapon;
+	private int id, x, y, state, weapon, ack;
 	private float angle;
 
-	public Packet02Move(byte[] data) {
+	public Packet02Move(ByteBuffer data) {
 		super(02);
-		String[] dataArray = readData(data).split(",");
-		if (dataArray.length < 6) {
-			throw new IllegalArgumentException("Invalid packet data: expected 6 fields, got " + dataArray.length);
-		}
-		this.username = dataArray[0];
-		this.x = Integer.parseInt(dataArray[1]);
-		this.y = Integer.parseInt(dataArray[2]);
-		this.angle = Float.parseFloat(dataArray[3]);
-		this.state = Integer.parseInt(dataArray[4]);
-		this.weapon = Integer.parseInt(dataArray[5]);
+		this.id = readVarInt(data);
+		this.x = readVarInt(data);
+		this.y = readVarInt(data);
+		this.angle = data.getFloat();
+		this.state = data.get();
+		this.weapon = data.get();
+		this.ack = readVarInt(data);
 	}
 
-	public Packet02Move(String username, int x, int y, float angle, int state, int weapon) {
+	/**
+	 * @param id
+	 *            the id the server gave to the player at login
+	 * @param ack
+	 *            last snapshot tick received, -1 if none
+	 */
+	public Packet02Move(int id, int x, int y, float angle, int state, int weapon, int ack) {
 		super(02);
-		this.username = username;
+		set(id, x, y, angle, state, weapon, ack);
+	}
+
+	/**
+	 * Reuse the packet for the next move
+	 */
+	public void set(int id, int x, int y, float angle, int state, int weapon, int ack) {
+		this.id = id;
 		this.x = x;
 		this.y = y;
 		this.angle = angle;
 		this.state = state;
 		this.weapon = weapon;
+		this.ack = ack;
 	}
 
 	@Override
 	public void writeData(GameClient client) {
-		client.sendData(getData());
+		client.sendData(this);
 	}
 
 	@Override
 	public void writeData(GameServer server) {
-		server.sendDataToAllClients(getData());
+		server.sendDataToAllClients(this);
 	}
 
 	@Override
-	public byte[] getData() {
-		return ("02" + this.username + "," + this.x + "," + this.y + "," + this.angle + "," + this.state + ","
-				+ this.weapon).getBytes();
+	protected void writePayload(ByteBuffer buffer) {
+		writeVarInt(buffer, id);
+		writeVarInt(buffer, x);
+		writeVarInt(buffer, y);
+		buffer.putFloat(angle);
+		buffer.put((byte) state);
+		buffer.put((byte) weapon);
+		writeVarInt(buffer, ack);
 	}
 
-	public String getUsername() {
-		return username;
+	public int getId() {
+		return id;
 	}
 
 	public int getX() {
@@ -73,4 +90,11 @@ public class Packet02Move extends Packet {
 		return this.weapon;
 	}
 
+	/**
+	 * @return the last snapshot tick the sender received
+	 */
+	public int getAck() {
+		return this.ack;
+	}
+
 }
@@ -1,53 +1,75 @@
 package it.unical.igpe.net.packet;
 
+import java.nio.ByteBuffer;
+
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
 
+/**
+ * A shot of a player. The client also sends the last snapshot tick it
+ * received and how far in the past it draws the other players, so an
+ * authoritative server can check the shot against what the shooter saw.
+ */
 public class Packet03Fire extends Packet{
 	
-	private String username;
-	private int x, y, weapon;
+	private int id, x, y, weapon, tick, delay;
 	private float angle;
 
-	public Packet03Fire(byte[] data) {
+	public Packet03Fire(ByteBuffer data) {
 		super(03);
-		String[] dataArray = readData(data).split(",");
-		if (dataArray.length < 5) {
-			throw new IllegalArgumentException("Invalid packet data: expected 5 fields, got " + dataArray.length);
-		}
-		this.username = dataArray[0];
-		this.x = Integer.parseInt(dataArray[1]);
-		this.y = Integer.parseInt(dataArray[2]);
-		this.angle = Float.parseFloat(dataArray[3]);
-		this.weapon = Integer.parseInt(dataArray[4]);
+		this.id = readVarInt(data);
+		this.x = readVarInt(data);
+		this.y = readVarInt(data);
+		this.angle = data.getFloat();
+		this.weapon = data.get();
+		this.tick = readVarInt(data);
+		this.delay = readVarInt(data);
 	}
 	
-	public Packet03Fire(String username, int x, int y, float angle, int weapon) {
+	public Packet03Fire(int id, int x, int y, float angle, int weapon) {
+		this(id, x, y, angle, weapon, -1, 0);
+	}
+
+	/**
+	 * @param tick
+	 *            last snapshot tick received, -1 if none
+	 * @param delay
+	 *            milliseconds the other players are drawn in the past
+	 */
+	public Packet03Fire(int id, int x, int y, float angle, int weapon, int tick, int delay) {
 		super(03);
-		this.username = username;
+		this.id = id;
 		this.x = x;
 		this.y = y;
 		this.angle = angle;
 		this.weapon = weapon;
+		this.tick = tick;
+		this.delay = delay;
 	}
 
 	@Override
 	public void writeData(GameClient client) {
-		client.sendData(getData());
+		client.sendData(this);
 	}
 
 	@Override
 	public void writeData(GameServer server) {
-		server.sendDataToAllClients(getData());
+		server.sendDataToAllClients(this);
 	}
 
 	@Override
-	public byte[] getData() {
-		return ("03" + this.username + "," + this.x + "," + this.y + "," + this.angle +"," + this.weapon).getBytes();
+	protected void writePayload(ByteBuffer buffer) {
+		writeVarInt(buffer, id);
+		writeVarInt(buffer, x);
+		writeVarInt(buffer, y);
+		buffer.putFloat(angle);
+		buffer.put((byte) weapon);
+		writeVarInt(buffer, tick);
+		writeVarInt(buffer, delay);
 	}
 	
-	public String getUsername() {
-		return username;
+	public int getId() {
+		return id;
 	}
 	
 	public int getX() {
@@ -66,4 +88,12 @@ public class Packet03Fire extends Packet{
 		return this.weapon;
 	}
 
+	public int getTick() {
+		return tick;
+	}
+
+	public int getDelay() {
+		return delay;
+	}
+
 }
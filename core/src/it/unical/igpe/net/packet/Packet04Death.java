@@ -1,5 +1,7 @@
 package it.unical.igpe.net.packet;
 
+import java.nio.ByteBuffer;
+
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
 
@@ -8,14 +10,10 @@ public class Packet04Death extends Packet{
 	private String usernameKiller;
 	private String usernameKilled;
 
-	public Packet04Death(byte[] data) {
+	public Packet04Death(ByteBuffer data) {
 		super(04);
-		String[] dataArray = readData(data).split(",");
-		if (dataArray.length < 2) {
-			throw new IllegalArgumentException("Invalid packet data: expected 2 fields, got " + dataArray.length);
-		}
-		this.usernameKiller = dataArray[0];
-		this.usernameKilled = dataArray[1];
+		this.usernameKiller = readString(data);
+		this.usernameKilled = readString(data);
 	}
 	
 	public Packet04Death(String usernameKiller, String usernameKilled) {
@@ -26,17 +24,18 @@ public class Packet04Death extends Packet{
 
 	@Override
 	public void writeData(GameClient client) {
-		client.sendData(getData());
+		client.sendData(this);
 	}
 
 	@Override
 	public void writeData(GameServer server) {
-		server.sendDataToAllClients(getData());
+		server.sendDataToAllClients(this);
 	}
 
 	@Override
-	public byte[] getData() {
-		return ("04" + this.usernameKiller + "," + this.usernameKilled).getBytes();
+	protected void writePayload(ByteBuffer buffer) {
+		writeString(buffer, usernameKiller);
+		writeString(buffer, usernameKilled);
 	}
 
 	public String getUsernameKiller() {
@@ -1,5 +1,7 @@
 package it.unical.igpe.net.packet;
 
+import java.nio.ByteBuffer;
+
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
 
@@ -7,14 +9,10 @@ public class Packet05GameOver extends Packet {
 	private String usernameWinner;
 	private int killsWinner;
 
-	public Packet05GameOver(byte[] data) {
+	public Packet05GameOver(ByteBuffer data) {
 		super(05);
-		String[] dataArray = readData(data).split(",");
-		if (dataArray.length < 2) {
-			throw new IllegalArgumentException("Invalid packet data: expected 2 fields, got " + dataArray.length);
-		}
-		this.usernameWinner = dataArray[0];
-		this.killsWinner = Integer.parseInt(dataArray[1]);
+		this.usernameWinner = readString(data);
+		this.killsWinner = readVarInt(data);
 	}
 	
 	public Packet05GameOver(String usernameWinner, int killsWinner) {
@@ -25,17 +23,18 @@ public class Packet05GameOver extends Packet {
 
 	@Override
 	public void writeData(GameClient client) {
-		client.sendData(getData());
+		client.sendData(this);
 	}
 
 	@Override
 	public void writeData(GameServer server) {
-		server.sendDataToAllClients(getData());
+		server.sendDataToAllClients(this);
 	}
 
 	@Override
-	public byte[] getData() {
-		return ("05" + this.usernameWinner + "," + this.killsWinner).getBytes();
+	protected void writePayload(ByteBuffer buffer) {
+		writeString(buffer, usernameWinner);
+		writeVarInt(buffer, killsWinner);
 	}
 
 	public String getUsernameWinner() {
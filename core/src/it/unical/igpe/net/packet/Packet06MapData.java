@@ -1,72 +1,111 @@
 package it.unical.igpe.net.packet;
 
+import java.nio.ByteBuffer;
+
 import it.unical.igpe.net.GameClient;
 import it.unical.igpe.net.GameServer;
+import it.unical.igpe.utils.GameConfig;
 
 /**
- * Packet to send map data from server to clients
- * Format: 06,mapName,mapContent
- * mapContent is the actual map file content (base64 encoded if needed, or raw)
+ * Packet to offer the map from server to clients
+ * Format: mapName, then a flag byte and, when the map is not in the client
+ * assets, the checksum and length of its content and the number of
+ * compressed chunks that follow as Packet08MapChunk
  */
 public class Packet06MapData extends Packet {
 	
 	private String mapName;
-	private String mapContent;
+	private boolean custom;
+	private int hash, length, chunks;
 
-	public Packet06MapData(byte[] data) {
+	public Packet06MapData(ByteBuffer data) {
 		super(06);
-		String dataStr = readData(data);
-		// Format: mapName|||mapContent or just mapName (for backwards compatibility)
-		if (dataStr.contains("|||")) {
-			String[] parts = dataStr.split("\\|\\|\\|", 2);
-			this.mapName = parts[0];
-			this.mapContent = parts.length > 1 ? parts[1] : null;
-		} else {
-			// Backwards compatibility: just map name
-			this.mapName = dataStr;
-			this.mapContent = null;
+		this.mapName = readString(data);
+		this.custom = data.get() != 0;
+		if (custom) {
+			this.hash = data.getInt();
+			this.length = readVarInt(data);
+			this.chunks = readVarInt(data);
+			// The client allocates the download from these
+			if (length < 0 || length > GameConfig.MAP_MAX_BYTES || chunks < 0 || chunks > maxChunks(length))
+				throw new IllegalArgumentException("Invalid packet data: map of " + length + " bytes in " + chunks
+						+ " chunks");
 		}
 	}
+
+	/**
+	 * @return the chunks of the longest deflate stream of a map of length
+	 *         bytes: stored blocks of at most 65535 bytes with a 5 byte header,
+	 *         plus the 6 bytes of the zlib header and checksum
+	 */
+	public static int maxChunks(int length) {
+		long compressed = length + 5L * (length / 65535 + 1) + 6;
+		return (int) ((compressed + GameConfig.MAP_CHUNK_SIZE - 1) / GameConfig.MAP_CHUNK_SIZE);
+	}
 	
 	public Packet06MapData(String mapName) {
 		super(06);
 		this.mapName = mapName;
-		this.mapContent = null;
+		this.custom = false;
 	}
 	
-	public Packet06MapData(String mapName, String mapContent) {
+	/**
+	 * @param hash
+	 *            CRC32 of the map content
+	 * @param length
+	 *            bytes of the map content before compression
+	 */
+	public Packet06MapData(String mapName, int hash, int length, int chunks) {
 		super(06);
 		this.mapName = mapName;
-		this.mapContent = mapContent;
+		this.custom = true;
+		this.hash = hash;
+		this.length = length;
+		this.chunks = chunks;
 	}
 
 	@Override
 	public void writeData(GameClient client) {
-		client.sendData(getData());
+		client.sendData(this);
 	}
 
 	@Override
 	public void writeData(GameServer server) {
-		server.sendDataToAllClients(getData());
+		server.sendDataToAllClients(this);
 	}
 
 	@Override
-	public byte[] getData() {
-		if (mapContent != null) {
-			// Send map name and content, using a separator that won't appear in map data
-			// Use a special separator like ||| to split name and content
-			return ("06" + this.mapName + "|||" + this.mapContent).getBytes();
-		} else {
-			// Backwards compatibility: just map name
-			return ("06" + this.mapName).getBytes();
+	protected void writePayload(ByteBuffer buffer) {
+		writeString(buffer, mapName);
+		buffer.put((byte) (custom ? 1 : 0));
+		if (custom) {
+			buffer.putInt(hash);
+			writeVarInt(buffer, length);
+			writeVarInt(buffer, chunks);
 		}
 	}
 
 	public String getMapName() {
 		return mapName;
 	}
-	
-	public String getMapContent() {
-		return mapContent;
+
+	/**
+	 * @return true if the content follows in chunks, false if the client
+	 *         loads the map from its assets
+	 */
+	public boolean isCustom() {
+		return custom;
+	}
+
+	public int getHash() {
+		return hash;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getChunks() {
+		return chunks;
 	}
 }
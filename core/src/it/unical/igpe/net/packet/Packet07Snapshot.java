@@ -0,0 +1,250 @@
+package it.unical.igpe.net.packet;
+
+import java.nio.ByteBuffer;
+
+import it.unical.igpe.net.GameClient;
+import it.unical.igpe.net.GameServer;
+import it.unical.igpe.net.WorldSnapshot;
+
+/**
+ * State of the world at one server tick, sent by an authoritative server to
+ * each client as the difference from the last tick that client acknowledged.
+ * Only the changed fields of a player are written, positions as offsets from
+ * the base, and bullets are written once when they appear and by id when they
+ * disappear. A base tick of -1 means the whole state follows. The header also
+ * carries the last input frame of the receiving client the server applied.
+ */
+public class Packet07Snapshot extends Packet {
+	public static final int NO_BASE = -1;
+
+	private static final int X = 1, Y = 2, ANGLE = 4, STATE = 8, WEAPON = 16, HP = 32, KILLS = 64, DEATHS = 128;
+	private static final int ALL = 255;
+
+	private int tick;
+	private int baseTick;
+	private int inputAck;
+	private WorldSnapshot current, base;
+	private ByteBuffer data;
+
+	/**
+	 * Read the ticks, the rest of the payload is read by readInto before the
+	 * next datagram is received in the same buffer
+	 */
+	public Packet07Snapshot(ByteBuffer data) {
+		super(07);
+		this.tick = readVarInt(data);
+		this.baseTick = readVarInt(data);
+		this.inputAck = readVarInt(data);
+		this.data = data;
+	}
+
+	public Packet07Snapshot() {
+		super(07);
+	}
+
+	/**
+	 * Reuse the packet for another client or tick
+	 *
+	 * @param base
+	 *            state acknowledged by the client, null to send everything
+	 * @param inputAck
+	 *            last input frame of the client applied, -1 if none
+	 */
+	public void set(WorldSnapshot current, WorldSnapshot base, int inputAck) {
+		this.current = current;
+		this.base = base;
+		this.tick = current.tick;
+		this.baseTick = base == null ? NO_BASE : base.tick;
+		this.inputAck = inputAck;
+	}
+
+	@Override
+	public void writeData(GameClient client) {
+		client.sendData(this);
+	}
+
+	@Override
+	public void writeData(GameServer server) {
+		server.sendDataToAllClients(this);
+	}
+
+	@Override
+	protected void writePayload(ByteBuffer buffer) {
+		writeVarInt(buffer, tick);
+		writeVarInt(buffer, baseTick);
+		writeVarInt(buffer, inputAck);
+
+		// Changed players, with a mask of the fields that follow
+		int countAt = buffer.position();
+		int changed = 0;
+		buffer.put((byte) 0);
+		for (int i = 0; i < current.players; i++) {
+			int b = base == null ? -1 : base.indexOfPlayer(current.ids[i]);
+			int mask = b < 0 ? ALL : changes(i, b);
+			if (mask == 0)
+				continue;
+			changed++;
+			writeVarInt(buffer, current.ids[i]);
+			buffer.put((byte) mask);
+			if ((mask & X) != 0)
+				writeVarInt(buffer, current.x[i] - (b < 0 ? 0 : base.x[b]));
+			if ((mask & Y) != 0)
+				writeVarInt(buffer, current.y[i] - (b < 0 ? 0 : base.y[b]));
+			if ((mask & ANGLE) != 0)
+				buffer.putFloat(current.angle[i]);
+			if ((mask & STATE) != 0)
+				buffer.put((byte) current.state[i]);
+			if ((mask & WEAPON) != 0)
+				buffer.put((byte) current.weapon[i]);
+			if ((mask & HP) != 0)
+				buffer.putFloat(current.hp[i]);
+			if ((mask & KILLS) != 0)
+				writeVarInt(buffer, current.kills[i]);
+			if ((mask & DEATHS) != 0)
+				writeVarInt(buffer, current.deaths[i]);
+		}
+		// Player counts are small, one byte is enough
+		buffer.put(countAt, (byte) changed);
+
+		// Players gone since the base
+		countAt = buffer.position();
+		changed = 0;
+		buffer.put((byte) 0);
+		if (base != null)
+			for (int b = 0; b < base.players; b++)
+				if (current.indexOfPlayer(base.ids[b]) < 0) {
+					writeVarInt(buffer, base.ids[b]);
+					changed++;
+				}
+		buffer.put(countAt, (byte) changed);
+
+		// New bullets
+		changed = 0;
+		for (int i = 0; i < current.bullets; i++)
+			if (base == null || !base.hasBullet(current.bulletIds[i]))
+				changed++;
+		writeVarInt(buffer, changed);
+		for (int i = 0; i < current.bullets; i++) {
+			if (base != null && base.hasBullet(current.bulletIds[i]))
+				continue;
+			writeVarInt(buffer, current.bulletIds[i]);
+			writeVarInt(buffer, current.bulletX[i]);
+			writeVarInt(buffer, current.bulletY[i]);
+			buffer.putFloat(current.bulletAngle[i]);
+			writeVarInt(buffer, current.bulletOwners[i]);
+			buffer.putFloat(current.bulletDamage[i]);
+		}
+
+		// Bullets gone since the base
+		changed = 0;
+		if (base != null)
+			for (int b = 0; b < base.bullets; b++)
+				if (!current.hasBullet(base.bulletIds[b]))
+					changed++;
+		writeVarInt(buffer, changed);
+		if (base != null)
+			for (int b = 0; b < base.bullets; b++)
+				if (!current.hasBullet(base.bulletIds[b]))
+					writeVarInt(buffer, base.bulletIds[b]);
+	}
+
+	private int changes(int i, int b) {
+		int mask = 0;
+		if (current.x[i] != base.x[b])
+			mask |= X;
+		if (current.y[i] != base.y[b])
+			mask |= Y;
+		if (current.angle[i] != base.angle[b])
+			mask |= ANGLE;
+		if (current.state[i] != base.state[b])
+			mask |= STATE;
+		if (current.weapon[i] != base.weapon[b])
+			mask |= WEAPON;
+		if (current.hp[i] != base.hp[b])
+			mask |= HP;
+		if (current.kills[i] != base.kills[b])
+			mask |= KILLS;
+		if (current.deaths[i] != base.deaths[b])
+			mask |= DEATHS;
+		return mask;
+	}
+
+	/**
+	 * Rebuild the state of the tick from the base it was encoded against
+	 *
+	 * @param base
+	 *            state of getBaseTick(), ignored for a full snapshot
+	 */
+	public void readInto(WorldSnapshot base, WorldSnapshot out) {
+		if (baseTick == NO_BASE)
+			out.clear(tick);
+		else {
+			out.set(base);
+			out.tick = tick;
+		}
+
+		int count = data.get() & 0xFF;
+		for (int n = 0; n < count; n++) {
+			int id = readVarInt(data);
+			int mask = data.get() & 0xFF;
+			int i = out.indexOfPlayer(id);
+			if (i < 0)
+				i = out.addPlayer(id);
+			if ((mask & X) != 0)
+				out.x[i] += readVarInt(data);
+			if ((mask & Y) != 0)
+				out.y[i] += readVarInt(data);
+			if ((mask & ANGLE) != 0)
+				out.angle[i] = data.getFloat();
+			if ((mask & STATE) != 0)
+				out.state[i] = data.get();
+			if ((mask & WEAPON) != 0)
+				out.weapon[i] = data.get();
+			if ((mask & HP) != 0)
+				out.hp[i] = data.getFloat();
+			if ((mask & KILLS) != 0)
+				out.kills[i] = readVarInt(data);
+			if ((mask & DEATHS) != 0)
+				out.deaths[i] = readVarInt(data);
+		}
+
+		count = data.get() & 0xFF;
+		for (int n = 0; n < count; n++)
+			out.removePlayer(readVarInt(data));
+
+		count = readVarInt(data);
+		if (count < 0 || count > data.remaining())
+			throw new IllegalArgumentException("Invalid packet data: " + count + " bullets");
+		for (int n = 0; n < count; n++) {
+			int id = readVarInt(data);
+			int x = readVarInt(data);
+			int y = readVarInt(data);
+			float angle = data.getFloat();
+			int owner = readVarInt(data);
+			out.addBullet(id, x, y, angle, owner, data.getFloat());
+		}
+
+		count = readVarInt(data);
+		for (int n = 0; n < count; n++)
+			out.removeBullet(readVarInt(data));
+	}
+
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return the tick this snapshot is encoded against, NO_BASE if it is full
+	 */
+	public int getBaseTick() {
+		return baseTick;
+	}
+
+	/**
+	 * @return the sequence of the last input frame of this client the server
+	 *         applied, -1 if none
+	 */
+	public int getInputAck() {
+		return inputAck;
+	}
+}
@@ -0,0 +1,72 @@
+package it.unical.igpe.net.packet;
+
+import java.nio.ByteBuffer;
+
+import it.unical.igpe.net.GameClient;
+import it.unical.igpe.net.GameServer;
+
+/**
+ * One piece of the compressed map content offered with Packet06MapData
+ */
+public class Packet08MapChunk extends Packet {
+
+	private int hash, index;
+	private byte[] data;
+	private int offset, length;
+
+	public Packet08MapChunk(ByteBuffer data) {
+		super(8);
+		this.hash = data.getInt();
+		this.index = readVarInt(data);
+		this.length = readVarInt(data);
+		if (index < 0 || length < 0 || length > data.remaining())
+			throw new IllegalArgumentException("Invalid packet data: chunk " + index + " of " + length + " bytes");
+		this.data = new byte[length];
+		data.get(this.data);
+	}
+
+	public Packet08MapChunk() {
+		super(8);
+	}
+
+	/**
+	 * Reuse the packet for another chunk, the bytes are not copied
+	 */
+	public void set(int hash, int index, byte[] data, int offset, int length) {
+		this.hash = hash;
+		this.index = index;
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public void writeData(GameClient client) {
+		client.sendData(this);
+	}
+
+	@Override
+	public void writeData(GameServer server) {
+		server.sendDataToAllClients(this);
+	}
+
+	@Override
+	protected void writePayload(ByteBuffer buffer) {
+		buffer.putInt(hash);
+		writeVarInt(buffer, index);
+		writeVarInt(buffer, length);
+		buffer.put(data, offset, length);
+	}
+
+	public int getHash() {
+		return hash;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+}
@@ -0,0 +1,77 @@
+package it.unical.igpe.net.packet;
+
+import java.nio.ByteBuffer;
+
+import it.unical.igpe.net.GameClient;
+import it.unical.igpe.net.GameServer;
+
+/**
+ * Chunks of the offered map a client holds, as one bit per chunk. Sent on
+ * the offer, so a client resuming a download only gets the missing chunks,
+ * and on every chunk received.
+ */
+public class Packet09MapAck extends Packet {
+
+	private int hash, chunks;
+	private boolean[] received;
+
+	public Packet09MapAck(ByteBuffer data) {
+		super(9);
+		this.hash = data.getInt();
+		this.chunks = readVarInt(data);
+		if (chunks < 0 || (chunks + 7) / 8 > data.remaining())
+			throw new IllegalArgumentException("Invalid packet data: " + chunks + " chunks");
+		this.received = new boolean[chunks];
+		for (int i = 0; i < chunks; i += 8) {
+			int bits = data.get();
+			for (int j = 0; j < 8 && i + j < chunks; j++)
+				received[i + j] = (bits & (1 << j)) != 0;
+		}
+	}
+
+	/**
+	 * @param received
+	 *            one flag per chunk, null when all chunks are held
+	 */
+	public Packet09MapAck(int hash, int chunks, boolean[] received) {
+		super(9);
+		this.hash = hash;
+		this.chunks = chunks;
+		this.received = received;
+	}
+
+	@Override
+	public void writeData(GameClient client) {
+		client.sendData(this);
+	}
+
+	@Override
+	public void writeData(GameServer server) {
+		server.sendDataToAllClients(this);
+	}
+
+	@Override
+	protected void writePayload(ByteBuffer buffer) {
+		buffer.putInt(hash);
+		writeVarInt(buffer, chunks);
+		for (int i = 0; i < chunks; i += 8) {
+			int bits = 0;
+			for (int j = 0; j < 8 && i + j < chunks; j++)
+				if (received == null || received[i + j])
+					bits |= 1 << j;
+			buffer.put((byte) bits);
+		}
+	}
+
+	public int getHash() {
+		return hash;
+	}
+
+	public int getChunks() {
+		return chunks;
+	}
+
+	public boolean isReceived(int chunk) {
+		return received[chunk];
+	}
+}
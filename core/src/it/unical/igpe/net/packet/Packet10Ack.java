@@ -0,0 +1,31 @@
+package it.unical.igpe.net.packet;
+
+import java.nio.ByteBuffer;
+
+import it.unical.igpe.net.GameClient;
+import it.unical.igpe.net.GameServer;
+
+/**
+ * Empty packet sent when reliable packets arrived and no other packet
+ * carries their ack back soon, the acks are in the header
+ */
+public class Packet10Ack extends Packet {
+
+	public Packet10Ack() {
+		super(10);
+	}
+
+	@Override
+	public void writeData(GameClient client) {
+		client.sendData(this);
+	}
+
+	@Override
+	public void writeData(GameServer server) {
+		server.sendDataToAllClients(this);
+	}
+
+	@Override
+	protected void writePayload(ByteBuffer buffer) {
+	}
+}
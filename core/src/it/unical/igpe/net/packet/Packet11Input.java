@@ -0,0 +1,126 @@
+package it.unical.igpe.net.packet;
+
+import java.nio.ByteBuffer;
+
+import it.unical.igpe.net.GameClient;
+import it.unical.igpe.net.GameServer;
+import it.unical.igpe.net.InputHistory;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Input of the local player sent every frame to an authoritative server in
+ * place of Packet02Move. Movement frames are numbered and the newest ones not
+ * acknowledged are repeated in every packet, so a lost datagram is covered by
+ * the next; the server applies each frame once.
+ * Format: id, snapshot ack, angle, state, weapon, sequence of the newest
+ * frame, frame count, then for each frame oldest first the movement on x and
+ * y in hundredths of the speed and the milliseconds it lasted.
+ */
+public class Packet11Input extends Packet {
+
+	private int id, ack, state, weapon, lastSequence, count;
+	private float angle;
+	private final byte[] frames = new byte[GameConfig.INPUT_REDUNDANCY * 3];
+
+	public Packet11Input(ByteBuffer data) {
+		super(11);
+		this.id = readVarInt(data);
+		this.ack = readVarInt(data);
+		this.angle = data.getFloat();
+		this.state = data.get();
+		this.weapon = data.get();
+		this.lastSequence = readVarInt(data);
+		this.count = data.get() & 0xFF;
+		if (count > GameConfig.INPUT_REDUNDANCY)
+			throw new IllegalArgumentException("Invalid packet data: " + count + " input frames");
+		data.get(frames, 0, count * 3);
+	}
+
+	public Packet11Input() {
+		super(11);
+	}
+
+	/**
+	 * Reuse the packet for the next frame
+	 *
+	 * @param ack
+	 *            last snapshot tick received, -1 if none
+	 */
+	public void set(int id, int ack, float angle, int state, int weapon, InputHistory history) {
+		this.id = id;
+		this.ack = ack;
+		this.angle = angle;
+		this.state = state;
+		this.weapon = weapon;
+		this.lastSequence = history.getLastSequence();
+		this.count = Math.min(history.size(), GameConfig.INPUT_REDUNDANCY);
+		int start = history.size() - count;
+		for (int i = 0; i < count; i++) {
+			frames[i * 3] = (byte) history.getMoveX(start + i);
+			frames[i * 3 + 1] = (byte) history.getMoveY(start + i);
+			frames[i * 3 + 2] = (byte) history.getDeltaMs(start + i);
+		}
+	}
+
+	@Override
+	public void writeData(GameClient client) {
+		client.sendData(this);
+	}
+
+	@Override
+	public void writeData(GameServer server) {
+		server.sendDataToAllClients(this);
+	}
+
+	@Override
+	protected void writePayload(ByteBuffer buffer) {
+		writeVarInt(buffer, id);
+		writeVarInt(buffer, ack);
+		buffer.putFloat(angle);
+		buffer.put((byte) state);
+		buffer.put((byte) weapon);
+		writeVarInt(buffer, lastSequence);
+		buffer.put((byte) count);
+		buffer.put(frames, 0, count * 3);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getAck() {
+		return ack;
+	}
+
+	public float getAngle() {
+		return angle;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	public int getWeapon() {
+		return weapon;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getSequence(int frame) {
+		return lastSequence - (count - 1 - frame);
+	}
+
+	public int getMoveX(int frame) {
+		return frames[frame * 3];
+	}
+
+	public int getMoveY(int frame) {
+		return frames[frame * 3 + 1];
+	}
+
+	public int getDeltaMs(int frame) {
+		return frames[frame * 3 + 2] & 0xFF;
+	}
+}
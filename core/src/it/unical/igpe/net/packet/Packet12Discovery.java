@@ -0,0 +1,104 @@
+package it.unical.igpe.net.packet;
+
+import java.nio.ByteBuffer;
+
+import it.unical.igpe.net.GameClient;
+import it.unical.igpe.net.GameServer;
+
+/**
+ * LAN discovery, outside any connection. A client broadcasts a probe and
+ * every server that hears it answers with a beacon describing itself.
+ * Format: kind byte (0 probe, 1 beacon), then for a beacon the server name,
+ * the map, the connected players and the percent of time the server is busy
+ */
+public class Packet12Discovery extends Packet {
+	private static final int PROBE = 0, BEACON = 1;
+
+	private boolean beacon;
+	private String name = "", map = "";
+	private int players, load;
+
+	public Packet12Discovery(ByteBuffer data) {
+		super(12);
+		this.beacon = data.get() == BEACON;
+		if (beacon) {
+			this.name = readString(data);
+			this.map = readString(data);
+			this.players = readVarInt(data);
+			this.load = readVarInt(data);
+		}
+	}
+
+	/**
+	 * A probe
+	 */
+	public Packet12Discovery() {
+		super(12);
+	}
+
+	/**
+	 * A beacon
+	 *
+	 * @param load
+	 *            percent of time spent ticking or relaying
+	 */
+	public Packet12Discovery(String name, String map, int players, int load) {
+		super(12);
+		this.beacon = true;
+		this.name = name;
+		this.map = map;
+		this.players = players;
+		this.load = load;
+	}
+
+	@Override
+	public void writeData(GameClient client) {
+		client.sendData(this);
+	}
+
+	@Override
+	public void writeData(GameServer server) {
+		server.sendDataToAllClients(this);
+	}
+
+	@Override
+	protected void writePayload(ByteBuffer buffer) {
+		buffer.put((byte) (beacon ? BEACON : PROBE));
+		if (beacon) {
+			writeString(buffer, name);
+			writeString(buffer, map);
+			writeVarInt(buffer, players);
+			writeVarInt(buffer, load);
+		}
+	}
+
+	/**
+	 * @return true if the datagram starting at the position of the buffer is
+	 *         a probe, without reading it
+	 */
+	public static boolean isProbe(ByteBuffer data) {
+		int start = data.position();
+		return data.remaining() > HEADER_SIZE && lookupPacket(data.get(start)) == PacketTypes.DISCOVERY
+				&& data.get(start + HEADER_SIZE) == PROBE;
+	}
+
+	public boolean isBeacon() {
+		return beacon;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getMap() {
+		return map;
+	}
+
+	public int getPlayers() {
+		return players;
+	}
+
+	public int getLoad() {
+		return load;
+	}
+}
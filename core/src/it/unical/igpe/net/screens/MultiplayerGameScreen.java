@@ -1,7 +1,6 @@
 package it.unical.igpe.net.screens;
 
 import com.badlogic.gdx.Application;
-import com.badlogic.gdx.math.Rectangle;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
@@ -22,8 +21,8 @@ import it.unical.igpe.logic.Player;
 import it.unical.igpe.net.MultiplayerWorld;
 import it.unical.igpe.net.MultiplayerWorldRenderer;
 import it.unical.igpe.net.packet.Packet02Move;
+import it.unical.igpe.net.packet.Packet11Input;
 import it.unical.igpe.utils.GameConfig;
-import it.unical.igpe.utils.TileType;
 
 public class MultiplayerGameScreen implements Screen {
 	// CRITICAL: Don't store world reference - it can be replaced when map is reloaded!
@@ -33,6 +32,8 @@ public class MultiplayerGameScreen implements Screen {
 	TouchController touchController;
 	boolean isAndroid;
 	private boolean renderStarted = false;
+	private final Packet02Move packetMove = new Packet02Move(-1, 0, 0, 0, 0, 0, -1);
+	private final Packet11Input packetInput = new Packet11Input();
 
 	public MultiplayerGameScreen() {
 		it.unical.igpe.utils.DebugUtils.showMessage("=== MultiplayerGameScreen constructor START ===");
@@ -47,6 +48,8 @@ public class MultiplayerGameScreen implements Screen {
 			it.unical.igpe.utils.DebugUtils.showMessage("Creating new MultiplayerWorld with map: " + mapToLoad + (mapContent != null ? " (from content, length: " + mapContent.length() + ")" : ""));
 			try {
 				IGPEGame.game.worldMP = new MultiplayerWorld(mapToLoad, mapContent, false);
+				if (IGPEGame.game.socketClient != null)
+					IGPEGame.game.socketClient.applyPendingLogins();
 				it.unical.igpe.utils.DebugUtils.showMessage("MultiplayerWorld created successfully");
 			} catch (Exception e) {
 				it.unical.igpe.utils.DebugUtils.showError("Failed to create MultiplayerWorld", e);
@@ -131,6 +134,7 @@ public class MultiplayerGameScreen implements Screen {
 			Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 
 			world.update(delta);
+			world.reconcile();
 			if (isAndroid && touchController != null) {
 				touchController.update();
 			}
@@ -274,118 +278,34 @@ public class MultiplayerGameScreen implements Screen {
 			world.player.angle = dir.angle();
 		}
 
-		Rectangle box = new Rectangle();
-		
 		// Handle movement - Android uses touch controller, Desktop uses keyboard
-		Vector2 moveDir = null;
+		float moveX = 0, moveY = 0;
 		if (isAndroid && touchController != null) {
-			moveDir = touchController.getMovementDirection();
-		}
-		
-		// Movements and Collisions of the player
-		if (isAndroid && touchController != null && moveDir != null && moveDir.len() > 0.1f) {
-			// Android touch movement
-			float moveX = moveDir.x * GameConfig.MOVESPEED * delta;
-			float moveY = moveDir.y * GameConfig.MOVESPEED * delta;
-			
-			if (!world.player.isReloading())
-				world.player.state = Player.STATE_RUNNING;
-			
-			box = new Rectangle(world.player.getBoundingBox().x + moveX, world.player.getBoundingBox().y + moveY,
-					world.player.getBoundingBox().width, world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL) {
-				world.player.getBoundingBox().x += moveX;
-				world.player.getBoundingBox().y += moveY;
-			}
-		} else if (!isAndroid && Gdx.input.isKeyPressed(Input.Keys.W) && Gdx.input.isKeyPressed(Input.Keys.A)) {
-			if (!world.player.isReloading())
-				world.player.state = Player.STATE_RUNNING;
-			box = new Rectangle((int) world.player.getBoundingBox().x - (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().y - (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().width, world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL) {
-				world.player.getBoundingBox().x -= GameConfig.DIAGONALSPEED * delta;
-				world.player.getBoundingBox().y -= GameConfig.DIAGONALSPEED * delta;
+			Vector2 moveDir = touchController.getMovementDirection();
+			if (moveDir != null && moveDir.len() > 0.1f) {
+				moveX = moveDir.x;
+				moveY = moveDir.y;
 			}
-
-		} else if (!isAndroid && Gdx.input.isKeyPressed(Input.Keys.W) && Gdx.input.isKeyPressed(Input.Keys.D)) {
-			if (!world.player.isReloading())
-				world.player.state = Player.STATE_RUNNING;
-			box = new Rectangle((int) world.player.getBoundingBox().x + (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().y - (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().width, world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL) {
-				world.player.getBoundingBox().x += GameConfig.DIAGONALSPEED * delta;
-				world.player.getBoundingBox().y -= GameConfig.DIAGONALSPEED * delta;
-			}
-
-		} else if (!isAndroid && Gdx.input.isKeyPressed(Input.Keys.S) && Gdx.input.isKeyPressed(Input.Keys.A)) {
-			if (!world.player.isReloading())
-				world.player.state = Player.STATE_RUNNING;
-			box = new Rectangle((int) world.player.getBoundingBox().x - (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().y + (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().width, world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL) {
-				world.player.getBoundingBox().x -= GameConfig.DIAGONALSPEED * delta;
-				world.player.getBoundingBox().y += GameConfig.DIAGONALSPEED * delta;
-			}
-
-		} else if (!isAndroid && Gdx.input.isKeyPressed(Input.Keys.S) && Gdx.input.isKeyPressed(Input.Keys.D)) {
-			if (!world.player.isReloading())
-				world.player.state = Player.STATE_RUNNING;
-			box = new Rectangle((int) world.player.getBoundingBox().x + (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().y + (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().width, world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL) {
-				world.player.getBoundingBox().x += GameConfig.DIAGONALSPEED * delta;
-				world.player.getBoundingBox().y += GameConfig.DIAGONALSPEED * delta;
+		} else if (!isAndroid) {
+			if (Gdx.input.isKeyPressed(Input.Keys.W))
+				moveY -= 1;
+			if (Gdx.input.isKeyPressed(Input.Keys.S))
+				moveY += 1;
+			if (Gdx.input.isKeyPressed(Input.Keys.A))
+				moveX -= 1;
+			if (Gdx.input.isKeyPressed(Input.Keys.D))
+				moveX += 1;
+			if (moveX != 0 && moveY != 0) {
+				moveX *= (float) GameConfig.DIAGONALSPEED / GameConfig.MOVESPEED;
+				moveY *= (float) GameConfig.DIAGONALSPEED / GameConfig.MOVESPEED;
 			}
+		}
 
-		} else if (!isAndroid && Gdx.input.isKeyPressed(Input.Keys.W)) {
-			if (!world.player.isReloading())
-				world.player.state = Player.STATE_RUNNING;
-			box = new Rectangle((int) world.player.getBoundingBox().x,
-					world.player.getBoundingBox().y - (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().width, world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL)
-				world.player.getBoundingBox().y -= GameConfig.MOVESPEED * delta;
-
-		} else if (!isAndroid && Gdx.input.isKeyPressed(Input.Keys.A)) {
+		// Movements and Collisions of the player, predicted until the server confirms them
+		if (moveX != 0 || moveY != 0) {
 			if (!world.player.isReloading())
 				world.player.state = Player.STATE_RUNNING;
-			box = new Rectangle((int) world.player.getBoundingBox().x - (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().y, world.player.getBoundingBox().width,
-					world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL)
-				world.player.getBoundingBox().x -= GameConfig.MOVESPEED * delta;
-
-		} else if (!isAndroid && Gdx.input.isKeyPressed(Input.Keys.S)) {
-			if (!world.player.isReloading())
-				world.player.state = Player.STATE_RUNNING;
-			box = new Rectangle((int) world.player.getBoundingBox().x,
-					world.player.getBoundingBox().y + (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().width, world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL)
-				world.player.getBoundingBox().y += GameConfig.MOVESPEED * delta;
-
-		} else if (!isAndroid && Gdx.input.isKeyPressed(Input.Keys.D)) {
-			if (!world.player.isReloading())
-				world.player.state = Player.STATE_RUNNING;
-			box = new Rectangle((int) world.player.getBoundingBox().x + (int) (GameConfig.MOVESPEED * delta),
-					world.player.getBoundingBox().y, world.player.getBoundingBox().width,
-					world.player.getBoundingBox().height);
-			TileType tmp = MultiplayerWorld.getNextTile(box);
-			if (tmp != TileType.WALL)
-				world.player.getBoundingBox().x += GameConfig.MOVESPEED * delta;
-
+			world.predict(moveX, moveY, delta);
 		}
 
 		// Fire and Reloading action of the player
@@ -465,17 +385,22 @@ public class MultiplayerGameScreen implements Screen {
 			IGPEGame.game.setScreen(ScreenManager.MPS);
 		}
 
-		Packet02Move packetMove;
+		int weapon;
 		if (world.player.activeWeapon.ID == "pistol")
-			packetMove = new Packet02Move(world.player.getUsername(), (int) world.player.getBoundingBox().x,
-					(int) world.player.getBoundingBox().y, world.player.angle, world.player.state, 0);
+			weapon = 0;
 		else if (world.player.activeWeapon.ID == "shotgun")
-			packetMove = new Packet02Move(world.player.getUsername(), (int) world.player.getBoundingBox().x,
-					(int) world.player.getBoundingBox().y, world.player.angle, world.player.state, 1);
+			weapon = 1;
 		else
-			packetMove = new Packet02Move(world.player.getUsername(), (int) world.player.getBoundingBox().x,
-					(int) world.player.getBoundingBox().y, world.player.angle, world.player.state, 2);
-		packetMove.writeData(IGPEGame.game.socketClient);
+			weapon = 2;
+		if (world.authoritative) {
+			packetInput.set(world.player.id, world.getSnapshotTick(), world.player.angle, world.player.state, weapon,
+					world.getInputs());
+			packetInput.writeData(IGPEGame.game.socketClient);
+		} else {
+			packetMove.set(world.player.id, (int) world.player.getBoundingBox().x, (int) world.player.getBoundingBox().y,
+					world.player.angle, world.player.state, weapon, world.getSnapshotTick());
+			packetMove.writeData(IGPEGame.game.socketClient);
+		}
 	}
 
 	@Override
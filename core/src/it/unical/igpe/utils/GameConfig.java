@@ -13,7 +13,43 @@ public class GameConfig {
 	public static final int TILEDIM = 64;
 	public static final int ENEMY_RADIUS = 300;
 	public static final int ENEMY_SHOOT_RADIUS = 192;
+	public static final int PATH_EXPANSIONS_PER_FRAME = 2048;
 	public static final int MULTIKILLS = 5;
+	public static final int SERVER_TICKRATE = 30;
+	public static final int SERVER_MAX_LATE_TICKS = 5;
+	public static final int SNAPSHOT_HISTORY = 32;
+	public static final int SNAPSHOT_MAX_BULLETS = 128;
+	public static final int MAP_CHUNK_SIZE = 1024;
+	public static final int MAP_MAX_BYTES = 4 * 1024 * 1024;
+	public static final int MAP_CHUNK_WINDOW = 8;
+	public static final int MAP_RESEND_MS = 250;
+	public static final int MAP_TRANSFER_TIMEOUT_MS = 30000;
+	public static final int NET_POLL_MS = 50;
+	public static final int RELIABLE_RESEND_MS = 200;
+	public static final int KEEPALIVE_MS = 1000;
+	public static final int CONNECTION_TIMEOUT_MS = 10000;
+	public static final int SERVER_QUEUE_SIZE = 1024;
+	public static final int SERVER_BUFFER_SIZE = 4096;
+	public static final int ROOM_MAX_PLAYERS = 8;
+	public static final int ROOM_IDLE_MS = 30000;
+	public static final int INPUT_HISTORY = 64;
+	public static final int INPUT_REDUNDANCY = 8;
+	public static final int INPUT_BURST_MS = 250;
+	public static final int RECONCILE_TOLERANCE = 2;
+	public static final int SNAPSHOT_INTERVAL = 2;
+	public static final int INTERPOLATION_STATES = 16;
+	public static final int EXTRAPOLATION_MS = 150;
+	public static final int TELEPORT_DISTANCE = 256;
+	public static final int LAG_COMPENSATION_MS = 1000;
+	public static final int FIRE_ORIGIN_TOLERANCE = 16;
+	public static final int INTEREST_CELL = 512;
+	public static final int INTEREST_RADIUS = 1024;
+	public static final int INTEREST_FAR_INTERVAL = 4;
+	public static final int DISCOVERY_WINDOW_MS = 1000;
+	public static final int DISCOVERY_PROBES = 2;
+	public static final int LOAD_SAMPLE_MS = 1000;
+	public static final int RENDER_CHUNK_TILES = 16;
+	public static final int FRAME_TIME_WINDOW_MS = 1000;
 	public static final int BACKGROUNDWIDTH=1920;
 	public static final int BACKGROUNDHEIGHT=1080;
 	
@@ -22,5 +58,16 @@ public class GameConfig {
 	public static float MUSIC_VOLUME = 1.0f;
 	public static float SOUND_VOLUME = 1.0f;
 	public static boolean isFullscreen = false;
+	public static boolean useJumpPointSearch = true;
+	// Loopback lag simulation for the client, off when all are 0
+	public static int NET_SIM_LATENCY_MS = 0;
+	public static int NET_SIM_JITTER_MS = 0;
+	public static float NET_SIM_LOSS = 0f;
+	// How far in the past remote players are drawn
+	public static int INTERPOLATION_DELAY_MS = 100;
+	// Memory the parsed maps may keep in MapCache
+	public static long MAP_CACHE_BYTES = 16L * 1024 * 1024;
+	// Log the frame time of the renderers every FRAME_TIME_WINDOW_MS
+	public static boolean showFrameTime = false;
 
 }
@@ -15,6 +15,10 @@ public class DesktopLauncher {
 		cfg.width = GameConfig.WIDTH;
 		cfg.height = GameConfig.HEIGHT;
 		cfg.addIcon("icon.png", Files.FileType.Internal);
+		// Simulated network for multiplayer tests, e.g. -Dnet.latency=100 -Dnet.jitter=20 -Dnet.loss=0.05
+		GameConfig.NET_SIM_LATENCY_MS = Integer.getInteger("net.latency", 0);
+		GameConfig.NET_SIM_JITTER_MS = Integer.getInteger("net.jitter", 0);
+		GameConfig.NET_SIM_LOSS = Float.parseFloat(System.getProperty("net.loss", "0"));
 		new LwjglApplication(new IGPEGame(new DesktopFilePicker()), cfg);
 	}
 }
@@ -0,0 +1,60 @@
+package it.unical.igpe.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+import it.unical.igpe.MapUtils.MapFormat;
+import it.unical.igpe.net.RoomManager;
+import it.unical.igpe.utils.GameConfig;
+
+/**
+ * Dedicated server without window or OpenGL, hosting as many matches as
+ * clients ask for. Arguments, all optional: port, map (asset name or path to
+ * a .map file), tick rate, kills to win, name shown to LAN discovery.
+ */
+public class ServerLauncher {
+	public static void main(String[] arg) {
+		final int port = arg.length > 0 ? Integer.parseInt(arg[0]) : 1234;
+		final String map = arg.length > 1 ? arg[1] : "arena.map";
+		final int tickRate = arg.length > 2 ? Integer.parseInt(arg[2]) : GameConfig.SERVER_TICKRATE;
+		final int maxKills = arg.length > 3 ? Integer.parseInt(arg[3]) : 10;
+		final String name = arg.length > 4 ? arg[4] : null;
+
+		HeadlessApplicationConfiguration cfg = new HeadlessApplicationConfiguration();
+		// The server ticks on its own thread, the application only provides files and logging
+		cfg.renderInterval = 1f;
+		new HeadlessApplication(new ApplicationAdapter() {
+			@Override
+			public void create() {
+				// Maps outside the assets are sent to the clients as content
+				String mapContent = null;
+				File file = new File(map);
+				if (file.getParent() != null && file.exists()) {
+					FileHandle handle = Gdx.files.absolute(file.getAbsolutePath());
+					ByteBuffer data = ByteBuffer.wrap(handle.readBytes());
+					try {
+						// Compiled maps are sent to the clients as text
+						mapContent = MapFormat.isCompiled(data) ? MapFormat.toText(MapFormat.read(data, null))
+								: handle.readString();
+					} catch (IOException e) {
+						throw new GdxRuntimeException("Could not read map " + map, e);
+					}
+				}
+
+				RoomManager rooms = new RoomManager(port, map, mapContent, tickRate, maxKills);
+				if (name != null)
+					rooms.setServerName(name);
+				rooms.start();
+				System.out.println("Server on port " + port + " with " + map + " at " + tickRate + " Hz");
+			}
+		}, cfg);
+	}
+}